@@ -0,0 +1,124 @@
+package nz.ac.auckland.compression;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+
+/**
+ * Decodes message bodies whose Content-Encoding is gzip or deflate, as
+ * written by CompressionWriterInterceptor. Registered with the service it
+ * decodes compressed requests; registered with a client, compressed
+ * responses.
+ *
+ * A small compressed body can decode to a very large one, so decoded bodies
+ * are limited to maxDecodedSize bytes. Reading past the limit fails with a
+ * WebApplicationException, with status 413 (Request Entity Too Large), 
+ * before the excess is decompressed.
+ *
+ * Bodies with no Content-Encoding, or another one, are read as they are.
+ *
+ */
+public class CompressionReaderInterceptor implements ReaderInterceptor {
+
+	/**
+	 * Maximum size, in bytes, of a decoded body by default.
+	 */
+	public static final long DEFAULT_MAX_DECODED_SIZE = 16 * 1024 * 1024;
+
+	private final long _maxDecodedSize;
+
+	public CompressionReaderInterceptor() {
+		this(DEFAULT_MAX_DECODED_SIZE);
+	}
+
+	public CompressionReaderInterceptor(long maxDecodedSize) {
+		_maxDecodedSize = maxDecodedSize;
+	}
+
+	@Override
+	public Object aroundReadFrom(ReaderInterceptorContext context)
+			throws IOException, WebApplicationException {
+		String encoding = context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+		if(encoding == null) {
+			return context.proceed();
+		}
+
+		encoding = encoding.trim().toLowerCase();
+		InputStream original = context.getInputStream();
+		InputStream decoded;
+		if(encoding.equals(CompressionWriterInterceptor.GZIP)
+				|| encoding.equals(CompressionWriterInterceptor.X_GZIP)) {
+			decoded = new GZIPInputStream(original);
+		} else if(encoding.equals(CompressionWriterInterceptor.DEFLATE)) {
+			decoded = new InflaterInputStream(original);
+		} else {
+			return context.proceed();
+		}
+		context.setInputStream(new LimitedInputStream(decoded, _maxDecodedSize));
+
+		// The body is no longer encoded for the readers that follow.
+		context.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+		try {
+			return context.proceed();
+		} finally {
+			context.setInputStream(original);
+		}
+	}
+
+	/**
+	 * Passes reads through until more than _limit bytes have been read, and
+	 * then fails. Reads are capped at the remaining allowance plus one byte,
+	 * so that no more than the limit is ever decompressed before the body is
+	 * rejected.
+	 *
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+		private final long _limit;
+		private long _count;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			_limit = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if(b != -1) {
+				counted(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, (int) Math.min(len, _limit - _count + 1));
+			if(n > 0) {
+				counted(n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(Math.min(n, _limit - _count + 1));
+			counted(skipped);
+			return skipped;
+		}
+
+		private void counted(long n) {
+			_count += n;
+			if(_count > _limit) {
+				throw new WebApplicationException(Response.Status.REQUEST_ENTITY_TOO_LARGE);
+			}
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package nz.ac.auckland.compression;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Compresses response bodies with gzip or deflate, as negotiated with the
+ * request's Accept-Encoding header.
+ *
+ * Bodies smaller than the threshold are sent uncompressed, as compressing
+ * them costs more CPU than the bytes saved are worth. As entity sizes aren't
+ * known in advance, the first threshold bytes are buffered; if the body ends
+ * within them it's sent as is, and otherwise the Content-Encoding header is
+ * set and the body compressed from the start. Streamed bodies therefore
+ * still use bounded memory.
+ *
+ * If writing the body fails, the compressor's native memory is released
+ * without completing the encoded body.
+ *
+ * CompressionReaderInterceptor decodes compressed bodies on the receiving
+ * side.
+ *
+ */
+public class CompressionWriterInterceptor implements WriterInterceptor {
+
+	/**
+	 * Size, in bytes, from which bodies are compressed by default.
+	 */
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	static final String GZIP = "gzip";
+	static final String X_GZIP = "x-gzip";
+	static final String DEFLATE = "deflate";
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final int _threshold;
+
+	@Context
+	private HttpHeaders _requestHeaders;
+
+	public CompressionWriterInterceptor() {
+		this(DEFAULT_THRESHOLD);
+	}
+
+	public CompressionWriterInterceptor(int threshold) {
+		_threshold = threshold;
+	}
+
+	/**
+	 * Creates a CompressionWriterInterceptor that negotiates encodings with
+	 * the given request headers, rather than those injected by the JAX-RS 
+	 * runtime, for use outside a server, as by tests and benchmarks.
+	 *
+	 */
+	public CompressionWriterInterceptor(int threshold, HttpHeaders requestHeaders) {
+		this(threshold);
+		_requestHeaders = requestHeaders;
+	}
+
+	@Override
+	public void aroundWriteTo(WriterInterceptorContext context)
+			throws IOException, WebApplicationException {
+		// Request headers are only available on the server, and the body may
+		// already have been encoded by the application.
+		MultivaluedMap<String, Object> headers = context.getHeaders();
+		if(_requestHeaders == null || headers.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+			context.proceed();
+			return;
+		}
+		headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		String encoding = selectEncoding(_requestHeaders.getRequestHeader(HttpHeaders.ACCEPT_ENCODING));
+		if(encoding == null) {
+			context.proceed();
+			return;
+		}
+
+		OutputStream original = context.getOutputStream();
+		ThresholdOutputStream output = new ThresholdOutputStream(original, headers, encoding);
+		context.setOutputStream(output);
+		try {
+			context.proceed();
+			output.finish();
+		} finally {
+			output.end();
+			context.setOutputStream(original);
+		}
+	}
+
+	/**
+	 * Returns the preferred encoding, gzip or deflate, of those accepted with
+	 * a non-zero quality, or null if neither is. gzip is preferred when both
+	 * are equally acceptable.
+	 *
+	 * @param acceptEncoding the values of the Accept-Encoding headers, or
+	 * null if there were none.
+	 */
+	static String selectEncoding(Iterable<String> acceptEncoding) {
+		if(acceptEncoding == null) {
+			return null;
+		}
+		float gzip = -1;
+		float deflate = -1;
+		float any = -1;
+		for(String header : acceptEncoding) {
+			for(String element : header.split(",")) {
+				String[] parameters = element.split(";");
+				String coding = parameters[0].trim().toLowerCase();
+				float quality = quality(parameters);
+				if(coding.equals(GZIP) || coding.equals(X_GZIP)) {
+					gzip = quality;
+				} else if(coding.equals(DEFLATE)) {
+					deflate = quality;
+				} else if(coding.equals("*")) {
+					any = quality;
+				}
+			}
+		}
+		if(gzip < 0) {
+			gzip = any;
+		}
+		if(deflate < 0) {
+			deflate = any;
+		}
+		if(gzip > 0 && gzip >= deflate) {
+			return GZIP;
+		}
+		return deflate > 0 ? DEFLATE : null;
+	}
+
+	private static float quality(String[] parameters) {
+		for(int i = 1; i < parameters.length; i++) {
+			String parameter = parameters[i].trim();
+			if(parameter.startsWith("q=")) {
+				try {
+					return Float.parseFloat(parameter.substring(2));
+				} catch(NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * Buffers the first _threshold bytes written, then either compresses
+	 * everything written or, if no more is written, passes the buffered bytes
+	 * on uncompressed. Nothing reaches the underlying stream, so the response
+	 * headers can still be changed, until the choice is made.
+	 *
+	 */
+	private class ThresholdOutputStream extends OutputStream {
+		private final OutputStream _out;
+		private final MultivaluedMap<String, Object> _headers;
+		private final String _encoding;
+
+		private byte[] _buffer = new byte[_threshold];
+		private int _count;
+		private DeflaterOutputStream _compressor;
+		private Deflater _deflater;
+
+		// Reused by write(int), as DeflaterOutputStream.write(int) allocates
+		// an array for each byte.
+		private final byte[] _single = new byte[1];
+
+		ThresholdOutputStream(OutputStream out, MultivaluedMap<String, Object> headers, String encoding) {
+			_out = out;
+			_headers = headers;
+			_encoding = encoding;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if(_compressor == null) {
+				if(_count + 1 < _threshold) {
+					_buffer[_count++] = (byte) b;
+					return;
+				}
+				startCompressing();
+			}
+			_single[0] = (byte) b;
+			_compressor.write(_single, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(_compressor == null) {
+				if(_count + len < _threshold) {
+					System.arraycopy(b, off, _buffer, _count, len);
+					_count += len;
+					return;
+				}
+				startCompressing();
+			}
+			_compressor.write(b, off, len);
+		}
+
+		/**
+		 * Flushes compressed data written so far. Until the threshold is
+		 * reached, flushing has no effect, as the choice of encoding hasn't
+		 * been made.
+		 */
+		@Override
+		public void flush() throws IOException {
+			if(_compressor != null) {
+				_compressor.flush();
+			}
+		}
+
+		/**
+		 * Completes the body, without closing the underlying stream.
+		 */
+		void finish() throws IOException {
+			if(_compressor == null) {
+				_out.write(_buffer, 0, _count);
+			} else {
+				_compressor.close();
+			}
+			_buffer = null;
+		}
+
+		/**
+		 * Releases the compressor's native memory, whether or not the body
+		 * was completed. Safe to call more than once.
+		 */
+		void end() {
+			if(_deflater != null) {
+				_deflater.end();
+			}
+		}
+
+		private void startCompressing() throws IOException {
+			_headers.putSingle(HttpHeaders.CONTENT_ENCODING, _encoding);
+			_headers.remove(HttpHeaders.CONTENT_LENGTH);
+			OutputStream out = new UnclosableOutputStream(_out);
+			if(_encoding.equals(GZIP)) {
+				GZIPCompressor gzip = new GZIPCompressor(out);
+				_deflater = gzip.getDeflater();
+				_compressor = gzip;
+			} else {
+				_deflater = new Deflater();
+				_compressor = new DeflaterOutputStream(out, _deflater, BUFFER_SIZE, true);
+			}
+			_compressor.write(_buffer, 0, _count);
+			_buffer = null;
+		}
+	}
+
+	/**
+	 * GZIPOutputStream that exposes its Deflater, so that it can be ended if
+	 * the stream is never closed.
+	 *
+	 */
+	private static class GZIPCompressor extends GZIPOutputStream {
+		GZIPCompressor(OutputStream out) throws IOException {
+			super(out, BUFFER_SIZE, true);
+		}
+
+		Deflater getDeflater() {
+			return def;
+		}
+	}
+
+	/**
+	 * Passes writes through to the response's stream, but leaves it open
+	 * when closed; the JAX-RS runtime closes it once the response is done.
+	 *
+	 */
+	private static class UnclosableOutputStream extends FilterOutputStream {
+		UnclosableOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package nz.ac.auckland.compression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import org.junit.Test;
+
+public class CompressionInterceptorTest {
+
+	private static final int THRESHOLD = 1024;
+
+	@Test
+	public void sendSmallBodiesUncompressed() throws IOException {
+		byte[] body = text(THRESHOLD - 1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StubWriterInterceptorContext context = new StubWriterInterceptorContext(o -> o.write(body), out);
+		writer("gzip").aroundWriteTo(context);
+
+		assertArrayEquals(body, out.toByteArray());
+		assertNull(context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+		assertEquals(HttpHeaders.ACCEPT_ENCODING, context.getHeaders().getFirst(HttpHeaders.VARY));
+	}
+
+	@Test
+	public void compressLargeBodies() throws IOException {
+		for(String encoding : new String[] {"gzip", "deflate"}) {
+			// Written a byte at a time, across the threshold.
+			byte[] body = text(THRESHOLD * 10);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			StubWriterInterceptorContext context = new StubWriterInterceptorContext(o -> {
+				for(byte b : body) {
+					o.write(b);
+				}
+			}, out);
+			writer(encoding).aroundWriteTo(context);
+
+			assertEquals(encoding, context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+			assertArrayEquals(body, read(out.toByteArray(), encoding, CompressionReaderInterceptor.DEFAULT_MAX_DECODED_SIZE));
+		}
+	}
+
+	@Test
+	public void restoreStreamAfterFailedWrite() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StubWriterInterceptorContext context = new StubWriterInterceptorContext(o -> {
+			o.write(text(THRESHOLD * 2));
+			throw new IOException("Client disconnected");
+		}, out);
+		try {
+			writer("deflate").aroundWriteTo(context);
+			fail();
+		} catch(IOException e) {
+			assertEquals("Client disconnected", e.getMessage());
+		}
+		assertSame(out, context.getOutputStream());
+	}
+
+	@Test
+	public void rejectOversizedBodies() throws IOException {
+		byte[] bomb = new byte[1024 * 1024];
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer("gzip").aroundWriteTo(new StubWriterInterceptorContext(o -> o.write(bomb), out));
+
+		assertArrayEquals(bomb, read(out.toByteArray(), "gzip", bomb.length));
+		try {
+			read(out.toByteArray(), "gzip", bomb.length - 1);
+			fail();
+		} catch(WebApplicationException e) {
+			assertEquals(Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode(), e.getResponse().getStatus());
+		}
+	}
+
+	private static CompressionWriterInterceptor writer(String acceptEncoding) {
+		return new CompressionWriterInterceptor(THRESHOLD, StubInterceptorContext.requestHeaders(acceptEncoding));
+	}
+
+	private static byte[] read(byte[] encoded, String encoding, long maxDecodedSize) throws IOException {
+		StubReaderInterceptorContext context = new StubReaderInterceptorContext(new ByteArrayInputStream(encoded), encoding);
+		return (byte[]) new CompressionReaderInterceptor(maxDecodedSize).aroundReadFrom(context);
+	}
+
+	// Returns random lower-case text, which compresses about as well as XML
+	// element content.
+	private static byte[] text(int length) {
+		Random random = new Random(length);
+		byte[] text = new byte[length];
+		for(int i = 0; i < length; i++) {
+			text[i] = (byte) ('a' + random.nextInt(26));
+		}
+		return text;
+	}
+}
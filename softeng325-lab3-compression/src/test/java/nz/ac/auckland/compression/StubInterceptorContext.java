@@ -0,0 +1,102 @@
+package nz.ac.auckland.compression;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.InterceptorContext;
+
+import org.jboss.resteasy.specimpl.ResteasyHttpHeaders;
+
+/**
+ * InterceptorContext for running the compression interceptors outside a 
+ * JAX-RS runtime, in tests and benchmarks. Its entity is a byte array.
+ *
+ */
+public abstract class StubInterceptorContext implements InterceptorContext {
+
+	private final Map<String, Object> _properties = new HashMap<String, Object>();
+	private Annotation[] _annotations = new Annotation[0];
+	private Class<?> _type = byte[].class;
+	private Type _genericType = byte[].class;
+	private MediaType _mediaType = MediaType.APPLICATION_XML_TYPE;
+
+	/**
+	 * Returns request headers with the given Accept-Encoding header, or none
+	 * if acceptEncoding is null.
+	 *
+	 */
+	public static HttpHeaders requestHeaders(String acceptEncoding) {
+		MultivaluedMap<String, String> headers = new MultivaluedHashMap<String, String>();
+		if(acceptEncoding != null) {
+			headers.add(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+		}
+		return new ResteasyHttpHeaders(headers);
+	}
+
+	@Override
+	public Object getProperty(String name) {
+		return _properties.get(name);
+	}
+
+	@Override
+	public Collection<String> getPropertyNames() {
+		return _properties.keySet();
+	}
+
+	@Override
+	public void setProperty(String name, Object object) {
+		_properties.put(name, object);
+	}
+
+	@Override
+	public void removeProperty(String name) {
+		_properties.remove(name);
+	}
+
+	@Override
+	public Annotation[] getAnnotations() {
+		return _annotations;
+	}
+
+	@Override
+	public void setAnnotations(Annotation[] annotations) {
+		_annotations = annotations;
+	}
+
+	@Override
+	public Class<?> getType() {
+		return _type;
+	}
+
+	@Override
+	public void setType(Class<?> type) {
+		_type = type;
+	}
+
+	@Override
+	public Type getGenericType() {
+		return _genericType;
+	}
+
+	@Override
+	public void setGenericType(Type genericType) {
+		_genericType = genericType;
+	}
+
+	@Override
+	public MediaType getMediaType() {
+		return _mediaType;
+	}
+
+	@Override
+	public void setMediaType(MediaType mediaType) {
+		_mediaType = mediaType;
+	}
+}
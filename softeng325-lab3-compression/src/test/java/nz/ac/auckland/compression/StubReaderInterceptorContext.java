@@ -0,0 +1,62 @@
+package nz.ac.auckland.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+
+/**
+ * ReaderInterceptorContext whose proceed() reads the current input stream to
+ * its end, and returns what it read as a byte array.
+ *
+ */
+public class StubReaderInterceptorContext extends StubInterceptorContext 
+		implements ReaderInterceptorContext {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final MultivaluedMap<String, String> _headers = new MultivaluedHashMap<String, String>();
+	private InputStream _in;
+
+	/**
+	 * @param contentEncoding the body's Content-Encoding, or null.
+	 *
+	 */
+	public StubReaderInterceptorContext(InputStream in, String contentEncoding) {
+		_in = in;
+		if(contentEncoding != null) {
+			_headers.add(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+		}
+	}
+
+	@Override
+	public Object proceed() throws IOException, WebApplicationException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int count;
+		while((count = _in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		return out.toByteArray();
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return _in;
+	}
+
+	@Override
+	public void setInputStream(InputStream in) {
+		_in = in;
+	}
+
+	@Override
+	public MultivaluedMap<String, String> getHeaders() {
+		return _headers;
+	}
+}
@@ -0,0 +1,60 @@
+package nz.ac.auckland.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * WriterInterceptorContext whose proceed() writes the body with a 
+ * StreamingOutput, as a MessageBodyWriter would, to the current output 
+ * stream.
+ *
+ */
+public class StubWriterInterceptorContext extends StubInterceptorContext 
+		implements WriterInterceptorContext {
+
+	private final StreamingOutput _body;
+	private final MultivaluedMap<String, Object> _headers = new MultivaluedHashMap<String, Object>();
+	private OutputStream _out;
+	private Object _entity;
+
+	public StubWriterInterceptorContext(StreamingOutput body, OutputStream out) {
+		_body = body;
+		_out = out;
+	}
+
+	@Override
+	public void proceed() throws IOException, WebApplicationException {
+		_body.write(_out);
+	}
+
+	@Override
+	public Object getEntity() {
+		return _entity;
+	}
+
+	@Override
+	public void setEntity(Object entity) {
+		_entity = entity;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return _out;
+	}
+
+	@Override
+	public void setOutputStream(OutputStream out) {
+		_out = out;
+	}
+
+	@Override
+	public MultivaluedMap<String, Object> getHeaders() {
+		return _headers;
+	}
+}
@@ -0,0 +1,162 @@
+package nz.ac.auckland.concert.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.annotation.XmlElementRef;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import nz.ac.auckland.compression.CompressionReaderInterceptor;
+import nz.ac.auckland.compression.CompressionWriterInterceptor;
+import nz.ac.auckland.compression.StubInterceptorContext;
+import nz.ac.auckland.compression.StubReaderInterceptorContext;
+import nz.ac.auckland.compression.StubWriterInterceptorContext;
+import nz.ac.auckland.concert.domain.Concert;
+import nz.ac.auckland.concert.services.ConcertStreamingOutput;
+import nz.ac.auckland.parolee.domain.GeoPosition;
+import nz.ac.auckland.parolee.domain.Movement;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the CPU cost of the response encodings negotiated by
+ * CompressionWriterInterceptor against the bytes they save, for the XML
+ * bodies of two responses: a range of size Concerts from the concert
+ * service's retrieveConcerts, written by ConcertStreamingOutput, and size
+ * Movements from the parolee service's getMovements, written as RESTEasy
+ * writes a List of JAXB objects.
+ *
+ * compress runs CompressionWriterInterceptor, with its default threshold, 
+ * through a stub WriterInterceptorContext for a request accepting the 
+ * encoding, and so measures the service's cost per response, including the
+ * threshold buffering. decompress runs CompressionReaderInterceptor over the
+ * result, measuring the client's cost. identity sends the body as is, as a 
+ * baseline. The encoded size of each body is printed when the trial starts;
+ * bodies of size 1 fall below the threshold, so are sent uncompressed 
+ * whatever the encoding.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-XX:+IgnoreUnrecognizedVMOptions",
+		"--add-opens=java.base/java.lang=ALL-UNNAMED"})
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+
+	@Param({"concerts", "movements"})
+	private String payload;
+
+	@Param({"identity", "gzip", "deflate"})
+	private String encoding;
+
+	@Param({"1", "20", "1000"})
+	private int size;
+
+	private byte[] body;
+	private byte[] encoded;
+	private String contentEncoding;
+
+	private CompressionWriterInterceptor writer;
+	private CompressionReaderInterceptor reader;
+
+	/**
+	 * Root element for a List of Movements, matching the collection element
+	 * RESTEasy writes for a List of JAXB objects.
+	 *
+	 */
+	@XmlRootElement(name = "collection")
+	public static class MovementCollection {
+		@XmlElementRef
+		public List<Movement> movements;
+	}
+
+	@Setup(Level.Trial)
+	public void createBody() throws IOException, JAXBException {
+		body = payload.equals("concerts") ? concertsXml() : movementsXml();
+		writer = new CompressionWriterInterceptor(CompressionWriterInterceptor.DEFAULT_THRESHOLD,
+				StubInterceptorContext.requestHeaders(encoding));
+		reader = new CompressionReaderInterceptor();
+
+		StubWriterInterceptorContext context = write();
+		encoded = ((ByteArrayOutputStream) context.getOutputStream()).toByteArray();
+		contentEncoding = (String) context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+		System.out.printf("%n%s bytes: %d, %s %d (%.1f%%)%n",
+				payload, body.length, contentEncoding == null ? "identity" : contentEncoding,
+				encoded.length, 100.0 * encoded.length / body.length);
+	}
+
+	@Benchmark
+	public byte[] compress() throws IOException {
+		return ((ByteArrayOutputStream) write().getOutputStream()).toByteArray();
+	}
+
+	@Benchmark
+	public byte[] decompress() throws IOException {
+		StubReaderInterceptorContext context = new StubReaderInterceptorContext(
+				new ByteArrayInputStream(encoded), contentEncoding);
+		return (byte[]) reader.aroundReadFrom(context);
+	}
+
+	private StubWriterInterceptorContext write() throws IOException {
+		StubWriterInterceptorContext context = new StubWriterInterceptorContext(
+				out -> out.write(body), new ByteArrayOutputStream());
+		writer.aroundWriteTo(context);
+		return context;
+	}
+
+	private byte[] concertsXml() throws IOException {
+		List<Concert> concerts = new ArrayList<Concert>();
+		DateTime date = new DateTime(2018, 1, 25, 20, 0);
+		for(int i = 1; i <= size; i++) {
+			concerts.add(new Concert((long) i, "Concert " + i, date.plusDays(i)));
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ConcertStreamingOutput(concerts, MediaType.APPLICATION_XML_TYPE).write(out);
+		return out.toByteArray();
+	}
+
+	// Movements are a random walk, sampled every few minutes, so that their
+	// positions compress no better than a real parolee's would.
+	private byte[] movementsXml() throws JAXBException {
+		MovementCollection collection = new MovementCollection();
+		collection.movements = new ArrayList<Movement>();
+		Random random = new Random(size);
+		LocalDateTime timestamp = new LocalDateTime(2017, 6, 1, 8, 0);
+		double lat = -36.848461;
+		double lng = 174.763336;
+		for(int i = 0; i < size; i++) {
+			collection.movements.add(new Movement(timestamp, new GeoPosition(lat, lng)));
+			timestamp = timestamp.plusMinutes(1 + random.nextInt(10));
+			lat += (random.nextDouble() - 0.5) / 100;
+			lng += (random.nextDouble() - 0.5) / 100;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JAXBContext.newInstance(MovementCollection.class, Movement.class)
+				.createMarshaller().marshal(collection, out);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,132 @@
+package nz.ac.auckland.concert.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.annotation.XmlElementRef;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import nz.ac.auckland.concert.common.ConcertBinaryFormat;
+import nz.ac.auckland.concert.domain.Concert;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the concert service's wire formats: ConcertBinaryFormat, Java
+ * serialization (as written by SerializationMessageBodyReaderAndWriter) and
+ * XML (JAXB, as used by RESTEasy's XML providers). Each benchmark encodes or
+ * decodes a List of size Concerts; size 1 approximates a single Concert
+ * response, though the List adds a few bytes to each format.
+ *
+ * The encoded size of each format, in bytes per Concert, is printed when the
+ * trial starts. The forked JVM opens java.lang to the JAXB 2.2 runtime, which
+ * needs it on Java 9 and later; Java 8 ignores the option.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-XX:+IgnoreUnrecognizedVMOptions",
+		"--add-opens=java.base/java.lang=ALL-UNNAMED"})
+@State(Scope.Benchmark)
+public class WireFormatBenchmark {
+
+	@Param({"1", "20", "1000"})
+	private int size;
+
+	private ArrayList<Concert> concerts;
+
+	private JAXBContext jaxbContext;
+
+	private byte[] binary;
+	private byte[] serialized;
+	private byte[] xml;
+
+	/**
+	 * Root element for a List of Concerts, matching the collection element
+	 * RESTEasy writes for a List of JAXB objects.
+	 *
+	 */
+	@XmlRootElement(name = "collection")
+	public static class ConcertCollection {
+		@XmlElementRef
+		public List<Concert> concerts;
+	}
+
+	@Setup(Level.Trial)
+	public void createConcerts() throws IOException, JAXBException {
+		concerts = new ArrayList<Concert>();
+		DateTime date = new DateTime(2018, 1, 25, 20, 0);
+		for(int i = 1; i <= size; i++) {
+			concerts.add(new Concert((long) i, "Concert " + i, date.plusDays(i)));
+		}
+		jaxbContext = JAXBContext.newInstance(ConcertCollection.class, Concert.class);
+
+		binary = encodeBinary();
+		serialized = encodeSerialization();
+		xml = encodeXml();
+		System.out.printf("%nBytes per Concert: binary %.1f, serialization %.1f, XML %.1f%n",
+				(double) binary.length / size,
+				(double) serialized.length / size,
+				(double) xml.length / size);
+	}
+
+	@Benchmark
+	public byte[] encodeBinary() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ConcertBinaryFormat.writeConcerts(concerts, out);
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public List<Concert> decodeBinary() throws IOException {
+		return ConcertBinaryFormat.readConcerts(new ByteArrayInputStream(binary));
+	}
+
+	@Benchmark
+	public byte[] encodeSerialization() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SerializationUtils.serialize(concerts, out);
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public Serializable decodeSerialization() {
+		return (Serializable) SerializationUtils.deserialize(new ByteArrayInputStream(serialized));
+	}
+
+	@Benchmark
+	public byte[] encodeXml() throws JAXBException {
+		ConcertCollection collection = new ConcertCollection();
+		collection.concerts = concerts;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		jaxbContext.createMarshaller().marshal(collection, out);
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public Object decodeXml() throws JAXBException {
+		return jaxbContext.createUnmarshaller().unmarshal(new ByteArrayInputStream(xml));
+	}
+}
@@ -0,0 +1,336 @@
+package nz.ac.auckland.concert.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import nz.ac.auckland.concert.domain.Concert;
+
+import org.joda.time.DateTime;
+
+/**
+ * Compact binary encoding of Concerts, shared by clients and the Web service.
+ *
+ * Unlike Java serialization, the format carries no class descriptors: the
+ * reader knows the schema, so a Concert costs only its field values. Each
+ * message starts with a version byte (VERSION). A single Concert follows as:
+ *
+ * <pre>
+ *   flags      1 byte, bit 0 set if the id is present, bit 1 the title, bit 2 the date
+ *   id         zigzag varint
+ *   title      varint byte length, then UTF-8 bytes
+ *   date       zigzag varint, milliseconds since the epoch
+ * </pre>
+ *
+ * with absent fields omitted. A List of Concerts is written in chunks, each a
+ * varint count of at most 128 followed by that many Concerts, and ends with
+ * an empty chunk; so a List can be written as it is produced, without knowing
+ * its size in advance. Varints are little-endian base 128, as in Protocol Buffers, so IDs
+ * below 64 take one byte and current dates six.
+ *
+ * Dates are decoded in the default time zone; the time zone of an encoded
+ * DateTime isn't preserved, but the instant is.
+ *
+ */
+public class ConcertBinaryFormat {
+
+	/**
+	 * Version of the format written, and the only version read.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Largest title, in UTF-8 bytes, accepted by the reader.
+	 */
+	public static final int MAX_TITLE_LENGTH = 64 * 1024;
+
+	private static final int HAS_ID = 1;
+	private static final int HAS_TITLE = 2;
+	private static final int HAS_DATE = 4;
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	// Largest number of Concerts in a chunk of a List.
+	private static final int CHUNK_SIZE = 128;
+
+	/**
+	 * Thrown when the input isn't a well-formed message in this format.
+	 *
+	 */
+	public static class FormatException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public FormatException(String message) {
+			super(message);
+		}
+	}
+
+	private ConcertBinaryFormat() {}
+
+	/**
+	 * Writes a Concert to the given stream. The stream isn't flushed or
+	 * closed.
+	 *
+	 */
+	public static void writeConcert(Concert concert, OutputStream out) throws IOException {
+		Encoder encoder = new Encoder(out);
+		encoder.writeByte(VERSION);
+		encoder.writeConcert(concert);
+		encoder.flush();
+	}
+
+	/**
+	 * Writes Concerts, to be read back as a List, to the given stream. The
+	 * Concerts are consumed and written a chunk at a time, so memory use
+	 * doesn't grow with their number. The stream isn't flushed or closed.
+	 *
+	 */
+	public static void writeConcerts(Iterable<? extends Concert> concerts, OutputStream out) throws IOException {
+		Encoder encoder = new Encoder(out);
+		encoder.writeByte(VERSION);
+		List<Concert> chunk = new ArrayList<Concert>(CHUNK_SIZE);
+		for(Concert concert : concerts) {
+			chunk.add(concert);
+			if(chunk.size() == CHUNK_SIZE) {
+				encoder.writeChunk(chunk);
+				chunk.clear();
+			}
+		}
+		if(!chunk.isEmpty()) {
+			encoder.writeChunk(chunk);
+		}
+		encoder.writeVarint(0);
+		encoder.flush();
+	}
+
+	/**
+	 * Reads a Concert written by writeConcert(). The stream may be read past
+	 * the end of the message, and isn't closed.
+	 *
+	 * @throws FormatException if the input is malformed.
+	 *
+	 * @throws EOFException if the input ends before the message does.
+	 *
+	 */
+	public static Concert readConcert(InputStream in) throws IOException {
+		Decoder decoder = new Decoder(in);
+		decoder.readVersion();
+		return decoder.readConcert();
+	}
+
+	/**
+	 * Reads a List of Concerts written by writeConcerts(). The stream may be
+	 * read past the end of the message, and isn't closed.
+	 *
+	 * @throws FormatException if the input is malformed.
+	 *
+	 * @throws EOFException if the input ends before the message does.
+	 *
+	 */
+	public static List<Concert> readConcerts(InputStream in) throws IOException {
+		Decoder decoder = new Decoder(in);
+		decoder.readVersion();
+		List<Concert> concerts = new ArrayList<Concert>();
+		int count;
+		while((count = decoder.readLength(CHUNK_SIZE)) > 0) {
+			for(int i = 0; i < count; i++) {
+				concerts.add(decoder.readConcert());
+			}
+		}
+		return concerts;
+	}
+
+	/**
+	 * Buffers encoded bytes, writing them to the stream whenever the buffer
+	 * fills, so memory use doesn't grow with the number of Concerts.
+	 *
+	 */
+	private static class Encoder {
+		private final OutputStream _out;
+		private final byte[] _buffer = new byte[BUFFER_SIZE];
+		private int _position;
+
+		Encoder(OutputStream out) {
+			_out = out;
+		}
+
+		void writeChunk(List<Concert> chunk) throws IOException {
+			writeVarint(chunk.size());
+			for(Concert concert : chunk) {
+				writeConcert(concert);
+			}
+		}
+
+		void writeConcert(Concert concert) throws IOException {
+			Long id = concert.getId();
+			String title = concert.getTitle();
+			DateTime date = concert.getDate();
+
+			int flags = (id != null ? HAS_ID : 0)
+					| (title != null ? HAS_TITLE : 0)
+					| (date != null ? HAS_DATE : 0);
+			writeByte(flags);
+			if(id != null) {
+				writeVarint(zigzag(id));
+			}
+			if(title != null) {
+				byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+				writeVarint(bytes.length);
+				writeBytes(bytes);
+			}
+			if(date != null) {
+				writeVarint(zigzag(date.getMillis()));
+			}
+		}
+
+		void writeByte(int b) throws IOException {
+			if(_position == _buffer.length) {
+				flushBuffer();
+			}
+			_buffer[_position++] = (byte) b;
+		}
+
+		void writeVarint(long value) throws IOException {
+			if(_buffer.length - _position < 10) {
+				flushBuffer();
+			}
+			while((value & ~0x7FL) != 0) {
+				_buffer[_position++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			_buffer[_position++] = (byte) value;
+		}
+
+		void writeBytes(byte[] bytes) throws IOException {
+			if(bytes.length > _buffer.length - _position) {
+				flushBuffer();
+				if(bytes.length > _buffer.length) {
+					_out.write(bytes);
+					return;
+				}
+			}
+			System.arraycopy(bytes, 0, _buffer, _position, bytes.length);
+			_position += bytes.length;
+		}
+
+		void flush() throws IOException {
+			flushBuffer();
+		}
+
+		private void flushBuffer() throws IOException {
+			_out.write(_buffer, 0, _position);
+			_position = 0;
+		}
+	}
+
+	/**
+	 * Reads ahead from the stream into a buffer, rather than making a call on
+	 * the stream for every byte.
+	 *
+	 */
+	private static class Decoder {
+		private final InputStream _in;
+		private final byte[] _buffer = new byte[BUFFER_SIZE];
+		private int _position;
+		private int _limit;
+
+		Decoder(InputStream in) {
+			_in = in;
+		}
+
+		void readVersion() throws IOException {
+			int version = readByte();
+			if(version != VERSION) {
+				throw new FormatException("Unsupported format version " + version);
+			}
+		}
+
+		Concert readConcert() throws IOException {
+			int flags = readByte();
+			if((flags & ~(HAS_ID | HAS_TITLE | HAS_DATE)) != 0) {
+				throw new FormatException("Invalid Concert flags " + flags);
+			}
+			Long id = null;
+			String title = null;
+			DateTime date = null;
+			if((flags & HAS_ID) != 0) {
+				id = unzigzag(readVarint());
+			}
+			if((flags & HAS_TITLE) != 0) {
+				title = readString(readLength(MAX_TITLE_LENGTH));
+			}
+			if((flags & HAS_DATE) != 0) {
+				date = new DateTime(unzigzag(readVarint()));
+			}
+			return new Concert(id, title, date);
+		}
+
+		int readLength(int max) throws IOException {
+			long length = readVarint();
+			if(length < 0 || length > max) {
+				throw new FormatException("Invalid length " + length);
+			}
+			return (int) length;
+		}
+
+		int readByte() throws IOException {
+			if(_position == _limit) {
+				fill();
+			}
+			return _buffer[_position++] & 0xFF;
+		}
+
+		long readVarint() throws IOException {
+			long value = 0;
+			for(int shift = 0; shift < 64; shift += 7) {
+				int b = readByte();
+				value |= (long) (b & 0x7F) << shift;
+				if((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new FormatException("Varint longer than 10 bytes");
+		}
+
+		String readString(int length) throws IOException {
+			if(length <= _limit - _position) {
+				String value = new String(_buffer, _position, length, StandardCharsets.UTF_8);
+				_position += length;
+				return value;
+			}
+			byte[] bytes = new byte[length];
+			int copied = 0;
+			while(copied < length) {
+				if(_position == _limit) {
+					fill();
+				}
+				int n = Math.min(length - copied, _limit - _position);
+				System.arraycopy(_buffer, _position, bytes, copied, n);
+				_position += n;
+				copied += n;
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		private void fill() throws IOException {
+			int n = _in.read(_buffer, 0, _buffer.length);
+			if(n <= 0) {
+				throw new EOFException("Unexpected end of Concert data");
+			}
+			_position = 0;
+			_limit = n;
+		}
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
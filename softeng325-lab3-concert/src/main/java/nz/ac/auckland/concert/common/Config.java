@@ -9,4 +9,10 @@ public class Config {
 	 * Name of a cookie exchanged by clients and the Web service.
 	 */
 	public static final String CLIENT_COOKIE = "clientId";
+	
+	/**
+	 * Name of a header returned with a page of Concerts when there are more,
+	 * whose value is the start of the next page.
+	 */
+	public static final String NEXT_CURSOR_HEADER = "Next-Cursor";
 }
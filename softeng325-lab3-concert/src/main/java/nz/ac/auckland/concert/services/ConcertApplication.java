@@ -6,6 +6,9 @@ import java.util.Set;
 import javax.ws.rs.ApplicationPath;
 import javax.ws.rs.core.Application;
 
+import nz.ac.auckland.compression.CompressionReaderInterceptor;
+import nz.ac.auckland.compression.CompressionWriterInterceptor;
+
 
 
 @ApplicationPath("/services")
@@ -17,6 +20,9 @@ public class ConcertApplication extends Application {
 	{
 		_singletons.add(new ConcertResource());
 		_classes.add(SerializationMessageBodyReaderAndWriter.class);
+		_classes.add(ConcertBinaryMessageBodyReaderAndWriter.class);
+		_classes.add(CompressionWriterInterceptor.class);
+		_classes.add(CompressionReaderInterceptor.class);
 	}
 
 	@Override
@@ -0,0 +1,99 @@
+package nz.ac.auckland.concert.services;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import nz.ac.auckland.concert.common.ConcertBinaryFormat;
+import nz.ac.auckland.concert.domain.Concert;
+
+/**
+ * Reads and writes Concerts, and Lists of Concerts, in ConcertBinaryFormat.
+ *
+ * Only Concert and List<Concert> entities are handled, so unlike Java
+ * serialization, a request body can't make the service instantiate arbitrary
+ * classes. Malformed or truncated request bodies are rejected with 400 Bad
+ * Request.
+ *
+ */
+@Produces(ConcertBinaryMessageBodyReaderAndWriter.APPLICATION_CONCERT_BINARY)
+@Consumes(ConcertBinaryMessageBodyReaderAndWriter.APPLICATION_CONCERT_BINARY)
+public class ConcertBinaryMessageBodyReaderAndWriter implements
+		MessageBodyReader<Object>, MessageBodyWriter<Object> {
+	public static final String APPLICATION_CONCERT_BINARY = "application/concert-binary";
+	public static final MediaType APPLICATION_CONCERT_BINARY_TYPE = MediaType
+			.valueOf(APPLICATION_CONCERT_BINARY);
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType) {
+		return mediaType.isCompatible(APPLICATION_CONCERT_BINARY_TYPE)
+				&& (type == Concert.class
+				|| type.isAssignableFrom(ArrayList.class) && isConcertList(genericType));
+	}
+
+	@Override
+	public Object readFrom(Class<Object> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, String> httpHeaders, InputStream entityStream)
+			throws IOException {
+		try {
+			if(Concert.class.equals(type)) {
+				return ConcertBinaryFormat.readConcert(entityStream);
+			}
+			return ConcertBinaryFormat.readConcerts(entityStream);
+		} catch(ConcertBinaryFormat.FormatException | EOFException e) {
+			throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+		}
+	}
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType) {
+		return mediaType.isCompatible(APPLICATION_CONCERT_BINARY_TYPE)
+				&& (type == Concert.class
+				|| List.class.isAssignableFrom(type) && isConcertList(genericType));
+	}
+
+	@Override
+	public long getSize(Object o, Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType) {
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void writeTo(Object o, Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, Object> httpHeaders,
+			OutputStream entityStream) throws IOException {
+		if(o instanceof Concert) {
+			ConcertBinaryFormat.writeConcert((Concert) o, entityStream);
+		} else {
+			ConcertBinaryFormat.writeConcerts((List<Concert>) o, entityStream);
+		}
+	}
+
+	private static boolean isConcertList(Type genericType) {
+		if(!(genericType instanceof ParameterizedType)) {
+			return false;
+		}
+		Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+		return arguments.length == 1 && arguments[0] == Concert.class;
+	}
+}
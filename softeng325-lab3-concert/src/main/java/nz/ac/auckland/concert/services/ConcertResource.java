@@ -5,10 +5,7 @@ import java.io.OutputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.CookieParam;
@@ -20,12 +17,18 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.Variant;
 import javax.ws.rs.core.Response.ResponseBuilder;
 
 import nz.ac.auckland.concert.common.Config;
@@ -45,14 +48,24 @@ public class ConcertResource {
 			.getLogger(ConcertResource.class);
 
 	// Declare necessary instance variables.
-	private Map<Long, Concert> _concertDB = new ConcurrentHashMap<Long, Concert>();
-	private AtomicLong _idCounter = new AtomicLong();
+	private ConcertStore _concertDB = new ConcertStore();
+	
+	// Formats for ranges of Concerts, in order of preference when the client
+	// accepts several equally.
+	private static final List<Variant> RANGE_VARIANTS = Variant.mediaTypes(
+			SerializationMessageBodyReaderAndWriter.APPLICATION_JAVA_SERIALIZED_OBJECT_TYPE,
+			ConcertBinaryMessageBodyReaderAndWriter.APPLICATION_CONCERT_BINARY_TYPE,
+			MediaType.APPLICATION_XML_TYPE).build();
  
 	/**
 	 * Retrieves a Concert based on its unique id. The HTTP response message 
 	 * has a status code of either 200 or 404, depending on whether the 
 	 * specified Concert is found. 
 	 * 
+	 * The response carries an ETag and Last-Modified header for the stored 
+	 * Concert. A request with a matching If-None-Match or If-Modified-Since
+	 * header gets a 304 response, without the Concert being marshalled.
+	 * 
 	 * When clientId is null, the HTTP request message doesn't contain a cookie 
 	 * named clientId (Config.CLIENT_COOKIE), this method generates a new 
 	 * cookie, whose value is a randomly generated UUID. This method returns 
@@ -65,26 +78,37 @@ public class ConcertResource {
 	 * @param clientId a cookie named Config.CLIENT_COOKIE that may be sent 
 	 * by the client.
 	 * 
+	 * @param request the request, used to evaluate its preconditions.
+	 * 
 	 * @return a Response object containing the required Concert.
 	 */
 	@GET
 	@Path("{id}")
-	@Produces({SerializationMessageBodyReaderAndWriter.APPLICATION_JAVA_SERIALIZED_OBJECT, MediaType.APPLICATION_XML})
-	public Response retrieveConcert(@PathParam("id") long id, @CookieParam(Config.CLIENT_COOKIE) Cookie clientId) {
+	@Produces({SerializationMessageBodyReaderAndWriter.APPLICATION_JAVA_SERIALIZED_OBJECT, ConcertBinaryMessageBodyReaderAndWriter.APPLICATION_CONCERT_BINARY, MediaType.APPLICATION_XML})
+	public Response retrieveConcert(@PathParam("id") long id, @CookieParam(Config.CLIENT_COOKIE) Cookie clientId, @Context Request request) {
 		_logger.info("Retrieving concert with id: " + id);
 		// Lookup the Parolee within the in-memory data structure.
-		final Concert concert = _concertDB.get(id);
-		if (concert == null) {
+		final ConcertStore.Entry entry = _concertDB.get(id);
+		if (entry == null) {
 			// Return a HTTP 404 response if the specified Parolee isn't found.
 			throw new WebApplicationException(Response.Status.NOT_FOUND);
 		}
 		
+		// Return 304 Not Modified if the client's copy is current.
+		ConcertStore.Stamp stamp = entry.getStamp();
+		ResponseBuilder builder = request.evaluatePreconditions(stamp.getLastModified(), entityTag(stamp));
+		if (builder == null) {
+			builder = Response.ok(entry.getConcert());
+		}
+		addValidators(builder, stamp);
+		builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+		
 		if (clientId == null){
 			NewCookie newClientId = makeCookie(clientId);
-			return Response.ok(concert).cookie(newClientId).build();
+			return builder.cookie(newClientId).build();
 		}
 
-		return Response.ok(concert).build();
+		return builder.build();
 		
 	}
 	
@@ -94,6 +118,22 @@ public class ConcertResource {
      * identifies an index position, and "size" represents the maximum number
      * of successive Concerts to return. The HTTP response message returns 200.
      * 
+     * The Concerts returned are the first size Concerts with IDs of at least
+     * start, however far apart their IDs are. If there are more Concerts, the
+     * response has a header named Config.NEXT_CURSOR_HEADER whose value is 
+     * the start of the next page, so clients can page through all Concerts 
+     * without skipping or repeating any.
+     * 
+     * The response's ETag and Last-Modified header reflect the last change to
+     * any Concert, and conditional requests get a 304 response, as for 
+     * retrieveConcert(), without the page being retrieved.
+     * 
+     * XML and binary responses are streamed with ConcertStreamingOutput: 
+     * Concerts are written as they're looked up, so neither the time to the 
+     * first byte nor the memory used depends on the size of the range. Java-
+     * serialized responses are built as a List, as serialization writes a 
+     * List's size before its elements.
+     * 
      * When clientId is null, the HTTP request message doesn't contain a cookie 
 	 * named clientId (Config.CLIENT_COOKIE), this method generates a new 
 	 * cookie, whose value is a randomly generated UUID. This method returns 
@@ -102,42 +142,34 @@ public class ConcertResource {
 	 * This method maps to the URI pattern <base-uri>/concerts?start&size.
 	 * 
 	 * @param start the ID of a Concert from which to start retrieving 
-	 * Concerts.
+	 * Concerts, or the next cursor returned with the previous page.
 	 * 
 	 * @param size the maximum number of Concerts to retrieve.
 	 * 
 	 * @param clientId a cookie named Config.CLIENT_COOKIE that may be sent 
 	 * by the client.
 	 * 
+	 * @param request the request, used to select the response's format and to
+	 * evaluate its preconditions.
+	 * 
 	 * @return a Response object containing a List of Concerts. The List may be
 	 * empty.
 	 */
 	@GET
-	@Produces({SerializationMessageBodyReaderAndWriter.APPLICATION_JAVA_SERIALIZED_OBJECT, MediaType.APPLICATION_XML})
-	public Response retrieveConcerts(@QueryParam("start") long start, @QueryParam("size") int size, @CookieParam(Config.CLIENT_COOKIE) Cookie clientId) {
-		// The Response object should store an ArrayList<Concert> entity. The 
-		// ArrayList can be empty depending on the start and size arguments, 
-		// and Concerts stored.
-		//
-		// Because of type erasure with Java Generics, any generically typed 
-		// entity needs to be wrapped by a javax.ws.rs.core.GenericEntity that 
-		// stores the generic type information. Hence to add an ArrayList as a
-		// Response object's entity, you should use the following code:
-		//
-		// List<Concert> concerts = new ArrayList<Concert>();
-		// GenericEntity<List<Concert>> entity = new GenericEntity<List<Concert>>(concerts) {};
-		// ResponseBuilder builder = Response.ok(entity);
-	
-		List<Concert> concerts = new ArrayList<Concert>();
-		for (long i=start; i<(start+size); i++){
-			if (_concertDB.get(i) != null){
-				concerts.add(_concertDB.get(i));
-				_logger.info("Retrieving concert with id: " + i + " start at :" + start + " size :" + size);
-			}			
-		}
+	@Produces({SerializationMessageBodyReaderAndWriter.APPLICATION_JAVA_SERIALIZED_OBJECT, ConcertBinaryMessageBodyReaderAndWriter.APPLICATION_CONCERT_BINARY, MediaType.APPLICATION_XML})
+	public Response retrieveConcerts(@QueryParam("start") long start, @QueryParam("size") int size, @CookieParam(Config.CLIENT_COOKIE) Cookie clientId, @Context Request request) {
+		_logger.info("Retrieving concerts start at: " + start + " size: " + size);
+		Variant variant = request.selectVariant(RANGE_VARIANTS);
 		
-		GenericEntity<List<Concert>> entity = new GenericEntity<List<Concert>>(concerts) {};
-		ResponseBuilder builder = Response.ok(entity);
+		// The store's stamp is read before the page, so that a change made 
+		// while the page is retrieved leaves the validators out of date, 
+		// rather than the client's copy.
+		ConcertStore.Stamp stamp = _concertDB.getStamp();
+		ResponseBuilder builder = request.evaluatePreconditions(stamp.getLastModified(), entityTag(stamp));
+		if (builder == null) {
+			builder = retrievePage(start, size, variant);
+		}
+		addValidators(builder, stamp);
 		
 		if (clientId == null){
 			NewCookie newClientId = makeCookie(clientId);
@@ -147,6 +179,31 @@ public class ConcertResource {
 		return builder.build();
 	}
 	
+	// Builds a 200 response for a page of Concerts, in the given format.
+	private ResponseBuilder retrievePage(long start, int size, Variant variant) {
+		ConcertStore.Page page = _concertDB.getPage(start, size);
+		Iterable<Concert> concerts = page.getConcerts();
+		
+		ResponseBuilder builder;
+		if (variant != null && ConcertStreamingOutput.isStreamable(variant.getMediaType())) {
+			builder = Response.ok(new ConcertStreamingOutput(concerts, variant.getMediaType()), variant.getMediaType());
+		} else {
+			// Because of type erasure with Java Generics, the List needs to 
+			// be wrapped by a GenericEntity that stores its type information.
+			List<Concert> list = new ArrayList<Concert>();
+			for (Concert concert : concerts) {
+				list.add(concert);
+			}
+			GenericEntity<List<Concert>> entity = new GenericEntity<List<Concert>>(list) {};
+			builder = Response.ok(entity);
+		}
+		
+		if (page.getNextCursor() != null) {
+			builder.header(Config.NEXT_CURSOR_HEADER, page.getNextCursor());
+		}
+		return builder;
+	}
+	
 	
 	/**
 	 * Creates a new Concert. This method assigns an ID to the new Concert and
@@ -169,17 +226,15 @@ public class ConcertResource {
 	 * header.
 	 */
 	@POST
-	@Produces({SerializationMessageBodyReaderAndWriter.APPLICATION_JAVA_SERIALIZED_OBJECT, MediaType.APPLICATION_XML})
-	@Consumes({SerializationMessageBodyReaderAndWriter.APPLICATION_JAVA_SERIALIZED_OBJECT, MediaType.APPLICATION_XML})
+	@Produces({SerializationMessageBodyReaderAndWriter.APPLICATION_JAVA_SERIALIZED_OBJECT, ConcertBinaryMessageBodyReaderAndWriter.APPLICATION_CONCERT_BINARY, MediaType.APPLICATION_XML})
+	@Consumes({SerializationMessageBodyReaderAndWriter.APPLICATION_JAVA_SERIALIZED_OBJECT, ConcertBinaryMessageBodyReaderAndWriter.APPLICATION_CONCERT_BINARY, MediaType.APPLICATION_XML})
 	public Response createConcert(Concert concert, @CookieParam(Config.CLIENT_COOKIE) Cookie clientId) {
 		
 		if (concert == null){
 			throw new WebApplicationException(Response.Status.BAD_REQUEST);
 		}
 
-		Concert newConcert = new Concert(_idCounter.incrementAndGet(), concert.getTitle(), concert.getDate());
-
-		_concertDB.put(newConcert.getId(), newConcert);
+		Concert newConcert = _concertDB.add(concert.getTitle(), concert.getDate());
 
 		_logger.info("Created new concert with id: " + newConcert.getId());
 
@@ -212,7 +267,6 @@ public class ConcertResource {
 	public Response deleteAllConcerts(@CookieParam(Config.CLIENT_COOKIE) Cookie clientId) {
 		
 		_concertDB.clear();
-		_idCounter = new AtomicLong();
 		
 		ResponseBuilder builder = Response.status(204);
 		_logger.info("Clear all concerts.");
@@ -225,6 +279,38 @@ public class ConcertResource {
 		return builder.build();
 	}
 	
+	/**
+	 * Helper method that returns the entity tag for a version of the store or
+	 * of a Concert. Tags are weak, as a Concert's representations in each 
+	 * format share the tag.
+	 * 
+	 * @param stamp the Stamp of the store or Concert.
+	 * 
+	 * @return an EntityTag whose value is the Stamp's version.
+	 */
+	private static EntityTag entityTag(ConcertStore.Stamp stamp) {
+		return new EntityTag(Long.toString(stamp.getVersion()), true);
+	}
+	
+	/**
+	 * Helper method that adds the validators and caching directives for a 
+	 * version of the store or of a Concert to a response. Caches may keep the
+	 * response, but must revalidate it before each use.
+	 * 
+	 * @param builder the ResponseBuilder, for either a 200 or a 304 response.
+	 * 
+	 * @param stamp the Stamp of the store or Concert.
+	 */
+	private static void addValidators(ResponseBuilder builder, ConcertStore.Stamp stamp) {
+		CacheControl cacheControl = new CacheControl();
+		cacheControl.setPrivate(true);
+		cacheControl.setNoCache(true);
+		
+		builder.tag(entityTag(stamp))
+				.lastModified(stamp.getLastModified())
+				.cacheControl(cacheControl);
+	}
+	
 	/**
 	 * Helper method that can be called from every service method to generate a 
 	 * NewCookie instance, if necessary, based on the clientId parameter.
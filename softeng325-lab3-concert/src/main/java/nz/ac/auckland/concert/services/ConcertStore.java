@@ -0,0 +1,217 @@
+package nz.ac.auckland.concert.services;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import nz.ac.auckland.concert.domain.Concert;
+
+import org.joda.time.DateTime;
+
+/**
+ * In-memory store of Concerts, ordered by ID.
+ *
+ * Concerts are kept in a ConcurrentSkipListMap, so a page of Concerts is a
+ * view of a sub-map, found in O(log n) time and iterated in O(k) for a page
+ * of k Concerts, however sparse the IDs have become. Iterating a page never
+ * blocks, or is blocked by, concurrent additions.
+ *
+ * Every change to the store increments its version, and each Concert is
+ * stamped with the version and time at which it was added; these serve as
+ * HTTP validators. Versions are never reused, even after clear(), so a
+ * Concert's version identifies it uniquely. Modification times are truncated
+ * to whole seconds, the precision of HTTP dates.
+ *
+ * ConcertStore is thread-safe.
+ *
+ */
+public class ConcertStore {
+
+	private final ConcurrentSkipListMap<Long, Entry> _concerts = new ConcurrentSkipListMap<Long, Entry>();
+
+	// Guarded by this. Read without locking, so volatile.
+	private volatile Stamp _stamp = new Stamp(0, now());
+	private long _lastId;
+
+	/**
+	 * The version and modification time of the store or a Concert.
+	 *
+	 */
+	public static class Stamp {
+		private final long _version;
+		private final long _lastModified;
+
+		Stamp(long version, long lastModified) {
+			_version = version;
+			_lastModified = lastModified;
+		}
+
+		public long getVersion() {
+			return _version;
+		}
+
+		public Date getLastModified() {
+			return new Date(_lastModified);
+		}
+	}
+
+	/**
+	 * A stored Concert, with the Stamp of the change that added it.
+	 *
+	 */
+	public static class Entry {
+		private final Concert _concert;
+		private final Stamp _stamp;
+
+		Entry(Concert concert, Stamp stamp) {
+			_concert = concert;
+			_stamp = stamp;
+		}
+
+		public Concert getConcert() {
+			return _concert;
+		}
+
+		public Stamp getStamp() {
+			return _stamp;
+		}
+	}
+
+	/**
+	 * A page of Concerts, and the cursor identifying the next page.
+	 *
+	 */
+	public static class Page {
+		private final Iterable<Concert> _concerts;
+		private final Long _nextCursor;
+
+		Page(Iterable<Concert> concerts, Long nextCursor) {
+			_concerts = concerts;
+			_nextCursor = nextCursor;
+		}
+
+		/**
+		 * Returns the Concerts in the page, in ID order. They're read from the
+		 * store as they're iterated.
+		 */
+		public Iterable<Concert> getConcerts() {
+			return _concerts;
+		}
+
+		/**
+		 * Returns the cursor of the next page: the ID of its first Concert,
+		 * or null if there were no Concerts after this page when it was
+		 * retrieved.
+		 */
+		public Long getNextCursor() {
+			return _nextCursor;
+		}
+	}
+
+	/**
+	 * Adds a new Concert to the store, assigning it the next ID.
+	 *
+	 * @return the stored Concert.
+	 */
+	public synchronized Concert add(String title, DateTime date) {
+		Concert concert = new Concert(++_lastId, title, date);
+		Stamp stamp = new Stamp(_stamp.getVersion() + 1, now());
+		_concerts.put(concert.getId(), new Entry(concert, stamp));
+		_stamp = stamp;
+		return concert;
+	}
+
+	/**
+	 * Returns the Concert with the given ID and its Stamp, or null if there
+	 * isn't one.
+	 */
+	public Entry get(long id) {
+		return _concerts.get(id);
+	}
+
+	/**
+	 * Returns the Stamp of the most recent change to the store. As any
+	 * change may affect a page, a page retrieved after this call is unchanged
+	 * for as long as the store's version is.
+	 */
+	public Stamp getStamp() {
+		return _stamp;
+	}
+
+	/**
+	 * Retrieves a page of Concerts: the first size Concerts with IDs of at
+	 * least cursor.
+	 *
+	 * Finding the end of the page walks size keys, without looking up any
+	 * Concerts, so the page costs O(log n + size) whatever the gaps between
+	 * IDs.
+	 *
+	 * @param cursor the smallest ID to include, typically the next cursor of
+	 * the previous page.
+	 *
+	 * @param size the maximum number of Concerts in the page.
+	 */
+	public Page getPage(long cursor, int size) {
+		if(size <= 0) {
+			return new Page(Collections.<Concert>emptyList(), null);
+		}
+
+		Long nextCursor = null;
+		int count = 0;
+		for(Long id : _concerts.tailMap(cursor).keySet()) {
+			if(count++ == size) {
+				nextCursor = id;
+				break;
+			}
+		}
+
+		NavigableMap<Long, Entry> page = nextCursor == null
+				? _concerts.tailMap(cursor, true)
+				: _concerts.subMap(cursor, true, nextCursor, false);
+		return new Page(concerts(page.values(), size), nextCursor);
+	}
+
+	/**
+	 * Removes all Concerts, and restarts ID assignment from 1.
+	 */
+	public synchronized void clear() {
+		_concerts.clear();
+		_lastId = 0;
+		_stamp = new Stamp(_stamp.getVersion() + 1, now());
+	}
+
+	// Returns the Concerts of at most size entries. Concerts added after the
+	// last page was found would otherwise be included in it.
+	private static Iterable<Concert> concerts(final Iterable<Entry> entries, final int size) {
+		return new Iterable<Concert>() {
+			@Override
+			public Iterator<Concert> iterator() {
+				final Iterator<Entry> iterator = entries.iterator();
+				return new Iterator<Concert>() {
+					private int _remaining = size;
+
+					@Override
+					public boolean hasNext() {
+						return _remaining > 0 && iterator.hasNext();
+					}
+
+					@Override
+					public Concert next() {
+						if(!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						_remaining--;
+						return iterator.next().getConcert();
+					}
+				};
+			}
+		};
+	}
+
+	private static long now() {
+		return System.currentTimeMillis() / 1000 * 1000;
+	}
+}
@@ -0,0 +1,102 @@
+package nz.ac.auckland.concert.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import nz.ac.auckland.concert.common.ConcertBinaryFormat;
+import nz.ac.auckland.concert.domain.Concert;
+
+/**
+ * StreamingOutput that writes a sequence of Concerts as they're produced,
+ * rather than collecting them into a List first. Only the Concert being
+ * written, and the formats' small write buffers, are held in memory, and
+ * the first bytes are sent as soon as the buffers fill.
+ *
+ * Concerts are written in the same representation as a List<Concert>
+ * entity, so clients read the response as a List: as a collection element
+ * for XML, matching RESTEasy's JAXB collection provider, or in
+ * ConcertBinaryFormat.
+ *
+ */
+public class ConcertStreamingOutput implements StreamingOutput {
+
+	private static final String COLLECTION_ELEMENT = "collection";
+
+	private static final JAXBContext _jaxbContext = createJAXBContext();
+
+	private static final XMLOutputFactory _xmlOutputFactory = XMLOutputFactory.newInstance();
+
+	private final Iterable<Concert> _concerts;
+	private final MediaType _mediaType;
+
+	/**
+	 * Creates a ConcertStreamingOutput.
+	 *
+	 * @param concerts the Concerts to write, which are iterated once, when
+	 * the response is written.
+	 *
+	 * @param mediaType the format to write, either MediaType.APPLICATION_XML
+	 * or ConcertBinaryMessageBodyReaderAndWriter.APPLICATION_CONCERT_BINARY.
+	 */
+	public ConcertStreamingOutput(Iterable<Concert> concerts, MediaType mediaType) {
+		if(!isStreamable(mediaType)) {
+			throw new IllegalArgumentException("Can't stream Concerts as " + mediaType);
+		}
+		_concerts = concerts;
+		_mediaType = mediaType;
+	}
+
+	/**
+	 * Returns true if Concerts can be streamed in the given format.
+	 */
+	public static boolean isStreamable(MediaType mediaType) {
+		return mediaType.isCompatible(MediaType.APPLICATION_XML_TYPE)
+				|| mediaType.isCompatible(ConcertBinaryMessageBodyReaderAndWriter.APPLICATION_CONCERT_BINARY_TYPE);
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException, WebApplicationException {
+		if(_mediaType.isCompatible(MediaType.APPLICATION_XML_TYPE)) {
+			writeXml(output);
+		} else {
+			ConcertBinaryFormat.writeConcerts(_concerts, output);
+		}
+	}
+
+	private void writeXml(OutputStream output) throws IOException {
+		try {
+			Marshaller marshaller = _jaxbContext.createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+
+			XMLStreamWriter writer = _xmlOutputFactory.createXMLStreamWriter(output, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement(COLLECTION_ELEMENT);
+			for(Concert concert : _concerts) {
+				marshaller.marshal(concert, writer);
+			}
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.flush();
+		} catch(JAXBException | XMLStreamException e) {
+			throw new IOException("Unable to write Concerts as XML", e);
+		}
+	}
+
+	private static JAXBContext createJAXBContext() {
+		try {
+			return JAXBContext.newInstance(Concert.class);
+		} catch(JAXBException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -1,10 +1,14 @@
 package nz.ac.auckland.concert.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -14,13 +18,17 @@ import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation.Builder;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.NewCookie;
 import javax.ws.rs.core.Response;
 
+import nz.ac.auckland.compression.CompressionReaderInterceptor;
 import nz.ac.auckland.concert.common.Config;
 import nz.ac.auckland.concert.domain.Concert;
+import nz.ac.auckland.concert.services.ConcertBinaryMessageBodyReaderAndWriter;
 import nz.ac.auckland.concert.services.SerializationMessageBodyReaderAndWriter;
 
 import org.joda.time.DateTime;
@@ -64,6 +72,12 @@ public class ConcertResourceIT {
 		
 		// Register the Java-serializer with the client-side JAX-RS runtime.
 		_client.register(SerializationMessageBodyReaderAndWriter.class);
+		
+		// Register the binary Concert format with the client-side runtime.
+		_client.register(ConcertBinaryMessageBodyReaderAndWriter.class);
+		
+		// Register the decoder for compressed responses.
+		_client.register(CompressionReaderInterceptor.class);
 
 		// Create some Concerts.
 		_concerts.add(new Concert("One Night of Queen", new DateTime(2017, 8,
@@ -324,6 +338,347 @@ public class ConcertResourceIT {
 		}
 	}
 	
+	@Test
+	public void testRetrieveWithLargeRangeXML() {
+		Response response = null;
+		
+		try {
+			// Prepare an invocation for a range far larger than the number of
+			// Concerts stored. The response is streamed, so the range's size
+			// shouldn't affect the time or memory it takes.
+			Builder builder = _client.target(WEB_SERVICE_URI + "?start=1&size=" + Integer.MAX_VALUE).request()
+					.accept(MediaType.APPLICATION_XML);
+						
+			// Add any cookie that's previously been returned by the Web 
+			// service.
+			addCookieToInvocation(builder);
+
+			// Make the service invocation via a HTTP GET message, and wait for 
+			// the response.
+			response = builder.get();
+	
+			// Check that all 3 Concerts were returned.
+			List<Concert> concerts = response
+					.readEntity(new GenericType<List<Concert>>() {
+				});
+			assertEquals(3, concerts.size());
+			
+			// Store any cookie returned in the HTTP response message.
+			processCookieFromResponse(response);
+		} finally {
+			// Close the Response object.
+			response.close();
+		}
+	}
+
+	@Test
+	public void testRetrievePagesWithCursor() {
+		List<Concert> concerts = new ArrayList<Concert>();
+		String cursor = "0";
+		int pages = 0;
+		
+		// Page through all Concerts, two at a time, starting each page at the
+		// cursor returned with the previous one.
+		while (cursor != null) {
+			Response response = null;
+			
+			try {
+				Builder builder = _client.target(WEB_SERVICE_URI + "?start=" + cursor + "&size=2").request()
+						.accept(MediaType.APPLICATION_XML);
+				addCookieToInvocation(builder);
+				response = builder.get();
+				
+				concerts.addAll(response.readEntity(new GenericType<List<Concert>>() {
+					}));
+				cursor = response.getHeaderString(Config.NEXT_CURSOR_HEADER);
+				pages++;
+				
+				processCookieFromResponse(response);
+			} finally {
+				response.close();
+			}
+		}
+		
+		// Check that each of the 3 Concerts was returned once, in 2 pages.
+		assertEquals(2, pages);
+		assertEquals(3, concerts.size());
+		for (int i = 0; i < concerts.size(); i++) {
+			assertEquals(_concerts.get(i).getTitle(), concerts.get(i).getTitle());
+		}
+	}
+
+	@Test
+	public void testConditionalRetrieve() {
+		Response response = null;
+		String concertUri = _concertUris.get(_concertUris.size() - 1);
+		EntityTag tag;
+		Date lastModified;
+		
+		try {
+			// Retrieve a Concert and note its validators.
+			Builder builder = _client.target(concertUri).request()
+					.accept(MediaType.APPLICATION_XML);
+			addCookieToInvocation(builder);
+			response = builder.get();
+			assertEquals(200, response.getStatus());
+			
+			tag = response.getEntityTag();
+			lastModified = response.getLastModified();
+			assertNotNull(tag);
+			assertNotNull(lastModified);
+			processCookieFromResponse(response);
+		} finally {
+			response.close();
+		}
+		
+		try {
+			// Check that retrieving it again with its entity tag returns 304
+			// Not Modified, without a Concert.
+			Builder builder = _client.target(concertUri).request()
+					.accept(MediaType.APPLICATION_XML)
+					.header(HttpHeaders.IF_NONE_MATCH, tag);
+			addCookieToInvocation(builder);
+			response = builder.get();
+			assertEquals(304, response.getStatus());
+			assertFalse(response.hasEntity());
+			processCookieFromResponse(response);
+		} finally {
+			response.close();
+		}
+		
+		try {
+			// Check that retrieving it with its modification date also 
+			// returns 304 Not Modified.
+			Builder builder = _client.target(concertUri).request()
+					.accept(MediaType.APPLICATION_XML)
+					.header(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+			addCookieToInvocation(builder);
+			response = builder.get();
+			assertEquals(304, response.getStatus());
+			processCookieFromResponse(response);
+		} finally {
+			response.close();
+		}
+	}
+	
+	@Test
+	public void testConditionalRetrieveWithRange() {
+		Response response = null;
+		EntityTag tag;
+		
+		try {
+			// Retrieve a range of Concerts and note its entity tag.
+			Builder builder = _client.target(WEB_SERVICE_URI + "?start=1&size=10").request()
+					.accept(MediaType.APPLICATION_XML);
+			addCookieToInvocation(builder);
+			response = builder.get();
+			assertEquals(200, response.getStatus());
+			tag = response.getEntityTag();
+			assertNotNull(tag);
+			processCookieFromResponse(response);
+		} finally {
+			response.close();
+		}
+		
+		try {
+			// Check that the unchanged range isn't returned again.
+			Builder builder = _client.target(WEB_SERVICE_URI + "?start=1&size=10").request()
+					.accept(MediaType.APPLICATION_XML)
+					.header(HttpHeaders.IF_NONE_MATCH, tag);
+			addCookieToInvocation(builder);
+			response = builder.get();
+			assertEquals(304, response.getStatus());
+			processCookieFromResponse(response);
+		} finally {
+			response.close();
+		}
+		
+		// Add a Concert.
+		Builder builder = _client.target(WEB_SERVICE_URI).request();
+		addCookieToInvocation(builder);
+		response = builder.post(Entity.entity(new Concert("Blondie", 
+				new DateTime(2017, 4, 26, 20, 0)), MediaType.APPLICATION_XML));
+		processCookieFromResponse(response);
+		response.close();
+		
+		try {
+			// Check that the changed range is returned, with a new tag.
+			builder = _client.target(WEB_SERVICE_URI + "?start=1&size=10").request()
+					.accept(MediaType.APPLICATION_XML)
+					.header(HttpHeaders.IF_NONE_MATCH, tag);
+			addCookieToInvocation(builder);
+			response = builder.get();
+			assertEquals(200, response.getStatus());
+			assertNotEquals(tag, response.getEntityTag());
+			
+			List<Concert> concerts = response
+					.readEntity(new GenericType<List<Concert>>() {
+				});
+			assertEquals(4, concerts.size());
+			processCookieFromResponse(response);
+		} finally {
+			response.close();
+		}
+	}
+
+	@Test
+	public void testRetrieveCompressed() {
+		Response response = null;
+		
+		// Add enough Concerts for the XML range to exceed the compression 
+		// threshold.
+		for (int i = 0; i < 20; i++) {
+			Builder builder = _client.target(WEB_SERVICE_URI).request();
+			addCookieToInvocation(builder);
+			response = builder.post(Entity.entity(new Concert("Concert " + i, 
+					new DateTime(2018, 1, 25, 20, 0)), MediaType.APPLICATION_XML));
+			processCookieFromResponse(response);
+			response.close();
+		}
+		
+		try {
+			// Retrieve the range, accepting gzip-compressed responses.
+			Builder builder = _client.target(WEB_SERVICE_URI + "?start=1&size=100").request()
+					.accept(MediaType.APPLICATION_XML)
+					.header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=1.0, deflate;q=0.5");
+			addCookieToInvocation(builder);
+			response = builder.get();
+			
+			// Check that the response was compressed, and is decoded by the 
+			// client.
+			assertEquals("gzip", response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+			List<Concert> concerts = response
+					.readEntity(new GenericType<List<Concert>>() {
+				});
+			assertEquals(23, concerts.size());
+			processCookieFromResponse(response);
+		} finally {
+			response.close();
+		}
+		
+		try {
+			// Check that a single Concert, below the threshold, isn't 
+			// compressed.
+			Builder builder = _client.target(_concertUris.get(0)).request()
+					.accept(MediaType.APPLICATION_XML)
+					.header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+			addCookieToInvocation(builder);
+			response = builder.get();
+			
+			assertNull(response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+			assertEquals(_concerts.get(0).getTitle(), response.readEntity(Concert.class).getTitle());
+			processCookieFromResponse(response);
+		} finally {
+			response.close();
+		}
+	}
+
+	@Test
+	public void testCreateBinary() {
+		Response response = null;
+		
+		// Create a new Concert.
+		Concert concert = new Concert("Blondie", new DateTime(2017, 4, 26, 20,
+				0));
+		
+		try {
+			// Prepare an invocation on the Concert service
+			Builder builder = _client.target(WEB_SERVICE_URI).request();
+			
+			// Add any cookie that's previously been returned by the Web 
+			// service.
+			addCookieToInvocation(builder);
+			
+			// Make the service invocation via a HTTP POST message, and wait 
+			// for the response.
+			response = builder
+				.post(Entity.entity(concert, ConcertBinaryMessageBodyReaderAndWriter.APPLICATION_CONCERT_BINARY));
+
+			// Check that the HTTP response code is 201 Created.
+			int responseCode = response.getStatus();
+			assertEquals(201, responseCode);
+
+			// Check that the Location header has been set.
+			URI concertUri = response.getLocation();
+			assertNotNull(concertUri);
+			
+			// Store any cookie returned in the HTTP response message.
+			processCookieFromResponse(response);
+		} finally {
+			// Close the Response object.
+			response.close();
+		}
+	}
+
+	@Test
+	public void testRetrieveBinary() {
+		Response response = null;
+
+		try {
+			String concertUri = _concertUris.get(_concertUris.size() - 1);
+
+			// Make an invocation on a Concert URI and specify the binary 
+			// Concert format as the required data format.
+			Builder builder = _client.target(concertUri).request()
+					.accept(ConcertBinaryMessageBodyReaderAndWriter.APPLICATION_CONCERT_BINARY);
+			
+			// Add any cookie that's previously been returned by the Web 
+			// service.
+			addCookieToInvocation(builder);
+
+			// Make the service invocation via a HTTP GET message, and wait for 
+			// the response.
+			response = builder.get();
+			
+			// Check that the HTTP response code is 200 OK.
+			int responseCode = response.getStatus();
+			assertEquals(200, responseCode);
+
+			// Check that the expected Concert is returned.
+			Concert concert = response.readEntity(Concert.class);
+			assertEquals(_concerts.get(_concerts.size() - 1).getTitle(), concert.getTitle());
+
+			// Store any cookie returned in the HTTP response message.
+			processCookieFromResponse(response);
+		} finally {
+			// Close the Response object.
+			response.close();
+		}
+	}
+
+	@Test
+	public void testRetrieveWithRangeBinary() {
+		Response response = null;
+		
+		try {
+			// Prepare an invocation on a Concert URI and specify the binary
+			// Concert format as the required data format. Specify values for
+			// query parameters start (2) and size (10).
+			Builder builder = _client.target(WEB_SERVICE_URI + "?start=2&size=10").request()
+					.accept(ConcertBinaryMessageBodyReaderAndWriter.APPLICATION_CONCERT_BINARY);
+						
+			// Add any cookie that's previously been returned by the Web 
+			// service.
+			addCookieToInvocation(builder);
+
+			// Make the service invocation via a HTTP GET message, and wait for 
+			// the response.
+			response = builder.get();
+	
+			// Check that 2 Concerts were returned.
+			List<Concert> concerts = response
+					.readEntity(new GenericType<List<Concert>>() {
+				});
+			assertEquals(2, concerts.size());
+			
+			// Store any cookie returned in the HTTP response message.
+			processCookieFromResponse(response);
+		} finally {
+			// Close the Response object.
+			response.close();
+		}
+	}
+	
 	@Test
 	public void testDelete() {
 		Response response = null;
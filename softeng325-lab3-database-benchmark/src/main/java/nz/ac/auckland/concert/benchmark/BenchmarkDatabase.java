@@ -0,0 +1,166 @@
+package nz.ac.auckland.concert.benchmark;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+
+import nz.ac.auckland.concert.Genre;
+import nz.ac.auckland.concert.H2Configuration;
+import nz.ac.auckland.concert.JDBCConcertDAO;
+import nz.ac.auckland.concert.Performer;
+
+import org.h2.tools.RunScript;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * JMH state holding a JDBCConcertDAO over a seeded H2 database.
+ *
+ * The database is created once per benchmark and parameter combination, and
+ * holds the given number of Concerts, with one Performer per 10 Concerts. It
+ * is seeded directly with SQL, rather than through the DAO, so that large
+ * databases can be set up quickly. Concert IDs run from 1 to rows.
+ *
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDatabase {
+
+	private static final String SCHEMA_SCRIPT = "/schema.sql";
+
+	// Directory for file-based databases, relative to the working directory.
+	private static final String DATABASE_DIRECTORY = "./target/h2/";
+
+	private static final int CONCERTS_PER_PERFORMER = 10;
+	private static final int SEED_BATCH_SIZE = 1000;
+
+	private static final String SQL_INSERT_PERFORMER = "INSERT INTO PERFORMER (ID, NAME, S3IMAGE, GENRE) VALUES (?,?,?,?)";
+
+	// Concerts are spread over the performers and over consecutive hours,
+	// starting at the beginning of 2018.
+	private static final String SQL_INSERT_CONCERTS =
+			"INSERT INTO CONCERT (ID, TITLE, DATE, FK_PERFORMER_ID) SELECT X, 'Concert ' || X, " +
+			"DATEADD('HOUR', X, TIMESTAMP '2018-01-01 00:00:00'), MOD(X, ?) + 1 " +
+			"FROM SYSTEM_RANGE(1, ?)";
+
+	// Pool size used for the DAO; large enough for multi-threaded runs.
+	private static final int MAX_POOL_SIZE = 16;
+
+	/**
+	 * Number of Concerts to seed the database with.
+	 */
+	@Param({"1000", "100000", "1000000"})
+	public int rows;
+
+	/**
+	 * H2 storage engine, one of H2Configuration.StorageMode's names. Only the
+	 * in-memory engine is benchmarked by default; use -p storageMode=... to
+	 * compare the file-based engines.
+	 */
+	@Param({"IN_MEMORY"})
+	public String storageMode;
+
+	private JDBCConcertDAO _dao;
+	private H2Configuration _configuration;
+	private Performer _performer;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		_configuration = createConfiguration();
+
+		try(Connection connection = DriverManager.getConnection(_configuration.getUrl(),
+				_configuration.getUsername(), _configuration.getPassword())) {
+			try(Reader schema = new InputStreamReader(
+					BenchmarkDatabase.class.getResourceAsStream(SCHEMA_SCRIPT), StandardCharsets.UTF_8)) {
+				RunScript.execute(connection, schema);
+			}
+			seed(connection);
+		}
+
+		_dao = new JDBCConcertDAO(_configuration, 1, MAX_POOL_SIZE);
+		_performer = _dao.getById(1).getPerformer();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		_dao.close();
+
+		// Free the memory held by an in-memory database before the next trial.
+		try(Connection connection = DriverManager.getConnection(_configuration.getUrl(),
+				_configuration.getUsername(), _configuration.getPassword());
+				Statement statement = connection.createStatement()) {
+			statement.execute("DROP ALL OBJECTS");
+		}
+	}
+
+	/**
+	 * Returns the DAO under test.
+	 *
+	 */
+	public JDBCConcertDAO getDAO() {
+		return _dao;
+	}
+
+	/**
+	 * Returns an existing Performer, for use by new Concerts.
+	 *
+	 */
+	public Performer getPerformer() {
+		return _performer;
+	}
+
+	/**
+	 * Returns the ID of an existing Concert, chosen at random.
+	 *
+	 */
+	public long randomConcertId() {
+		return ThreadLocalRandom.current().nextLong(1, rows + 1L);
+	}
+
+	private H2Configuration createConfiguration() {
+		String name = "benchmark-" + rows;
+		switch(H2Configuration.StorageMode.valueOf(storageMode)) {
+		case MV_STORE:
+			return H2Configuration.mvStoreFile(DATABASE_DIRECTORY + name + "-mv");
+		case PAGE_STORE:
+			return H2Configuration.pageStoreFile(DATABASE_DIRECTORY + name + "-page");
+		default:
+			return H2Configuration.inMemory(name);
+		}
+	}
+
+	private void seed(Connection connection) throws SQLException {
+		int performers = Math.max(1, rows / CONCERTS_PER_PERFORMER);
+		Genre[] genres = Genre.values();
+
+		connection.setAutoCommit(false);
+		try(PreparedStatement ps = connection.prepareStatement(SQL_INSERT_PERFORMER)) {
+			for(int id = 1; id <= performers; id++) {
+				ps.setLong(1, id);
+				ps.setString(2, "Performer " + id);
+				ps.setString(3, "Performer" + id + ".jpg");
+				ps.setString(4, genres[id % genres.length].name());
+				ps.addBatch();
+				if(id % SEED_BATCH_SIZE == 0) {
+					ps.executeBatch();
+				}
+			}
+			ps.executeBatch();
+		}
+		try(PreparedStatement ps = connection.prepareStatement(SQL_INSERT_CONCERTS)) {
+			ps.setInt(1, performers);
+			ps.setInt(2, rows);
+			ps.executeUpdate();
+		}
+		connection.commit();
+	}
+}
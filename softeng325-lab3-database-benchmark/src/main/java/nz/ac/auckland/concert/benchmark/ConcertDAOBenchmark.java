@@ -0,0 +1,97 @@
+package nz.ac.auckland.concert.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nz.ac.auckland.concert.Concert;
+import nz.ac.auckland.concert.DAOException;
+
+import org.joda.time.LocalDateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the core JDBCConcertDAO operations: save(), getById(),
+ * getAll() and deleteConcert(), each run against databases seeded with
+ * BenchmarkDatabase's row counts.
+ *
+ * Concerts created by the save() and deleteConcert() benchmarks are removed
+ * after each iteration, so the database stays at its seeded size.
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ConcertDAOBenchmark {
+
+	private static final LocalDateTime DATE = new LocalDateTime(2019, 6, 1, 20, 0);
+
+	/**
+	 * Concerts saved by the current thread during an iteration.
+	 *
+	 */
+	@State(Scope.Thread)
+	public static class SavedConcerts {
+		final List<Concert> concerts = new ArrayList<Concert>();
+
+		@TearDown(Level.Iteration)
+		public void deleteSavedConcerts(BenchmarkDatabase db) throws DAOException {
+			db.getDAO().deleteAll(concerts);
+			concerts.clear();
+		}
+	}
+
+	/**
+	 * A freshly saved Concert, created before each invocation of the
+	 * deleteConcert() benchmark. Per-invocation setup costs a few timer calls,
+	 * which are small compared to a database round trip.
+	 *
+	 */
+	@State(Scope.Thread)
+	public static class ConcertToDelete {
+		Concert concert;
+
+		@Setup(Level.Invocation)
+		public void saveConcert(BenchmarkDatabase db) throws DAOException {
+			concert = new Concert("Deleted concert", DATE, db.getPerformer());
+			db.getDAO().save(concert);
+		}
+	}
+
+	@Benchmark
+	public Concert save(BenchmarkDatabase db, SavedConcerts saved) throws DAOException {
+		Concert concert = new Concert("New concert", DATE, db.getPerformer());
+		db.getDAO().save(concert);
+		saved.concerts.add(concert);
+		return concert;
+	}
+
+	@Benchmark
+	public Concert getById(BenchmarkDatabase db) throws DAOException {
+		return db.getDAO().getById(db.randomConcertId());
+	}
+
+	@Benchmark
+	public List<Concert> getAll(BenchmarkDatabase db) throws DAOException {
+		return db.getDAO().getAll();
+	}
+
+	@Benchmark
+	public Concert deleteConcert(BenchmarkDatabase db, ConcertToDelete toDelete) throws DAOException {
+		db.getDAO().deleteConcert(toDelete.concert);
+		return toDelete.concert;
+	}
+}
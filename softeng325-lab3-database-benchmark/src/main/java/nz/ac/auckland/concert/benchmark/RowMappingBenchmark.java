@@ -0,0 +1,112 @@
+package nz.ac.auckland.concert.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import nz.ac.auckland.concert.Concert;
+import nz.ac.auckland.concert.ConcertRowMapper;
+import nz.ac.auckland.concert.Genre;
+import nz.ac.auckland.concert.Performer;
+
+import org.joda.time.LocalDateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares ConcertRowMapper with the row mapping JDBCConcertDAO used before
+ * it, which converted each date via a java.time LocalDateTime and its String
+ * form, and looked up each Genre with Genre.valueOf().
+ *
+ * Both benchmarks map the same in-memory ResultSet of ROWS rows, without
+ * sharing Performers between rows. Scores, including the GC profiler's
+ * gc.alloc.rate.norm, are per row.
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RowMappingBenchmark {
+
+	private static final int ROWS = 1000;
+
+	private static final String SQL_SELECT_ROWS =
+			"SELECT X, 'Concert ' || X, DATEADD('HOUR', X, TIMESTAMP '2018-01-01 00:00:00'), " +
+			"X, 'Performer ' || X, 'Performer' || X || '.jpg', 'RhythmAndBlues', 0, 0 " +
+			"FROM SYSTEM_RANGE(1, " + ROWS + ")";
+
+	private Connection _connection;
+	private ResultSet _rs;
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException {
+		_connection = DriverManager.getConnection("jdbc:h2:mem:rowmapping", "sa", "sa");
+		Statement statement = _connection.createStatement(
+				ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+		_rs = statement.executeQuery(SQL_SELECT_ROWS);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		_connection.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void legacyMapper(Blackhole blackhole) throws SQLException {
+		_rs.beforeFirst();
+		while(_rs.next()) {
+			blackhole.consume(legacyMapConcert(_rs, new HashMap<Long, Performer>()));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void rowMapper(Blackhole blackhole) throws SQLException {
+		_rs.beforeFirst();
+		while(_rs.next()) {
+			blackhole.consume(ConcertRowMapper.mapConcert(_rs, new HashMap<Long, Performer>()));
+		}
+	}
+
+	/*
+	 * The original JDBCConcertDAO row mapping, kept as a baseline.
+	 *
+	 */
+	private static Concert legacyMapConcert(ResultSet rs, Map<Long, Performer> performers) throws SQLException {
+		Long cid = rs.getLong(1);
+		String title = rs.getString(2);
+		LocalDateTime ldt = new org.joda.time.LocalDateTime(rs.getTimestamp(3).toLocalDateTime().toString());
+
+		Performer performer = null;
+		long pid = rs.getLong(4);
+		if(!rs.wasNull()) {
+			performer = performers.get(pid);
+			if(performer == null) {
+				performer = new Performer(pid, rs.getString(5), rs.getString(6), Genre.valueOf(rs.getString(7)));
+				performers.put(pid, performer);
+			}
+		}
+		return new Concert(cid, title, ldt, performer);
+	}
+}
@@ -0,0 +1,81 @@
+package nz.ac.auckland.concert.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nz.ac.auckland.concert.Concert;
+import nz.ac.auckland.concert.DAOException;
+
+import org.joda.time.LocalDateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares saving a batch of new Concerts with a single saveAll() call
+ * against saving them one at a time with save(). Scores are per Concert.
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SaveAllBenchmark {
+
+	private static final int BATCH_SIZE = 100;
+
+	private static final LocalDateTime DATE = new LocalDateTime(2019, 6, 1, 20, 0);
+
+	/**
+	 * A batch of new Concerts, created before each invocation and deleted
+	 * after each iteration.
+	 *
+	 */
+	@State(Scope.Thread)
+	public static class Batch {
+		final List<Concert> concerts = new ArrayList<Concert>();
+		final List<Concert> saved = new ArrayList<Concert>();
+
+		@Setup(Level.Invocation)
+		public void createConcerts(BenchmarkDatabase db) {
+			concerts.clear();
+			for(int i = 0; i < BATCH_SIZE; i++) {
+				concerts.add(new Concert("Batched concert " + i, DATE, db.getPerformer()));
+			}
+		}
+
+		@TearDown(Level.Iteration)
+		public void deleteSavedConcerts(BenchmarkDatabase db) throws DAOException {
+			db.getDAO().deleteAll(saved);
+			saved.clear();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void saveAll(BenchmarkDatabase db, Batch batch) throws DAOException {
+		db.getDAO().saveAll(batch.concerts);
+		batch.saved.addAll(batch.concerts);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void saveIndividually(BenchmarkDatabase db, Batch batch) throws DAOException {
+		for(Concert concert : batch.concerts) {
+			db.getDAO().save(concert);
+		}
+		batch.saved.addAll(batch.concerts);
+	}
+}
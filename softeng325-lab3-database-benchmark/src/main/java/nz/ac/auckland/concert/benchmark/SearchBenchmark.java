@@ -0,0 +1,77 @@
+package nz.ac.auckland.concert.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nz.ac.auckland.concert.Concert;
+import nz.ac.auckland.concert.DAOException;
+import nz.ac.auckland.concert.IndexedConcertDAO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares search() on JDBCConcertDAO, which filters the CONCERT table with
+ * LIKE, against IndexedConcertDAO, which looks up the query's words in its
+ * in-memory ConcertSearchIndex.
+ *
+ * The selective query, a seeded Concert's ID, matches the one Concert titled
+ * "Concert <id>" (and others whose IDs start with the same digits); the broad
+ * query matches every seeded Concert, of which the first page is returned.
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SearchBenchmark {
+
+	private static final int PAGE_SIZE = 20;
+
+	private static final String BROAD_QUERY = "concert";
+
+	/**
+	 * An IndexedConcertDAO over the benchmark database, indexed once per 
+	 * trial. It isn't closed, as that would close the shared JDBCConcertDAO.
+	 *
+	 */
+	@State(Scope.Benchmark)
+	public static class Index {
+		IndexedConcertDAO dao;
+
+		@Setup(Level.Trial)
+		public void buildIndex(BenchmarkDatabase db) throws DAOException {
+			dao = new IndexedConcertDAO(db.getDAO());
+		}
+	}
+
+	@Benchmark
+	public List<Concert> jdbcSearch(BenchmarkDatabase db) throws DAOException {
+		return db.getDAO().search(Long.toString(db.randomConcertId()), 0, PAGE_SIZE);
+	}
+
+	@Benchmark
+	public List<Concert> jdbcSearchBroad(BenchmarkDatabase db) throws DAOException {
+		return db.getDAO().search(BROAD_QUERY, 0, PAGE_SIZE);
+	}
+
+	@Benchmark
+	public List<Concert> indexedSearch(BenchmarkDatabase db, Index index) throws DAOException {
+		return index.dao.search(Long.toString(db.randomConcertId()), 0, PAGE_SIZE);
+	}
+
+	@Benchmark
+	public List<Concert> indexedSearchBroad(Index index) throws DAOException {
+		return index.dao.search(BROAD_QUERY, 0, PAGE_SIZE);
+	}
+}
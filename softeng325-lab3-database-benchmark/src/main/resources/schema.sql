@@ -0,0 +1,20 @@
+DROP TABLE IF EXISTS CONCERT;
+DROP TABLE IF EXISTS PERFORMER;
+DROP SEQUENCE IF EXISTS CONCERT_ID_SEQ;
+DROP SEQUENCE IF EXISTS PERFORMER_ID_SEQ;
+
+CREATE TABLE CONCERT(
+ID              LONG PRIMARY KEY,
+TITLE           VARCHAR(255),
+DATE            TIMESTAMP,
+FK_PERFORMER_ID LONG,
+VERSION         LONG DEFAULT 0 NOT NULL);
+
+CREATE TABLE PERFORMER(
+ID      LONG PRIMARY KEY,
+NAME    VARCHAR(255),
+S3IMAGE VARCHAR(255),
+GENRE   VARCHAR(30),
+VERSION LONG DEFAULT 0 NOT NULL);
+
+ALTER TABLE CONCERT ADD FOREIGN KEY (FK_PERFORMER_ID) REFERENCES PERFORMER(ID);
@@ -0,0 +1,417 @@
+package nz.ac.auckland.concert;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.joda.time.LocalDateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous facade for a ConcertDAO. Each method runs the corresponding
+ * ConcertDAO operation on a dedicated executor and returns a
+ * CompletableFuture for its result, so that callers can issue several
+ * operations concurrently rather than waiting for each in turn. A future
+ * that fails does so with the DAOException thrown by the underlying
+ * ConcertDAO.
+ *
+ * On JVMs that support virtual threads, each operation runs on its own
+ * virtual thread; otherwise operations run on a fixed pool of platform
+ * threads. Either way, at most maxConcurrency operations run at once, which
+ * should normally match the size of the underlying DAO's connection pool.
+ *
+ * Admission control bounds the number of operations waiting to run to
+ * maxQueued. When the queue is full, new operations are rejected straight
+ * away: their futures fail with a DAOException, rather than the caller
+ * being blocked or the queue growing without limit.
+ *
+ * AsyncConcertDAO is thread-safe if the underlying ConcertDAO is.
+ *
+ */
+public class AsyncConcertDAO {
+
+	// Error messages.
+	private static final String ERROR_QUEUE_FULL = "Too many pending Concert operations";
+	private static final String ERROR_CLOSED = "AsyncConcertDAO is closed";
+	private static final String ERROR_INTERRUPTED = "Interrupted while waiting to run a Concert operation";
+
+	// How long close() waits for outstanding operations to finish.
+	private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+	private static Logger _logger = LoggerFactory
+			.getLogger(AsyncConcertDAO.class);
+
+	private final ConcertDAO _delegate;
+	private final int _maxConcurrency;
+	private final int _maxQueued;
+	private final ExecutorService _executor;
+	private final boolean _virtualThreads;
+
+	// Admission permits, one per running or queued operation.
+	private final Semaphore _admitted;
+
+	// Execution permits, one per running operation. Virtual thread executors
+	// are unbounded, so this is what limits concurrency.
+	private final Semaphore _running;
+
+	// Metrics.
+	private final AtomicInteger _queued = new AtomicInteger();
+	private final AtomicInteger _active = new AtomicInteger();
+	private final AtomicLong _completed = new AtomicLong();
+	private final AtomicLong _failed = new AtomicLong();
+	private final AtomicLong _rejected = new AtomicLong();
+
+	/**
+	 * Creates an AsyncConcertDAO.
+	 *
+	 * @param delegate the ConcertDAO that performs the operations.
+	 *
+	 * @param maxConcurrency the maximum number of operations that run at
+	 * once.
+	 *
+	 * @param maxQueued the maximum number of operations that may wait to run.
+	 * Operations submitted beyond this are rejected.
+	 *
+	 */
+	public AsyncConcertDAO(ConcertDAO delegate, int maxConcurrency, int maxQueued) {
+		if(maxConcurrency < 1 || maxQueued < 0) {
+			throw new IllegalArgumentException("Invalid limits: concurrency " + maxConcurrency + ", queued " + maxQueued);
+		}
+
+		_delegate = delegate;
+		_maxConcurrency = maxConcurrency;
+		_maxQueued = maxQueued;
+		_admitted = new Semaphore(maxConcurrency + maxQueued);
+		_running = new Semaphore(maxConcurrency);
+
+		ExecutorService executor = createVirtualThreadExecutor();
+		_virtualThreads = executor != null;
+		if(executor == null) {
+			AtomicInteger threadCount = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(maxConcurrency, r -> {
+				Thread thread = new Thread(r, "AsyncConcertDAO-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		_executor = executor;
+	}
+
+	/**
+	 * @see ConcertDAO.save()
+	 *
+	 */
+	public CompletableFuture<Void> save(Concert concert) {
+		return submit(() -> {
+			_delegate.save(concert);
+			return null;
+		});
+	}
+
+	/**
+	 * @see ConcertDAO.saveAll()
+	 *
+	 */
+	public CompletableFuture<Void> saveAll(Collection<Concert> concerts) {
+		return submit(() -> {
+			_delegate.saveAll(concerts);
+			return null;
+		});
+	}
+
+	/**
+	 * @see ConcertDAO.getById()
+	 *
+	 */
+	public CompletableFuture<Concert> getById(long id) {
+		return submit(() -> _delegate.getById(id));
+	}
+
+	/**
+	 * @see ConcertDAO.getAll()
+	 *
+	 */
+	public CompletableFuture<List<Concert>> getAll() {
+		return submit(() -> _delegate.getAll());
+	}
+
+	/**
+	 * @see ConcertDAO.getPage()
+	 *
+	 */
+	public CompletableFuture<List<Concert>> getPage(Concert after, int pageSize) {
+		return submit(() -> _delegate.getPage(after, pageSize));
+	}
+
+	/**
+	 * @see ConcertDAO.findByGenre()
+	 *
+	 */
+	public CompletableFuture<List<Concert>> findByGenre(Genre genre) {
+		return submit(() -> _delegate.findByGenre(genre));
+	}
+
+	/**
+	 * @see ConcertDAO.findByPerformer()
+	 *
+	 */
+	public CompletableFuture<List<Concert>> findByPerformer(Performer performer) {
+		return submit(() -> _delegate.findByPerformer(performer));
+	}
+
+	/**
+	 * @see ConcertDAO.findBetween()
+	 *
+	 */
+	public CompletableFuture<List<Concert>> findBetween(LocalDateTime from, LocalDateTime to) {
+		return submit(() -> _delegate.findBetween(from, to));
+	}
+
+	/**
+	 * @see ConcertDAO.findByIds()
+	 *
+	 */
+	public CompletableFuture<List<Concert>> findByIds(Collection<Long> ids) {
+		return submit(() -> _delegate.findByIds(ids));
+	}
+
+	/**
+	 * @see ConcertDAO.forEach()
+	 *
+	 * The action runs on the executor's thread, not the caller's.
+	 *
+	 */
+	public CompletableFuture<Void> forEach(Consumer<? super Concert> action) {
+		return submit(() -> {
+			_delegate.forEach(action);
+			return null;
+		});
+	}
+
+	/**
+	 * @see ConcertDAO.search()
+	 *
+	 */
+	public CompletableFuture<List<Concert>> search(String query, int offset, int pageSize) {
+		return submit(() -> _delegate.search(query, offset, pageSize));
+	}
+
+	/**
+	 * @see ConcertDAO.deleteConcert()
+	 *
+	 */
+	public CompletableFuture<Void> deleteConcert(Concert concert) {
+		return submit(() -> {
+			_delegate.deleteConcert(concert);
+			return null;
+		});
+	}
+
+	/**
+	 * @see ConcertDAO.deleteAll()
+	 *
+	 */
+	public CompletableFuture<Void> deleteAll(Collection<Concert> concerts) {
+		return submit(() -> {
+			_delegate.deleteAll(concerts);
+			return null;
+		});
+	}
+
+	/**
+	 * @see ConcertDAO.inTransaction(UnitOfWork)
+	 *
+	 * The unit of work runs on the executor's thread, not the caller's.
+	 *
+	 */
+	public <T> CompletableFuture<T> inTransaction(UnitOfWork<T> work) {
+		return submit(() -> _delegate.inTransaction(work));
+	}
+
+	/**
+	 * @see ConcertDAO.inTransaction(int, UnitOfWork)
+	 *
+	 * The unit of work runs on the executor's thread, not the caller's.
+	 *
+	 */
+	public <T> CompletableFuture<T> inTransaction(int isolationLevel, UnitOfWork<T> work) {
+		return submit(() -> _delegate.inTransaction(isolationLevel, work));
+	}
+
+	/**
+	 * Stops accepting operations, waits for outstanding operations to finish
+	 * and then closes the underlying ConcertDAO.
+	 *
+	 * @throws DAOException if there's an error with closing the underlying
+	 * ConcertDAO.
+	 *
+	 */
+	public void close() throws DAOException {
+		_executor.shutdown();
+		try {
+			if(!_executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				_logger.debug("Timed out waiting for Concert operations; cancelling them");
+				_executor.shutdownNow();
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			_executor.shutdownNow();
+		}
+		_delegate.close();
+	}
+
+	/**
+	 * Returns the number of operations admitted but not yet running.
+	 *
+	 */
+	public int getQueueDepth() {
+		return _queued.get();
+	}
+
+	/**
+	 * Returns the number of operations currently running.
+	 *
+	 */
+	public int getActiveCount() {
+		return _active.get();
+	}
+
+	/**
+	 * Returns the number of operations that have completed successfully.
+	 *
+	 */
+	public long getCompletedCount() {
+		return _completed.get();
+	}
+
+	/**
+	 * Returns the number of operations that have failed with an exception.
+	 * Rejected operations aren't counted.
+	 *
+	 */
+	public long getFailedCount() {
+		return _failed.get();
+	}
+
+	/**
+	 * Returns the number of operations rejected because the queue was full.
+	 *
+	 */
+	public long getRejectedCount() {
+		return _rejected.get();
+	}
+
+	public int getMaxConcurrency() {
+		return _maxConcurrency;
+	}
+
+	public int getMaxQueued() {
+		return _maxQueued;
+	}
+
+	/**
+	 * Returns true if operations run on virtual threads, and false if they
+	 * run on a fixed pool of platform threads.
+	 *
+	 */
+	public boolean usesVirtualThreads() {
+		return _virtualThreads;
+	}
+
+	/*
+	 * A ConcertDAO operation that returns a result.
+	 *
+	 */
+	@FunctionalInterface
+	private interface Operation<T> {
+		T execute() throws DAOException;
+	}
+
+	/*
+	 * Admits an operation and schedules it on the executor, returning a
+	 * future for its result. If the operation can't be admitted, the returned
+	 * future has already failed.
+	 *
+	 */
+	private <T> CompletableFuture<T> submit(Operation<T> operation) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+
+		if(!_admitted.tryAcquire()) {
+			_rejected.incrementAndGet();
+			future.completeExceptionally(new DAOException(ERROR_QUEUE_FULL));
+			return future;
+		}
+
+		_queued.incrementAndGet();
+		try {
+			_executor.execute(() -> run(operation, future));
+		} catch(RuntimeException e) {
+			// The executor has been shut down.
+			_queued.decrementAndGet();
+			_admitted.release();
+			_rejected.incrementAndGet();
+			future.completeExceptionally(new DAOException(ERROR_CLOSED));
+		}
+		return future;
+	}
+
+	private <T> void run(Operation<T> operation, CompletableFuture<T> future) {
+		try {
+			_running.acquire();
+		} catch(InterruptedException e) {
+			_queued.decrementAndGet();
+			_admitted.release();
+			_failed.incrementAndGet();
+			future.completeExceptionally(new DAOException(ERROR_INTERRUPTED));
+			return;
+		}
+
+		_queued.decrementAndGet();
+		_active.incrementAndGet();
+		T result = null;
+		Throwable failure = null;
+		try {
+			result = operation.execute();
+		} catch(Throwable e) {
+			failure = e;
+		} finally {
+			// Release the permits before completing the future, so that
+			// callers waiting on it see up-to-date metrics and capacity.
+			_active.decrementAndGet();
+			_running.release();
+			_admitted.release();
+		}
+
+		if(failure == null) {
+			_completed.incrementAndGet();
+			future.complete(result);
+		} else {
+			_failed.incrementAndGet();
+			future.completeExceptionally(failure);
+		}
+	}
+
+	/*
+	 * Returns an executor that starts a virtual thread for each task, or null
+	 * if the JVM doesn't support virtual threads. The executor is looked up
+	 * reflectively so that the DAO still compiles and runs on older JVMs.
+	 *
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch(ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
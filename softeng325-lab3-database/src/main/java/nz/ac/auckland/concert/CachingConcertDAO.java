@@ -0,0 +1,508 @@
+package nz.ac.auckland.concert;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.joda.time.LocalDateTime;
+
+/**
+ * ConcertDAO decorator that caches Concerts and Performers retrieved by ID.
+ *
+ * getById() is served from the cache when both the Concert and its Performer
+ * are cached, and otherwise reads through to the underlying ConcertDAO. Each
+ * cache holds at most maxSize entries, evicting the least recently used entry
+ * when full, and entries expire ttlMillis after they were loaded.
+ *
+ * The caches store copies of the Concert and Performer state, not the objects
+ * returned to callers, so each call to getById() returns new objects, as the
+ * underlying ConcertDAO does. Like loaded objects, they're clean (see
+ * Concert.isDirty()). Queries that return many Concerts - getAll(),
+ * getPage(), forEach(), search() and the finder methods - are passed 
+ * straight to the underlying ConcertDAO, and so keep its Performer sharing 
+ * semantics; they don't populate the cache so that scans can't flush 
+ * frequently read entries.
+ *
+ * Saving or deleting a Concert through this ConcertDAO invalidates the cached
+ * Concert and its Performer. Changes made directly to the datastore, or
+ * through another ConcertDAO, become visible once the cached entries expire.
+ * Within a transaction, the cache is bypassed, and the entries for the 
+ * Concerts and Performers the transaction wrote are invalidated again when 
+ * it ends (see inTransaction()).
+ *
+ * CachingConcertDAO is thread-safe if the underlying ConcertDAO is.
+ *
+ */
+public class CachingConcertDAO implements ConcertDAO {
+
+	private final ConcertDAO _delegate;
+	private final long _ttlMillis;
+
+	// Cached Concert and Performer state, keyed on ID. Both maps are guarded
+	// by this.
+	private final LruMap<Long, CachedConcert> _concerts;
+	private final LruMap<Long, CachedPerformer> _performers;
+
+	// Incremented by every invalidation, so that values read from the
+	// underlying ConcertDAO concurrently with a write aren't cached. Guarded
+	// by this.
+	private long _invalidations = 0;
+
+	// IDs written by the transaction running on the current thread, if any.
+	private final ThreadLocal<Transaction> _transaction = new ThreadLocal<Transaction>();
+
+	// Cache statistics. Guarded by this.
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+
+	/**
+	 * Creates a CachingConcertDAO.
+	 *
+	 * @param delegate the ConcertDAO to cache.
+	 *
+	 * @param maxSize the maximum number of Concerts, and of Performers, to
+	 * cache.
+	 *
+	 * @param ttlMillis how long a cached entry remains valid, in milliseconds.
+	 *
+	 */
+	public CachingConcertDAO(ConcertDAO delegate, int maxSize, long ttlMillis) {
+		_delegate = delegate;
+		_ttlMillis = ttlMillis;
+		_concerts = new LruMap<Long, CachedConcert>(maxSize);
+		_performers = new LruMap<Long, CachedPerformer>(maxSize);
+	}
+
+	/**
+	 * @see ConcertDAO.save()
+	 *
+	 */
+	public void save(Concert concert) throws DAOException {
+		try {
+			_delegate.save(concert);
+		} finally {
+			written(concert);
+		}
+	}
+
+	/**
+	 * @see ConcertDAO.saveAll()
+	 *
+	 */
+	public void saveAll(Collection<Concert> concerts) throws DAOException {
+		try {
+			_delegate.saveAll(concerts);
+		} finally {
+			for(Concert concert : concerts) {
+				written(concert);
+			}
+		}
+	}
+
+	/**
+	 * @see ConcertDAO.getById()
+	 *
+	 */
+	public Concert getById(long id) throws DAOException {
+		// A transaction may see rows that aren't committed, or not see rows
+		// committed since it started, so neither reads nor fills the cache.
+		if(_transaction.get() != null) {
+			return _delegate.getById(id);
+		}
+
+		long invalidations;
+		synchronized(this) {
+			long now = System.currentTimeMillis();
+			CachedConcert cachedConcert = _concerts.get(id);
+			if(cachedConcert != null && cachedConcert.expiresAt > now) {
+				CachedPerformer cachedPerformer = cachedConcert.performerId == null ?
+						null : _performers.get(cachedConcert.performerId);
+				if(cachedConcert.performerId == null ||
+						(cachedPerformer != null && cachedPerformer.expiresAt > now)) {
+					_hits++;
+					return cachedConcert.toConcert(cachedPerformer == null ? null : cachedPerformer.toPerformer());
+				}
+			}
+			_misses++;
+			invalidations = _invalidations;
+		}
+
+		Concert concert = _delegate.getById(id);
+
+		if(concert != null) {
+			synchronized(this) {
+				if(invalidations == _invalidations) {
+					long expiresAt = System.currentTimeMillis() + _ttlMillis;
+					Performer performer = concert.getPerformer();
+					_concerts.put(id, new CachedConcert(concert, expiresAt));
+					if(performer != null) {
+						_performers.put(performer.getId(), new CachedPerformer(performer, expiresAt));
+					}
+				}
+			}
+		}
+		return concert;
+	}
+
+	/**
+	 * @see ConcertDAO.getAll()
+	 *
+	 */
+	public List<Concert> getAll() throws DAOException {
+		return _delegate.getAll();
+	}
+
+	/**
+	 * @see ConcertDAO.getAllPerformers()
+	 *
+	 */
+	public List<Performer> getAllPerformers() throws DAOException {
+		return _delegate.getAllPerformers();
+	}
+
+	/**
+	 * @see ConcertDAO.getPage()
+	 *
+	 */
+	public List<Concert> getPage(Concert after, int pageSize) throws DAOException {
+		return _delegate.getPage(after, pageSize);
+	}
+
+	/**
+	 * @see ConcertDAO.findByGenre()
+	 *
+	 */
+	public List<Concert> findByGenre(Genre genre) throws DAOException {
+		return _delegate.findByGenre(genre);
+	}
+
+	/**
+	 * @see ConcertDAO.findByPerformer()
+	 *
+	 */
+	public List<Concert> findByPerformer(Performer performer) throws DAOException {
+		return _delegate.findByPerformer(performer);
+	}
+
+	/**
+	 * @see ConcertDAO.findBetween()
+	 *
+	 */
+	public List<Concert> findBetween(LocalDateTime from, LocalDateTime to) throws DAOException {
+		return _delegate.findBetween(from, to);
+	}
+
+	/**
+	 * @see ConcertDAO.findByIds()
+	 *
+	 */
+	public List<Concert> findByIds(Collection<Long> ids) throws DAOException {
+		return _delegate.findByIds(ids);
+	}
+
+	/**
+	 * @see ConcertDAO.forEach()
+	 *
+	 */
+	public void forEach(Consumer<? super Concert> action) throws DAOException {
+		_delegate.forEach(action);
+	}
+
+	/**
+	 * @see ConcertDAO.search()
+	 *
+	 */
+	public List<Concert> search(String query, int offset, int pageSize) throws DAOException {
+		return _delegate.search(query, offset, pageSize);
+	}
+
+	/**
+	 * @see ConcertDAO.deleteConcert()
+	 *
+	 */
+	public void deleteConcert(Concert concert) throws DAOException {
+		try {
+			_delegate.deleteConcert(concert);
+		} finally {
+			written(concert);
+		}
+	}
+
+	/**
+	 * @see ConcertDAO.deleteAll()
+	 *
+	 */
+	public void deleteAll(Collection<Concert> concerts) throws DAOException {
+		try {
+			_delegate.deleteAll(concerts);
+		} finally {
+			for(Concert concert : concerts) {
+				written(concert);
+			}
+		}
+	}
+
+	/**
+	 * Runs the unit of work against this CachingConcertDAO. Within the 
+	 * transaction, getById() reads through to the underlying ConcertDAO 
+	 * without caching, so uncommitted rows are never visible to other 
+	 * threads. Saves and deletes invalidate cached entries as usual, but a
+	 * concurrent getById() can still cache the committed rows they replace 
+	 * until the transaction commits, so the entries are invalidated again 
+	 * once the transaction ends, whether or not it commits.
+	 *
+	 * @see ConcertDAO.inTransaction(UnitOfWork)
+	 *
+	 */
+	public <T> T inTransaction(UnitOfWork<T> work) throws DAOException {
+		return inTransaction(() -> _delegate.inTransaction(dao -> work.execute(this)));
+	}
+
+	/**
+	 * @see inTransaction(UnitOfWork)
+	 *
+	 */
+	public <T> T inTransaction(int isolationLevel, UnitOfWork<T> work) throws DAOException {
+		return inTransaction(() -> _delegate.inTransaction(isolationLevel, dao -> work.execute(this)));
+	}
+
+	/**
+	 * @see ConcertDAO.close()
+	 *
+	 */
+	public void close() throws DAOException {
+		invalidateAll();
+		_delegate.close();
+	}
+
+	/**
+	 * Removes all entries from the cache.
+	 *
+	 */
+	public synchronized void invalidateAll() {
+		_invalidations++;
+		_concerts.clear();
+		_performers.clear();
+	}
+
+	/**
+	 * Returns the number of getById() calls served from the cache.
+	 *
+	 */
+	public synchronized long getHitCount() {
+		return _hits;
+	}
+
+	/**
+	 * Returns the number of getById() calls that read through to the
+	 * underlying ConcertDAO.
+	 *
+	 */
+	public synchronized long getMissCount() {
+		return _misses;
+	}
+
+	/**
+	 * Returns the fraction of getById() calls served from the cache, or 0 if
+	 * there have been no calls.
+	 *
+	 */
+	public synchronized double getHitRatio() {
+		long requests = _hits + _misses;
+		return requests == 0 ? 0 : (double) _hits / requests;
+	}
+
+	/**
+	 * Returns the number of entries evicted to make room for new entries.
+	 *
+	 */
+	public synchronized long getEvictionCount() {
+		return _evictions;
+	}
+
+	/**
+	 * Returns the number of Concerts currently cached.
+	 *
+	 */
+	public synchronized int getSize() {
+		return _concerts.size();
+	}
+
+	/*
+	 * A transaction started by the underlying ConcertDAO.
+	 *
+	 */
+	private interface TransactionCall<T> {
+		T call() throws DAOException;
+	}
+
+	/*
+	 * Helper method to run a transaction, invalidating the entries it wrote
+	 * once it has ended. A transaction nested within another on the same 
+	 * thread joins it, so its entries are invalidated when the outer 
+	 * transaction ends.
+	 *
+	 */
+	private <T> T inTransaction(TransactionCall<T> call) throws DAOException {
+		if(_transaction.get() != null) {
+			return call.call();
+		}
+
+		Transaction transaction = new Transaction();
+		_transaction.set(transaction);
+		try {
+			return call.call();
+		} finally {
+			_transaction.remove();
+			invalidate(transaction);
+		}
+	}
+
+	/*
+	 * Invalidates a Concert and its Performer after a save or delete, and 
+	 * records them if a transaction is running on the current thread.
+	 *
+	 */
+	private void written(Concert concert) {
+		invalidate(concert);
+		Transaction transaction = _transaction.get();
+		if(transaction != null) {
+			transaction.add(concert);
+		}
+	}
+
+	/*
+	 * Removes a Concert and its Performer from the cache.
+	 *
+	 */
+	private synchronized void invalidate(Concert concert) {
+		_invalidations++;
+		if(concert.getId() != null) {
+			_concerts.remove(concert.getId());
+		}
+		Performer performer = concert.getPerformer();
+		if(performer != null && performer.getId() != null) {
+			_performers.remove(performer.getId());
+		}
+	}
+
+	/*
+	 * Removes the Concerts and Performers written by a transaction from the
+	 * cache.
+	 *
+	 */
+	private synchronized void invalidate(Transaction transaction) {
+		_invalidations++;
+		_concerts.keySet().removeAll(transaction.concertIds);
+		_performers.keySet().removeAll(transaction.performerIds);
+	}
+
+	/*
+	 * LinkedHashMap, in access order, that evicts its least recently used
+	 * entry when it grows beyond maxSize entries.
+	 *
+	 */
+	private class LruMap<K, V> extends LinkedHashMap<K, V> {
+		private static final long serialVersionUID = 1L;
+
+		private final int _maxSize;
+
+		LruMap(int maxSize) {
+			super(16, 0.75f, true);
+			_maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			if(size() > _maxSize) {
+				_evictions++;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/*
+	 * IDs of the Concerts and Performers written by a transaction. They're
+	 * recorded as they're written, as a rollback clears the IDs of new 
+	 * Concerts and Performers.
+	 *
+	 */
+	private static class Transaction {
+		final Set<Long> concertIds = new HashSet<Long>();
+		final Set<Long> performerIds = new HashSet<Long>();
+
+		void add(Concert concert) {
+			if(concert.getId() != null) {
+				concertIds.add(concert.getId());
+			}
+			Performer performer = concert.getPerformer();
+			if(performer != null && performer.getId() != null) {
+				performerIds.add(performer.getId());
+			}
+		}
+	}
+
+	/*
+	 * Cached state of a Concert. The Performer is referenced by ID.
+	 *
+	 */
+	private static class CachedConcert {
+		final Long id;
+		final String title;
+		final LocalDateTime date;
+		final Long performerId;
+		final long version;
+		final long expiresAt;
+
+		CachedConcert(Concert concert, long expiresAt) {
+			this.id = concert.getId();
+			this.title = concert.getTitle();
+			this.date = concert.getDate();
+			this.performerId = concert.getPerformer() == null ? null : concert.getPerformer().getId();
+			this.version = concert.getVersion();
+			this.expiresAt = expiresAt;
+		}
+
+		Concert toConcert(Performer performer) {
+			Concert concert = new Concert(id, title, date, performer);
+			concert.setVersion(version);
+			concert.markClean();
+			return concert;
+		}
+	}
+
+	/*
+	 * Cached state of a Performer.
+	 *
+	 */
+	private static class CachedPerformer {
+		final Long id;
+		final String name;
+		final String s3ImageUri;
+		final Genre genre;
+		final long version;
+		final long expiresAt;
+
+		CachedPerformer(Performer performer, long expiresAt) {
+			this.id = performer.getId();
+			this.name = performer.getName();
+			this.s3ImageUri = performer.getS3ImageUri();
+			this.genre = performer.getGenre();
+			this.version = performer.getVersion();
+			this.expiresAt = expiresAt;
+		}
+
+		Performer toPerformer() {
+			Performer performer = new Performer(id, name, s3ImageUri, genre);
+			performer.setVersion(version);
+			performer.markClean();
+			return performer;
+		}
+	}
+}
@@ -11,6 +11,12 @@ import org.joda.time.LocalDateTime;
  * Concert implements Comparable with a natural ordering based on its title.
  * Hence, in a List, Concert instances can be sorted into alphabetical order
  * based on their title value.
+ * 
+ * A Concert tracks which of its fields have been changed since it was last
+ * loaded from or saved to the datastore, so that a DAO need only write the
+ * changes. Concerts created with a constructor are entirely dirty. A Concert
+ * also records the version of the stored Concert it was loaded from, so that
+ * a DAO can detect concurrent updates.
  *
  */
 public class Concert implements Comparable<Concert> {
@@ -19,6 +25,16 @@ public class Concert implements Comparable<Concert> {
 	private LocalDateTime _date;
 	private Performer _performer;
 	
+	// Version of the stored Concert that this object was loaded from or last
+	// saved as, used for optimistic concurrency control.
+	private long _version;
+	
+	// Dirty flags, set when the corresponding field differs from the stored
+	// value, or may do.
+	private boolean _titleDirty = true;
+	private boolean _dateDirty = true;
+	private boolean _performerDirty = true;
+	
 	public Concert(Long id, String title, LocalDateTime date, Performer performer) {
 		_id = id;
 		_title = title;
@@ -46,6 +62,7 @@ public class Concert implements Comparable<Concert> {
 
 	public void setTitle(String title) {
 		_title = title;
+		_titleDirty = true;
 	}
 
 	public LocalDateTime getDate() {
@@ -54,11 +71,69 @@ public class Concert implements Comparable<Concert> {
 	
 	public void setDate(LocalDateTime date) {
 		_date = date;
+		_dateDirty = true;
 	}
 
 	public Performer getPerformer() {
 		return _performer;
 	}
+	
+	/**
+	 * Returns the version of the stored Concert that this object was loaded
+	 * from or last saved as. New Concerts have version 0, and each update 
+	 * increments the version.
+	 * 
+	 */
+	public long getVersion() {
+		return _version;
+	}
+	
+	void setVersion(long version) {
+		_version = version;
+	}
+	
+	/**
+	 * Returns true if any of this Concert's fields have changed since it was
+	 * last loaded or saved. The Concert's Performer is tracked separately.
+	 * 
+	 */
+	public boolean isDirty() {
+		return _titleDirty || _dateDirty || _performerDirty;
+	}
+	
+	boolean isTitleDirty() {
+		return _titleDirty;
+	}
+	
+	boolean isDateDirty() {
+		return _dateDirty;
+	}
+	
+	boolean isPerformerDirty() {
+		return _performerDirty;
+	}
+	
+	/*
+	 * Records that this Concert's fields match the datastore. Called by DAOs
+	 * once the Concert has been loaded or saved.
+	 * 
+	 */
+	void markClean() {
+		_titleDirty = false;
+		_dateDirty = false;
+		_performerDirty = false;
+	}
+	
+	/*
+	 * Records that all of this Concert's fields may differ from the 
+	 * datastore. Called by DAOs when a save is rolled back.
+	 * 
+	 */
+	void markDirty() {
+		_titleDirty = true;
+		_dateDirty = true;
+		_performerDirty = true;
+	}
 
 	@Override
 	public String toString() {
@@ -1,6 +1,10 @@
 package nz.ac.auckland.concert;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
+
+import org.joda.time.LocalDateTime;
 
 /**
  * Interface for a DAO for Concerts.
@@ -15,16 +19,42 @@ public interface ConcertDAO {
 	 * Persists a Concert object. 
 	 * 
 	 * If the Concert is already in the database it is updated, otherwise it is 
-	 * inserted. This operation saves the complete state of a Concert instance,
-	 * including its Performer.
+	 * inserted. This operation saves the state of a Concert instance, 
+	 * including its Performer. Implementations may write only the fields that
+	 * have changed since the Concert and Performer were loaded or last saved,
+	 * as reported by their isDirty() methods.
+	 * 
+	 * Updates are subject to optimistic concurrency control: if the stored 
+	 * Concert or Performer has been changed since it was loaded, the save is
+	 * rejected rather than overwriting the other change.
 	 * 
 	 * @param concert the Concert object to persist.
 	 * 
+	 * @throws OptimisticLockException if the Concert or its Performer has 
+	 * been modified in the datastore since it was loaded.
+	 * 
 	 * @throws DAOException if there's an error with storing the Concert.
 	 * 
 	 */
 	public void save(Concert concert) throws DAOException;
 	
+	/**
+	 * Persists a collection of Concerts in a single transaction. Either all of
+	 * the Concerts (and their Performers) are saved, or none are.
+	 * 
+	 * Each Concert is inserted or updated as for save(). A Performer shared by
+	 * several of the Concerts is saved only once.
+	 * 
+	 * @param concerts the Concerts to persist.
+	 * 
+	 * @throws OptimisticLockException if any of the Concerts or Performers 
+	 * has been modified in the datastore since it was loaded.
+	 * 
+	 * @throws DAOException if there's an error with storing the Concerts.
+	 * 
+	 */
+	public void saveAll(Collection<Concert> concerts) throws DAOException;
+	
 	/**
 	 * Retrieves a Concert by its unique ID. 	
 	 * 
@@ -50,6 +80,139 @@ public interface ConcertDAO {
 	 */
 	public List<Concert> getAll() throws DAOException;
 	
+	/**
+	 * Retrieves all Performers, including those without any Concerts. The 
+	 * Performers are ordered by ID.
+	 * 
+	 * @return a List of Performers. The List is empty if there are no 
+	 * Performers in the datastore.
+	 * 
+	 * @throws DAOException if there's an error with retrieving the 
+	 * Performers.
+	 * 
+	 */
+	public List<Performer> getAllPerformers() throws DAOException;
+	
+	/**
+	 * Retrieves a page of Concerts. Concerts are ordered alphabetically by 
+	 * title, as for getAll(), with Concerts of the same title ordered by ID. 
+	 * 
+	 * Pages are identified by the last Concert of the previous page rather 
+	 * than by an offset, so retrieving a page costs the same wherever it is
+	 * in the sequence, and concurrent inserts and deletes don't cause Concerts
+	 * to be skipped or repeated.
+	 * 
+	 * @param after the last Concert of the previous page, or null to retrieve
+	 * the first page. Only the Concert's title and ID are used.
+	 * 
+	 * @param pageSize the maximum number of Concerts to return.
+	 * 
+	 * @return a List of at most pageSize Concerts. The List is empty if there
+	 * are no Concerts after the given Concert.
+	 * 
+	 * @throws DAOException if there's an error with retrieving the Concerts.
+	 * 
+	 */
+	public List<Concert> getPage(Concert after, int pageSize) throws DAOException;
+	
+	/**
+	 * Retrieves all Concerts whose Performer plays the given Genre. The 
+	 * Concerts are ordered as for getAll().
+	 * 
+	 * @param genre the Genre.
+	 * 
+	 * @return a List of Concerts, which is empty if there are no matches.
+	 * 
+	 * @throws DAOException if there's an error with retrieving the Concerts.
+	 * 
+	 */
+	public List<Concert> findByGenre(Genre genre) throws DAOException;
+	
+	/**
+	 * Retrieves all Concerts featuring the given Performer. The Concerts are
+	 * ordered as for getAll().
+	 * 
+	 * @param performer the Performer, which must have been persisted.
+	 * 
+	 * @return a List of Concerts, which is empty if there are no matches.
+	 * 
+	 * @throws DAOException if there's an error with retrieving the Concerts.
+	 * 
+	 */
+	public List<Concert> findByPerformer(Performer performer) throws DAOException;
+	
+	/**
+	 * Retrieves all Concerts taking place in a given period, ordered by date 
+	 * and then by title.
+	 * 
+	 * @param from the start of the period (inclusive).
+	 * 
+	 * @param to the end of the period (exclusive).
+	 * 
+	 * @return a List of Concerts, which is empty if there are no matches.
+	 * 
+	 * @throws DAOException if there's an error with retrieving the Concerts.
+	 * 
+	 */
+	public List<Concert> findBetween(LocalDateTime from, LocalDateTime to) throws DAOException;
+	
+	/**
+	 * Retrieves the Concerts with the given IDs, ordered by ID. Unlike 
+	 * calling getById() for each ID, the Concerts are loaded together, in a
+	 * single query where the datastore allows.
+	 * 
+	 * @param ids the IDs of the Concerts to retrieve.
+	 * 
+	 * @return a List of Concerts. IDs with no Concert are left out, so the
+	 * List may be shorter than ids.
+	 * 
+	 * @throws DAOException if there's an error with retrieving the Concerts.
+	 * 
+	 */
+	public List<Concert> findByIds(Collection<Long> ids) throws DAOException;
+	
+	/**
+	 * Passes each Concert, in the order of getAll(), to the given action.
+	 * Concerts are read from the datastore as they're consumed, so memory use
+	 * doesn't grow with the number of Concerts. Unlike getAll(), Concerts 
+	 * don't share Performer objects.
+	 * 
+	 * Implementations may hold datastore resources while the action runs, so
+	 * the action shouldn't call back into the same ConcertDAO.
+	 * 
+	 * @param action the action to perform on each Concert.
+	 * 
+	 * @throws DAOException if there's an error with retrieving the Concerts.
+	 * 
+	 */
+	public void forEach(Consumer<? super Concert> action) throws DAOException;
+	
+	/**
+	 * Searches for Concerts by the words in their titles and in their 
+	 * Performers' names. Each word of the query must match the start of a 
+	 * word in the Concert's title or Performer's name; case is ignored.
+	 * 
+	 * Results are ranked as defined by ConcertSearchIndex: exact matches 
+	 * above partial matches, and title matches above Performer matches, with
+	 * equally ranked Concerts ordered as for getAll().
+	 * 
+	 * @param query the words to search for.
+	 * 
+	 * @param offset the number of ranked results to skip, which mustn't be
+	 * negative.
+	 * 
+	 * @param pageSize the maximum number of Concerts to return.
+	 * 
+	 * @return a List of at most pageSize Concerts, which is empty if there 
+	 * are no more matches or the query has no words.
+	 * 
+	 * @throws DAOException if there's an error with retrieving the Concerts.
+	 * 
+	 * @throws IllegalArgumentException if offset is negative.
+	 * 
+	 */
+	public List<Concert> search(String query, int offset, int pageSize) throws DAOException;
+	
 	/**
 	 * Deletes a Concert.
 	 * 
@@ -60,6 +223,52 @@ public interface ConcertDAO {
 	 */
 	public void deleteConcert(Concert concert) throws DAOException;
 	
+	/**
+	 * Deletes a collection of Concerts in a single transaction.
+	 * 
+	 * @param concerts the Concerts to delete.
+	 * 
+	 * @throws DAOException if there's an error with deleting the Concerts.
+	 * 
+	 */
+	public void deleteAll(Collection<Concert> concerts) throws DAOException;
+	
+	/**
+	 * Runs a unit of work in a single transaction, using the datastore's
+	 * current isolation level.
+	 * 
+	 * @see inTransaction(int, UnitOfWork)
+	 * 
+	 */
+	public <T> T inTransaction(UnitOfWork<T> work) throws DAOException;
+	
+	/**
+	 * Runs a unit of work in a single transaction. Operations performed by
+	 * the unit of work, on the ConcertDAO passed to it, are committed
+	 * together when it completes, or rolled back if it fails. A unit of work
+	 * that is run from within another joins the enclosing transaction.
+	 * 
+	 * Objects saved within a transaction that is rolled back are restored to
+	 * their unsaved state: new objects have their IDs cleared, and all of
+	 * their fields are treated as modified.
+	 * 
+	 * Implementations may retry a unit of work that fails because of a
+	 * deadlock or lock timeout.
+	 * 
+	 * @param isolationLevel the isolation level for the transaction, one of
+	 * the java.sql.Connection TRANSACTION_ constants.
+	 * 
+	 * @param work the unit of work to run.
+	 * 
+	 * @return the result of the unit of work.
+	 * 
+	 * @throws DAOException if the unit of work or the commit fails. An
+	 * operation that fails within the unit of work causes the transaction to
+	 * be rolled back, even if the unit of work catches the exception.
+	 * 
+	 */
+	public <T> T inTransaction(int isolationLevel, UnitOfWork<T> work) throws DAOException;
+	
 	/**
 	 * Closes the connection to the datastore.
 	 * 
@@ -0,0 +1,420 @@
+package nz.ac.auckland.concert;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.joda.time.LocalDateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bulk importer that loads Concerts, and their Performers, from CSV data into
+ * a ConcertDAO.
+ *
+ * Each CSV record describes one Concert:
+ *
+ *   title,date,performerName,s3image,genre
+ *
+ * where date is an ISO-8601 local date and time (e.g. 2017-09-02T19:30) and
+ * genre is the name of a Genre constant. Fields containing commas or quotes
+ * must be enclosed in double quotes, with embedded quotes doubled. A first
+ * line that is exactly the header above is skipped; any other first line is
+ * imported as a record.
+ *
+ * Importing is pipelined: the calling thread parses records and groups them
+ * into batches, which a writer thread saves with ConcertDAO#saveAll(). The
+ * two threads are connected by a bounded queue, so parsing can't run
+ * arbitrarily far ahead of the datastore. Each batch is saved in its own
+ * transaction; if an import fails, batches saved before the failure remain.
+ *
+ * Performers are matched by name against an in-memory index, which is seeded
+ * with the Performers already in the datastore, including any that have no
+ * Concerts. Where stored Performers share a name, the one with the lowest ID
+ * is used. Records for a Performer not in the index create a new Performer,
+ * which later records then share; the first record's image and genre are
+ * used.
+ *
+ * Progress is logged, and passed to an optional ProgressListener, every
+ * progressInterval records.
+ *
+ */
+public class ConcertImporter {
+
+	/**
+	 * Receives progress reports during an import.
+	 *
+	 */
+	public interface ProgressListener {
+		/**
+		 * Called on the writer thread as batches are saved.
+		 *
+		 * @param rows the number of Concerts saved so far.
+		 *
+		 * @param rowsPerSecond the average rate since the import started.
+		 *
+		 */
+		void progress(long rows, double rowsPerSecond);
+	}
+
+	/**
+	 * Summary of a completed import.
+	 *
+	 */
+	public static class Result {
+		private final long _rows;
+		private final long _newPerformers;
+		private final long _elapsedMillis;
+
+		Result(long rows, long newPerformers, long elapsedMillis) {
+			_rows = rows;
+			_newPerformers = newPerformers;
+			_elapsedMillis = elapsedMillis;
+		}
+
+		/**
+		 * Returns the number of Concerts imported.
+		 *
+		 */
+		public long getRows() {
+			return _rows;
+		}
+
+		/**
+		 * Returns the number of Performers created by the import.
+		 *
+		 */
+		public long getNewPerformers() {
+			return _newPerformers;
+		}
+
+		public long getElapsedMillis() {
+			return _elapsedMillis;
+		}
+
+		public double getRowsPerSecond() {
+			return rate(_rows, _elapsedMillis);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d rows, %d new performers in %d ms (%.0f rows/s)",
+					_rows, _newPerformers, _elapsedMillis, getRowsPerSecond());
+		}
+	}
+
+	// Default import parameters.
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	public static final int DEFAULT_QUEUE_CAPACITY = 16;
+	public static final long DEFAULT_PROGRESS_INTERVAL = 100000;
+
+	// Error messages.
+	private static final String ERROR_READING = "Unable to read import data";
+	private static final String ERROR_PARSING = "Invalid import record at line ";
+	private static final String ERROR_INTERRUPTED = "Interrupted while importing";
+	private static final String ERROR_WRITING = "Unable to save imported Concerts";
+
+	private static final String HEADER = "title,date,performerName,s3image,genre";
+	private static final int FIELD_COUNT = 5;
+
+	// How often the parser checks for a failed writer while the queue is full.
+	private static final long QUEUE_POLL_MILLIS = 100;
+
+	// Marks the end of the batches.
+	private static final List<Concert> END_OF_DATA = new ArrayList<Concert>();
+
+	private static Logger _logger = LoggerFactory
+			.getLogger(ConcertImporter.class);
+
+	private final ConcertDAO _dao;
+	private final int _batchSize;
+	private final int _queueCapacity;
+	private final long _progressInterval;
+	private ProgressListener _progressListener;
+
+	/**
+	 * Creates a ConcertImporter with the default batch size, queue capacity
+	 * and progress interval.
+	 *
+	 */
+	public ConcertImporter(ConcertDAO dao) {
+		this(dao, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY, DEFAULT_PROGRESS_INTERVAL);
+	}
+
+	/**
+	 * Creates a ConcertImporter.
+	 *
+	 * @param dao the ConcertDAO to import into.
+	 *
+	 * @param batchSize the number of Concerts saved per transaction.
+	 *
+	 * @param queueCapacity the maximum number of parsed batches waiting to be
+	 * saved.
+	 *
+	 * @param progressInterval the number of records between progress reports.
+	 *
+	 */
+	public ConcertImporter(ConcertDAO dao, int batchSize, int queueCapacity, long progressInterval) {
+		if(batchSize < 1 || queueCapacity < 1 || progressInterval < 1) {
+			throw new IllegalArgumentException("Invalid import parameters");
+		}
+		_dao = dao;
+		_batchSize = batchSize;
+		_queueCapacity = queueCapacity;
+		_progressInterval = progressInterval;
+	}
+
+	public void setProgressListener(ProgressListener progressListener) {
+		_progressListener = progressListener;
+	}
+
+	/**
+	 * Imports CSV records until the end of the given Reader. The Reader isn't
+	 * closed.
+	 *
+	 * @return a summary of the import.
+	 *
+	 * @throws DAOException if the data can't be read or parsed, or if a batch
+	 * can't be saved. Batches saved before the error remain in the datastore.
+	 *
+	 */
+	public Result importCsv(Reader reader) throws DAOException {
+		long start = System.currentTimeMillis();
+		Map<String, Performer> performers = loadPerformerIndex();
+		int knownPerformers = performers.size();
+
+		BlockingQueue<List<Concert>> queue = new ArrayBlockingQueue<List<Concert>>(_queueCapacity);
+		BatchWriter writer = new BatchWriter(queue, start);
+		Thread writerThread = new Thread(writer, "ConcertImporter-writer");
+		writerThread.start();
+
+		try {
+			BufferedReader lines = new BufferedReader(reader);
+			List<Concert> batch = new ArrayList<Concert>(_batchSize);
+			String line;
+			long lineNumber = 0;
+			while((line = lines.readLine()) != null) {
+				lineNumber++;
+				if(line.trim().isEmpty() || (lineNumber == 1 && line.trim().equals(HEADER))) {
+					continue;
+				}
+				batch.add(parseConcert(line, lineNumber, performers));
+				if(batch.size() == _batchSize) {
+					enqueue(queue, batch, writer);
+					batch = new ArrayList<Concert>(_batchSize);
+				}
+			}
+			if(!batch.isEmpty()) {
+				enqueue(queue, batch, writer);
+			}
+		} catch(IOException e) {
+			_logger.debug(ERROR_READING, e);
+			writer.fail(new DAOException(ERROR_READING, e));
+		} catch(DAOException e) {
+			writer.fail(e);
+		} finally {
+			finish(queue, writer, writerThread);
+		}
+
+		DAOException failure = writer._failure.get();
+		if(failure != null) {
+			throw failure;
+		}
+
+		Result result = new Result(writer._rows.get(), performers.size() - knownPerformers,
+				System.currentTimeMillis() - start);
+		_logger.info("Imported " + result);
+		return result;
+	}
+
+	/*
+	 * Saves batches taken from the queue until it receives END_OF_DATA, or
+	 * until the import fails.
+	 *
+	 */
+	private class BatchWriter implements Runnable {
+		private final BlockingQueue<List<Concert>> _queue;
+		private final long _start;
+		private final AtomicLong _rows = new AtomicLong();
+		private final AtomicReference<DAOException> _failure = new AtomicReference<DAOException>();
+
+		BatchWriter(BlockingQueue<List<Concert>> queue, long start) {
+			_queue = queue;
+			_start = start;
+		}
+
+		@Override
+		public void run() {
+			long nextReport = _progressInterval;
+			try {
+				while(true) {
+					List<Concert> batch = _queue.take();
+					if(batch == END_OF_DATA || _failure.get() != null) {
+						return;
+					}
+					_dao.saveAll(batch);
+					long rows = _rows.addAndGet(batch.size());
+					if(rows >= nextReport) {
+						reportProgress(rows);
+						nextReport = (rows / _progressInterval + 1) * _progressInterval;
+					}
+				}
+			} catch(DAOException e) {
+				fail(e);
+			} catch(InterruptedException e) {
+				fail(new DAOException(ERROR_INTERRUPTED, e));
+			} catch(RuntimeException | Error e) {
+				// Any other failure must also be recorded, or the parser 
+				// would wait forever for the writer to drain the queue.
+				_logger.debug(ERROR_WRITING, e);
+				fail(new DAOException(ERROR_WRITING, e));
+			}
+		}
+
+		void fail(DAOException e) {
+			_failure.compareAndSet(null, e);
+		}
+
+		boolean hasFailed() {
+			return _failure.get() != null;
+		}
+
+		private void reportProgress(long rows) {
+			double rowsPerSecond = rate(rows, System.currentTimeMillis() - _start);
+			_logger.info(String.format("Imported %d rows (%.0f rows/s)", rows, rowsPerSecond));
+			if(_progressListener != null) {
+				_progressListener.progress(rows, rowsPerSecond);
+			}
+		}
+	}
+
+	/*
+	 * Builds the Performer name index from the Performers already stored.
+	 *
+	 */
+	private Map<String, Performer> loadPerformerIndex() throws DAOException {
+		Map<String, Performer> performers = new HashMap<String, Performer>();
+		for(Performer performer : _dao.getAllPerformers()) {
+			performers.putIfAbsent(performer.getName(), performer);
+		}
+		return performers;
+	}
+
+	/*
+	 * Passes a batch to the writer, waiting while the queue is full. Gives up
+	 * if the writer fails, as it will no longer drain the queue.
+	 *
+	 */
+	private void enqueue(BlockingQueue<List<Concert>> queue, List<Concert> batch, BatchWriter writer) throws DAOException {
+		try {
+			while(!queue.offer(batch, QUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if(writer.hasFailed()) {
+					throw writer._failure.get();
+				}
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DAOException(ERROR_INTERRUPTED, e);
+		}
+	}
+
+	/*
+	 * Signals the end of the data to the writer and waits for it to finish.
+	 * If the writer has failed it may not be taking from the queue, so the
+	 * queue is cleared to make room for END_OF_DATA.
+	 *
+	 */
+	private void finish(BlockingQueue<List<Concert>> queue, BatchWriter writer, Thread writerThread) throws DAOException {
+		try {
+			while(!queue.offer(END_OF_DATA, QUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if(writer.hasFailed()) {
+					queue.clear();
+				}
+			}
+			writerThread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			writerThread.interrupt();
+			throw new DAOException(ERROR_INTERRUPTED, e);
+		}
+	}
+
+	/*
+	 * Creates a Concert from a CSV record, resolving its Performer against the
+	 * name index.
+	 *
+	 */
+	private Concert parseConcert(String line, long lineNumber, Map<String, Performer> performers) throws DAOException {
+		List<String> fields = parseFields(line, lineNumber);
+		if(fields.size() != FIELD_COUNT) {
+			throw new DAOException(ERROR_PARSING + lineNumber);
+		}
+
+		try {
+			String title = fields.get(0);
+			LocalDateTime date = LocalDateTime.parse(fields.get(1));
+			String performerName = fields.get(2);
+
+			Performer performer = performers.get(performerName);
+			if(performer == null) {
+				performer = new Performer(performerName, fields.get(3), Genre.valueOf(fields.get(4)));
+				performers.put(performerName, performer);
+			}
+			return new Concert(title, date, performer);
+		} catch(IllegalArgumentException e) {
+			_logger.debug(ERROR_PARSING + lineNumber, e);
+			throw new DAOException(ERROR_PARSING + lineNumber, e);
+		}
+	}
+
+	/*
+	 * Splits a CSV line into fields, handling quoted fields.
+	 *
+	 */
+	private static List<String> parseFields(String line, long lineNumber) throws DAOException {
+		List<String> fields = new ArrayList<String>(FIELD_COUNT);
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+
+		for(int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if(quoted) {
+				if(c == '"') {
+					if(i + 1 < line.length() && line.charAt(i + 1) == '"') {
+						field.append('"');
+						i++;
+					} else {
+						quoted = false;
+					}
+				} else {
+					field.append(c);
+				}
+			} else if(c == '"' && field.length() == 0) {
+				quoted = true;
+			} else if(c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		if(quoted) {
+			throw new DAOException(ERROR_PARSING + lineNumber);
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	private static double rate(long rows, long elapsedMillis) {
+		return elapsedMillis == 0 ? 0 : rows * 1000.0 / elapsedMillis;
+	}
+}
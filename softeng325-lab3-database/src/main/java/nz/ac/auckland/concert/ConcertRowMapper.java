@@ -0,0 +1,114 @@
+package nz.ac.auckland.concert;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joda.time.LocalDateTime;
+
+/**
+ * Maps rows of a Concert/Performer join to Concert and Performer objects.
+ *
+ * Queries select the columns listed in SELECT_COLUMNS, in that order, and
+ * the mapper reads each column by its fixed index. Dates are converted from
+ * the stored instant straight to a Joda LocalDateTime, and Genres are looked
+ * up in a table built once, so mapping a row allocates little beyond the
+ * objects it returns.
+ *
+ */
+public class ConcertRowMapper {
+
+	/**
+	 * Columns to select, for a query with CONCERT aliased as C and PERFORMER
+	 * as P. The Performer columns are null for a Concert without a
+	 * Performer.
+	 */
+	public static final String SELECT_COLUMNS = "C.ID, C.TITLE, C.DATE, P.ID, P.NAME, P.S3IMAGE, P.GENRE, C.VERSION, P.VERSION";
+
+	// Indexes of the columns in SELECT_COLUMNS.
+	private static final int CONCERT_ID = 1;
+	private static final int CONCERT_TITLE = 2;
+	private static final int CONCERT_DATE = 3;
+	private static final int PERFORMER_ID = 4;
+	private static final int PERFORMER_NAME = 5;
+	private static final int PERFORMER_S3IMAGE = 6;
+	private static final int PERFORMER_GENRE = 7;
+	private static final int CONCERT_VERSION = 8;
+	private static final int PERFORMER_VERSION = 9;
+
+	// Genres keyed on their stored names.
+	private static final Map<String, Genre> GENRES = new HashMap<String, Genre>();
+	static {
+		for(Genre genre : Genre.values()) {
+			GENRES.put(genre.toString(), genre);
+		}
+	}
+
+	private ConcertRowMapper() {}
+
+	/**
+	 * Creates a Concert from the current row of a ResultSet.
+	 *
+	 * The Performer is looked up in the performers map first, so that each
+	 * Performer row is materialised as one object however many Concerts
+	 * reference it. Newly created Performers are added to the map.
+	 *
+	 * The returned objects are clean, and carry the stored versions.
+	 *
+	 */
+	public static Concert mapConcert(ResultSet rs, Map<Long, Performer> performers) throws SQLException {
+		long id = rs.getLong(CONCERT_ID);
+		String title = rs.getString(CONCERT_TITLE);
+		LocalDateTime date = toLocalDateTime(rs.getTimestamp(CONCERT_DATE));
+
+		Performer performer = null;
+		long performerId = rs.getLong(PERFORMER_ID);
+		if(!rs.wasNull()) {
+			performer = performers.get(performerId);
+			if(performer == null) {
+				performer = mapPerformer(rs, performerId);
+				performers.put(performerId, performer);
+			}
+		}
+
+		Concert concert = new Concert(id, title, date, performer);
+		concert.setVersion(rs.getLong(CONCERT_VERSION));
+		concert.markClean();
+		return concert;
+	}
+
+	/**
+	 * Converts a stored timestamp to a LocalDateTime in the default time
+	 * zone, the zone that JDBCConcertDAO stores dates in.
+	 *
+	 */
+	public static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+		return timestamp == null ? null : new LocalDateTime(timestamp.getTime());
+	}
+
+	/**
+	 * Returns the Genre with the given stored name.
+	 *
+	 * @throws SQLException if there's no such Genre.
+	 *
+	 */
+	public static Genre toGenre(String name) throws SQLException {
+		Genre genre = name == null ? null : GENRES.get(name);
+		if(genre == null) {
+			throw new SQLException("Unknown genre: " + name);
+		}
+		return genre;
+	}
+
+	private static Performer mapPerformer(ResultSet rs, long id) throws SQLException {
+		Performer performer = new Performer(id,
+				rs.getString(PERFORMER_NAME),
+				rs.getString(PERFORMER_S3IMAGE),
+				toGenre(rs.getString(PERFORMER_GENRE)));
+		performer.setVersion(rs.getLong(PERFORMER_VERSION));
+		performer.markClean();
+		return performer;
+	}
+}
@@ -0,0 +1,426 @@
+package nz.ac.auckland.concert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index for searching Concerts by the words in their
+ * titles and Performer names.
+ *
+ * Titles and names are split into lower case words. A query word matches a
+ * word in a title or name that it equals or is a prefix of, so partial words
+ * can be searched for. Every query word must match for a Concert to be found.
+ *
+ * Matches are ranked by score, the sum over the query words of the best
+ * match for each: an exact title word scores TITLE_EXACT, a title word prefix
+ * TITLE_PREFIX, and similarly for Performer names. Concerts with equal scores
+ * are ordered as for ConcertDAO.getAll(). score() and SEARCH_ORDER define the
+ * ranking, so that ConcertDAOs that search by other means rank identically.
+ *
+ * The index maps each word to the Concerts (for titles) or Performers (for
+ * names) that contain it, in sorted maps so that prefixes are found with a
+ * range lookup. A lookup touches only the postings for the query's words, so
+ * its cost depends on how many Concerts match rather than on the size of the
+ * index.
+ *
+ * ConcertSearchIndex is thread-safe. Searches run concurrently; updates are
+ * exclusive.
+ *
+ */
+public class ConcertSearchIndex {
+
+	public static final int TITLE_EXACT = 4;
+	public static final int TITLE_PREFIX = 2;
+	public static final int PERFORMER_EXACT = 2;
+	public static final int PERFORMER_PREFIX = 1;
+
+	/**
+	 * A Concert found by a search, with its score.
+	 *
+	 */
+	public static class Hit {
+		private final long _id;
+		private final String _title;
+		private final int _score;
+
+		public Hit(long id, String title, int score) {
+			_id = id;
+			_title = title;
+			_score = score;
+		}
+
+		public long getId() {
+			return _id;
+		}
+
+		public String getTitle() {
+			return _title;
+		}
+
+		public int getScore() {
+			return _score;
+		}
+	}
+
+	/**
+	 * Ranking order for search results: highest score first, then by title
+	 * and ID.
+	 *
+	 */
+	public static final Comparator<Hit> SEARCH_ORDER = (a, b) -> {
+		int comparison = Integer.compare(b._score, a._score);
+		if(comparison == 0) {
+			comparison = a._title.compareTo(b._title);
+		}
+		if(comparison == 0) {
+			comparison = Long.compare(a._id, b._id);
+		}
+		return comparison;
+	};
+
+	// Indexed Concert, with the title words it's indexed under.
+	private static class ConcertEntry {
+		final String title;
+		final Long performerId;
+		final Set<String> words;
+
+		ConcertEntry(String title, Long performerId) {
+			this.title = title;
+			this.performerId = performerId;
+			this.words = new HashSet<String>(tokenize(title));
+		}
+	}
+
+	// Indexed Performer, with the name words it's indexed under and the
+	// Concerts that reference it.
+	private static class PerformerEntry {
+		final Set<String> words;
+		final Set<Long> concertIds = new HashSet<Long>();
+
+		PerformerEntry(String name) {
+			this.words = new HashSet<String>(tokenize(name));
+		}
+	}
+
+	private final TreeMap<String, Set<Long>> _titleWords = new TreeMap<String, Set<Long>>();
+	private final TreeMap<String, Set<Long>> _performerWords = new TreeMap<String, Set<Long>>();
+	private final Map<Long, ConcertEntry> _concerts = new HashMap<Long, ConcertEntry>();
+	private final Map<Long, PerformerEntry> _performers = new HashMap<Long, PerformerEntry>();
+
+	private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Splits text into lower case words, at any character that isn't a
+	 * letter or digit.
+	 *
+	 */
+	public static List<String> tokenize(String text) {
+		List<String> words = new ArrayList<String>();
+		if(text == null) {
+			return words;
+		}
+		int start = -1;
+		for(int i = 0; i <= text.length(); i++) {
+			boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if(wordChar && start < 0) {
+				start = i;
+			} else if(!wordChar && start >= 0) {
+				words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+				start = -1;
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Checks the offset of a search, as required by ConcertDAO.search().
+	 *
+	 * @throws IllegalArgumentException if the offset is negative.
+	 *
+	 */
+	public static void checkOffset(int offset) {
+		if(offset < 0) {
+			throw new IllegalArgumentException("Invalid search offset: " + offset);
+		}
+	}
+
+	/**
+	 * Scores a Concert against the words of a query.
+	 *
+	 * @param queryWords the query, as returned by tokenize().
+	 *
+	 * @return the Concert's score, or 0 if it doesn't match every word.
+	 *
+	 */
+	public static int score(List<String> queryWords, String title, String performerName) {
+		if(queryWords.isEmpty()) {
+			return 0;
+		}
+		List<String> titleWords = tokenize(title);
+		List<String> performerWords = tokenize(performerName);
+
+		int score = 0;
+		for(String queryWord : queryWords) {
+			int wordScore = Math.max(
+					matchScore(queryWord, titleWords, TITLE_EXACT, TITLE_PREFIX),
+					matchScore(queryWord, performerWords, PERFORMER_EXACT, PERFORMER_PREFIX));
+			if(wordScore == 0) {
+				return 0;
+			}
+			score += wordScore;
+		}
+		return score;
+	}
+
+	/**
+	 * Adds a Concert to the index, or updates it if it's already indexed.
+	 * The Concert's Performer is indexed too, replacing any previously
+	 * indexed name, so renaming a Performer affects all of its Concerts.
+	 *
+	 * @param concert a persisted Concert.
+	 *
+	 */
+	public void put(Concert concert) {
+		_lock.writeLock().lock();
+		try {
+			removeConcert(concert.getId());
+
+			Performer performer = concert.getPerformer();
+			Long performerId = performer == null ? null : performer.getId();
+			if(performerId != null) {
+				PerformerEntry entry = _performers.get(performerId);
+				if(entry == null || !entry.words.equals(new HashSet<String>(tokenize(performer.getName())))) {
+					PerformerEntry renamed = new PerformerEntry(performer.getName());
+					if(entry != null) {
+						renamed.concertIds.addAll(entry.concertIds);
+						unpost(_performerWords, entry.words, performerId);
+					}
+					post(_performerWords, renamed.words, performerId);
+					_performers.put(performerId, renamed);
+					entry = renamed;
+				}
+				entry.concertIds.add(concert.getId());
+			}
+
+			ConcertEntry entry = new ConcertEntry(concert.getTitle(), performerId);
+			post(_titleWords, entry.words, concert.getId());
+			_concerts.put(concert.getId(), entry);
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a Concert from the index. A Performer that no longer has any
+	 * indexed Concerts is removed too.
+	 *
+	 */
+	public void remove(long concertId) {
+		_lock.writeLock().lock();
+		try {
+			removeConcert(concertId);
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes all Concerts from the index.
+	 *
+	 */
+	public void clear() {
+		_lock.writeLock().lock();
+		try {
+			_titleWords.clear();
+			_performerWords.clear();
+			_concerts.clear();
+			_performers.clear();
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of Concerts indexed.
+	 *
+	 */
+	public int size() {
+		_lock.readLock().lock();
+		try {
+			return _concerts.size();
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the Concerts that match a query.
+	 *
+	 * @param query the words to search for.
+	 *
+	 * @param offset the number of ranked matches to skip.
+	 *
+	 * @param limit the maximum number of matches to return.
+	 *
+	 * @return up to limit matches, in SEARCH_ORDER, starting at the given
+	 * offset. The List is empty if the query has no words.
+	 *
+	 * @throws IllegalArgumentException if the offset is negative.
+	 *
+	 */
+	public List<Hit> search(String query, int offset, int limit) {
+		checkOffset(offset);
+		List<String> queryWords = tokenize(query);
+		if(queryWords.isEmpty() || limit <= 0) {
+			return new ArrayList<Hit>();
+		}
+
+		_lock.readLock().lock();
+		try {
+			// Score each query word separately, keeping only the Concerts
+			// that have matched every word so far.
+			Map<Long, Integer> scores = null;
+			for(String queryWord : queryWords) {
+				Map<Long, Integer> wordScores = scoreWord(queryWord);
+				if(scores == null) {
+					scores = wordScores;
+				} else {
+					Map<Long, Integer> combined = new HashMap<Long, Integer>();
+					for(Map.Entry<Long, Integer> entry : scores.entrySet()) {
+						Integer wordScore = wordScores.get(entry.getKey());
+						if(wordScore != null) {
+							combined.put(entry.getKey(), entry.getValue() + wordScore);
+						}
+					}
+					scores = combined;
+				}
+				if(scores.isEmpty()) {
+					return new ArrayList<Hit>();
+				}
+			}
+
+			// Keep the best offset + limit matches in a heap whose head is
+			// the worst of them. The sum saturates rather than overflowing.
+			int wanted = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+			PriorityQueue<Hit> best = new PriorityQueue<Hit>(Math.min(wanted, scores.size()) + 1,
+					Collections.reverseOrder(SEARCH_ORDER));
+			for(Map.Entry<Long, Integer> entry : scores.entrySet()) {
+				Hit hit = new Hit(entry.getKey(), _concerts.get(entry.getKey()).title, entry.getValue());
+				if(best.size() < wanted) {
+					best.add(hit);
+				} else if(SEARCH_ORDER.compare(hit, best.peek()) < 0) {
+					best.poll();
+					best.add(hit);
+				}
+			}
+
+			List<Hit> hits = new ArrayList<Hit>(best);
+			Collections.sort(hits, SEARCH_ORDER);
+			return offset >= hits.size() ? new ArrayList<Hit>() : new ArrayList<Hit>(hits.subList(offset, hits.size()));
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Returns the best score for a single query word for each Concert that
+	 * it matches. Caller must hold the read lock.
+	 *
+	 */
+	private Map<Long, Integer> scoreWord(String queryWord) {
+		Map<Long, Integer> scores = new HashMap<Long, Integer>();
+
+		for(Map.Entry<String, Set<Long>> entry : prefixRange(_titleWords, queryWord).entrySet()) {
+			int score = entry.getKey().equals(queryWord) ? TITLE_EXACT : TITLE_PREFIX;
+			for(Long concertId : entry.getValue()) {
+				scores.merge(concertId, score, Math::max);
+			}
+		}
+		for(Map.Entry<String, Set<Long>> entry : prefixRange(_performerWords, queryWord).entrySet()) {
+			int score = entry.getKey().equals(queryWord) ? PERFORMER_EXACT : PERFORMER_PREFIX;
+			for(Long performerId : entry.getValue()) {
+				for(Long concertId : _performers.get(performerId).concertIds) {
+					scores.merge(concertId, score, Math::max);
+				}
+			}
+		}
+		return scores;
+	}
+
+	/*
+	 * Removes a Concert's postings. Caller must hold the write lock.
+	 *
+	 */
+	private void removeConcert(long concertId) {
+		ConcertEntry entry = _concerts.remove(concertId);
+		if(entry == null) {
+			return;
+		}
+		unpost(_titleWords, entry.words, concertId);
+
+		if(entry.performerId != null) {
+			PerformerEntry performer = _performers.get(entry.performerId);
+			performer.concertIds.remove(concertId);
+			if(performer.concertIds.isEmpty()) {
+				unpost(_performerWords, performer.words, entry.performerId);
+				_performers.remove(entry.performerId);
+			}
+		}
+	}
+
+	private static void post(Map<String, Set<Long>> index, Set<String> words, Long id) {
+		for(String word : words) {
+			Set<Long> ids = index.get(word);
+			if(ids == null) {
+				ids = new HashSet<Long>();
+				index.put(word, ids);
+			}
+			ids.add(id);
+		}
+	}
+
+	private static void unpost(Map<String, Set<Long>> index, Set<String> words, Long id) {
+		for(String word : words) {
+			Set<Long> ids = index.get(word);
+			if(ids != null) {
+				ids.remove(id);
+				if(ids.isEmpty()) {
+					index.remove(word);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Returns the words in the index that start with the given prefix.
+	 *
+	 */
+	private static SortedMap<String, Set<Long>> prefixRange(TreeMap<String, Set<Long>> index, String prefix) {
+		return index.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+	}
+
+	private static int matchScore(String queryWord, List<String> words, int exact, int prefix) {
+		int score = 0;
+		for(String word : words) {
+			if(word.equals(queryWord)) {
+				return exact;
+			}
+			if(word.startsWith(queryWord)) {
+				score = prefix;
+			}
+		}
+		return score;
+	}
+}
@@ -0,0 +1,477 @@
+package nz.ac.auckland.concert;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of JDBC connections.
+ *
+ * A ConnectionPool opens minSize connections when it's created and grows on
+ * demand up to maxSize connections. Clients borrow a connection for the
+ * duration of a single operation and must release it afterwards. When all
+ * connections are in use, borrow() blocks until one is released or the borrow
+ * timeout expires.
+ *
+ * Each connection caches the PreparedStatements created on it; see
+ * PooledConnection. Hit and miss counts for the statement caches are
+ * aggregated across the pool. When statement counting is turned on, so are 
+ * the statements executed, and StatementListeners are told of each one on
+ * the thread that executed it.
+ *
+ * Connections that have been idle for longer than the idle timeout are closed
+ * by a background thread, although the pool never shrinks below minSize. When
+ * validation-on-borrow is enabled, each connection is checked with
+ * Connection#isValid() before being handed out, and broken connections are
+ * discarded.
+ *
+ * ConnectionPool is thread-safe.
+ *
+ */
+public class ConnectionPool {
+
+	/**
+	 * Told of each statement executed on a pool's connections while the pool
+	 * is counting statements.
+	 *
+	 */
+	public interface StatementListener {
+		/**
+		 * Called on the thread that executed the statement, which is the 
+		 * thread that has borrowed the connection, and so should return 
+		 * quickly.
+		 *
+		 */
+		void statementExecuted();
+	}
+
+	// Default pool parameters.
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+	public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30000;
+	public static final int DEFAULT_MAX_CACHED_STATEMENTS = 64;
+
+	// Timeout, in seconds, for Connection#isValid().
+	private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+
+	// Error messages.
+	private static final String ERROR_POOL_CLOSED = "Connection pool is closed";
+	private static final String ERROR_BORROW_TIMEOUT = "Timed out waiting for a connection";
+	private static final String ERROR_INTERRUPTED = "Interrupted while waiting for a connection";
+
+	private static Logger _logger = LoggerFactory
+			.getLogger(ConnectionPool.class);
+
+	private final String _url;
+	private final String _username;
+	private final String _password;
+	private final int _minSize;
+	private final int _maxSize;
+	private final long _idleTimeoutMillis;
+	private final long _borrowTimeoutMillis;
+	private final boolean _validateOnBorrow;
+	private final int _maxCachedStatements;
+
+	// Idle connections, most recently released first. Guarded by this.
+	private final Deque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+
+	// Statement cache counters for all connections in the pool.
+	private final AtomicLong _statementCacheHits = new AtomicLong();
+	private final AtomicLong _statementCacheMisses = new AtomicLong();
+
+	// Whether statements are counted, the number executed on all connections
+	// in the pool while they were, and the listeners told of each one.
+	private volatile boolean _countingStatements = false;
+	private final AtomicLong _statementExecutions = new AtomicLong();
+	private final List<StatementListener> _statementListeners = 
+			new CopyOnWriteArrayList<StatementListener>();
+
+	// Number of open connections, whether idle or borrowed. Guarded by this.
+	private int _size = 0;
+	private boolean _closed = false;
+
+	private final ScheduledExecutorService _evictor;
+
+	/**
+	 * Creates a ConnectionPool using the default idle and borrow timeouts and
+	 * statement cache size, and with validation-on-borrow disabled.
+	 *
+	 * @see ConnectionPool(String, String, String, int, int, long, long, boolean, int)
+	 *
+	 */
+	public ConnectionPool(String url, String username, String password,
+			int minSize, int maxSize) throws SQLException {
+		this(url, username, password, minSize, maxSize,
+				DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_BORROW_TIMEOUT_MILLIS, false,
+				DEFAULT_MAX_CACHED_STATEMENTS);
+	}
+
+	/**
+	 * Creates a ConnectionPool and opens its initial minSize connections.
+	 *
+	 * @param url the JDBC URL of the database.
+	 *
+	 * @param username the database user.
+	 *
+	 * @param password the database user's password.
+	 *
+	 * @param minSize the number of connections the pool keeps open, even when
+	 * they're idle.
+	 *
+	 * @param maxSize the maximum number of connections the pool may open.
+	 *
+	 * @param idleTimeoutMillis how long a connection may stay idle before it's
+	 * closed. A value of 0 or less disables idle eviction.
+	 *
+	 * @param borrowTimeoutMillis how long borrow() waits for a connection to
+	 * become available when the pool is exhausted.
+	 *
+	 * @param validateOnBorrow whether to validate connections before handing
+	 * them out.
+	 *
+	 * @param maxCachedStatements the maximum number of PreparedStatements
+	 * cached on each connection.
+	 *
+	 * @throws SQLException if any of the initial connections can't be opened.
+	 *
+	 */
+	public ConnectionPool(String url, String username, String password,
+			int minSize, int maxSize, long idleTimeoutMillis,
+			long borrowTimeoutMillis, boolean validateOnBorrow,
+			int maxCachedStatements) throws SQLException {
+		if(minSize < 0 || maxSize < 1 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+		}
+
+		_url = url;
+		_username = username;
+		_password = password;
+		_minSize = minSize;
+		_maxSize = maxSize;
+		_idleTimeoutMillis = idleTimeoutMillis;
+		_borrowTimeoutMillis = borrowTimeoutMillis;
+		_validateOnBorrow = validateOnBorrow;
+		_maxCachedStatements = maxCachedStatements;
+
+		try {
+			for(int i = 0; i < _minSize; i++) {
+				_idle.push(openConnection());
+				_size++;
+			}
+		} catch(SQLException e) {
+			closeIdleConnections();
+			throw e;
+		}
+
+		if(_idleTimeoutMillis > 0) {
+			_evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "ConnectionPool-evictor");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long period = Math.max(_idleTimeoutMillis / 2, 1);
+			_evictor.scheduleWithFixedDelay(this::evictIdleConnections,
+					period, period, TimeUnit.MILLISECONDS);
+		} else {
+			_evictor = null;
+		}
+	}
+
+	/**
+	 * Borrows a connection from the pool. The caller must return the
+	 * connection by calling release() once it has finished with it.
+	 *
+	 * @return an open connection.
+	 *
+	 * @throws SQLException if the pool is closed, if no connection becomes
+	 * available within the borrow timeout, or if a new connection can't be
+	 * opened.
+	 *
+	 */
+	public PooledConnection borrow() throws SQLException {
+		long deadline = System.currentTimeMillis() + _borrowTimeoutMillis;
+
+		while(true) {
+			PooledConnection connection = null;
+			boolean open = false;
+
+			synchronized(this) {
+				while(!_closed && _idle.isEmpty() && _size >= _maxSize) {
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0) {
+						throw new SQLException(ERROR_BORROW_TIMEOUT);
+					}
+					try {
+						wait(remaining);
+					} catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException(ERROR_INTERRUPTED, e);
+					}
+				}
+				if(_closed) {
+					throw new SQLException(ERROR_POOL_CLOSED);
+				}
+
+				if(!_idle.isEmpty()) {
+					connection = _idle.pop();
+				} else {
+					// Reserve a slot for a new connection, which is opened
+					// outside of the lock.
+					_size++;
+					open = true;
+				}
+			}
+
+			if(open) {
+				try {
+					return openConnection();
+				} catch(SQLException e) {
+					discard(null);
+					throw e;
+				}
+			}
+
+			if(!_validateOnBorrow || isValid(connection)) {
+				return connection;
+			}
+
+			// The idle connection is broken; throw it away and try again.
+			_logger.debug("Discarding invalid connection");
+			discard(connection);
+		}
+	}
+
+	/**
+	 * Returns a previously borrowed connection to the pool. Any transaction
+	 * left open on the connection is rolled back.
+	 *
+	 * @param connection the connection to return. Null is ignored, which
+	 * allows callers to release in a finally block unconditionally.
+	 *
+	 */
+	public void release(PooledConnection connection) {
+		if(connection == null) {
+			return;
+		}
+
+		try {
+			Connection jdbcConnection = connection.getConnection();
+			if(jdbcConnection.isClosed()) {
+				discard(connection);
+				return;
+			}
+			if(!jdbcConnection.getAutoCommit()) {
+				jdbcConnection.rollback();
+				jdbcConnection.setAutoCommit(true);
+			}
+		} catch(SQLException e) {
+			_logger.debug("Discarding connection that couldn't be reset", e);
+			discard(connection);
+			return;
+		}
+
+		synchronized(this) {
+			if(!_closed) {
+				connection._releasedAt = System.currentTimeMillis();
+				_idle.push(connection);
+				notify();
+				return;
+			}
+		}
+		discard(connection);
+	}
+
+	/**
+	 * Closes the pool and all of its idle connections. Borrowed connections
+	 * are closed when they're released.
+	 *
+	 */
+	public void close() {
+		synchronized(this) {
+			_closed = true;
+			notifyAll();
+		}
+		if(_evictor != null) {
+			_evictor.shutdownNow();
+		}
+		closeIdleConnections();
+	}
+
+	/**
+	 * Returns the number of open connections, both idle and borrowed.
+	 *
+	 */
+	public synchronized int getSize() {
+		return _size;
+	}
+
+	/**
+	 * Returns the number of idle connections.
+	 *
+	 */
+	public synchronized int getIdleCount() {
+		return _idle.size();
+	}
+
+	/**
+	 * Returns the number of PreparedStatement requests served from the
+	 * connections' statement caches.
+	 *
+	 */
+	public long getStatementCacheHits() {
+		return _statementCacheHits.get();
+	}
+
+	/**
+	 * Returns the number of PreparedStatement requests that required a
+	 * statement to be prepared.
+	 *
+	 */
+	public long getStatementCacheMisses() {
+		return _statementCacheMisses.get();
+	}
+
+	/**
+	 * Turns statement counting on or off. While counting is on, the 
+	 * PreparedStatements returned by the pool's connections count their 
+	 * executions, at the cost of an extra call per statement method; while
+	 * it's off, they're the JDBC driver's own statements. Counting is off by
+	 * default.
+	 *
+	 */
+	public void setCountingStatements(boolean countingStatements) {
+		_countingStatements = countingStatements;
+	}
+
+	public boolean isCountingStatements() {
+		return _countingStatements;
+	}
+
+	/**
+	 * Returns the number of statements executed on the pool's connections
+	 * while counting was on. An executeBatch() call counts as one statement.
+	 *
+	 */
+	public long getStatementExecutions() {
+		return _statementExecutions.get();
+	}
+
+	/**
+	 * Registers a listener to be told of each statement executed while 
+	 * counting is on.
+	 *
+	 */
+	public void addStatementListener(StatementListener listener) {
+		_statementListeners.add(listener);
+	}
+
+	public void removeStatementListener(StatementListener listener) {
+		_statementListeners.remove(listener);
+	}
+
+	public int getMinSize() {
+		return _minSize;
+	}
+
+	public int getMaxSize() {
+		return _maxSize;
+	}
+
+	/*
+	 * Closes connections that have been idle for longer than the idle
+	 * timeout, without shrinking the pool below its minimum size. Idle
+	 * connections are ordered by release time, so the oldest are at the tail.
+	 *
+	 */
+	void evictIdleConnections() {
+		long threshold = System.currentTimeMillis() - _idleTimeoutMillis;
+		Deque<PooledConnection> evicted = new ArrayDeque<PooledConnection>();
+
+		synchronized(this) {
+			Iterator<PooledConnection> iterator = _idle.descendingIterator();
+			while(iterator.hasNext() && _size > _minSize) {
+				PooledConnection idle = iterator.next();
+				if(idle._releasedAt > threshold) {
+					break;
+				}
+				iterator.remove();
+				_size--;
+				evicted.add(idle);
+			}
+			if(!evicted.isEmpty()) {
+				notifyAll();
+			}
+		}
+
+		for(PooledConnection connection : evicted) {
+			connection.close();
+		}
+		if(!evicted.isEmpty()) {
+			_logger.debug("Evicted " + evicted.size() + " idle connection(s)");
+		}
+	}
+
+	private PooledConnection openConnection() throws SQLException {
+		Connection connection = DriverManager.getConnection(_url, _username, _password);
+		return new PooledConnection(this, connection, _maxCachedStatements,
+				_statementCacheHits, _statementCacheMisses);
+	}
+
+	/*
+	 * Called by a PooledConnection each time a statement is executed on it, 
+	 * by the thread that has borrowed it.
+	 *
+	 */
+	void statementExecuted() {
+		_statementExecutions.incrementAndGet();
+		for(StatementListener listener : _statementListeners) {
+			listener.statementExecuted();
+		}
+	}
+
+	private boolean isValid(PooledConnection connection) {
+		try {
+			return connection.getConnection().isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch(SQLException e) {
+			return false;
+		}
+	}
+
+	/*
+	 * Gives up a connection's slot in the pool, closing the connection if
+	 * it's non-null.
+	 *
+	 */
+	private void discard(PooledConnection connection) {
+		synchronized(this) {
+			_size--;
+			notify();
+		}
+		if(connection != null) {
+			connection.close();
+		}
+	}
+
+	private void closeIdleConnections() {
+		Deque<PooledConnection> idle;
+		synchronized(this) {
+			idle = new ArrayDeque<PooledConnection>(_idle);
+			_size -= _idle.size();
+			_idle.clear();
+		}
+		for(PooledConnection connection : idle) {
+			connection.close();
+		}
+	}
+}
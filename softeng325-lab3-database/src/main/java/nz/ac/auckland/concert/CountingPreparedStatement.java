@@ -0,0 +1,554 @@
+package nz.ac.auckland.concert;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+/*
+ * PreparedStatement that counts its executions on the PooledConnection that
+ * prepared it, and otherwise passes every call to the underlying statement.
+ * An executeBatch() call counts as one execution. ResultSets and the 
+ * Connection are those of the underlying statement.
+ *
+ */
+class CountingPreparedStatement implements PreparedStatement {
+
+	private final PreparedStatement _statement;
+	private final PooledConnection _connection;
+
+	CountingPreparedStatement(PreparedStatement statement, PooledConnection connection) {
+		_statement = statement;
+		_connection = connection;
+	}
+
+	@Override
+	public boolean execute() throws SQLException {
+		_connection.statementExecuted();
+		return _statement.execute();
+	}
+
+	@Override
+	public ResultSet executeQuery() throws SQLException {
+		_connection.statementExecuted();
+		return _statement.executeQuery();
+	}
+
+	@Override
+	public int executeUpdate() throws SQLException {
+		_connection.statementExecuted();
+		return _statement.executeUpdate();
+	}
+
+	@Override
+	public void addBatch() throws SQLException {
+		_statement.addBatch();
+	}
+
+	@Override
+	public void clearParameters() throws SQLException {
+		_statement.clearParameters();
+	}
+
+	@Override
+	public ResultSetMetaData getMetaData() throws SQLException {
+		return _statement.getMetaData();
+	}
+
+	@Override
+	public ParameterMetaData getParameterMetaData() throws SQLException {
+		return _statement.getParameterMetaData();
+	}
+
+	@Override
+	public void setArray(int parameterIndex, Array x) throws SQLException {
+		_statement.setArray(parameterIndex, x);
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+		_statement.setAsciiStream(parameterIndex, x);
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		_statement.setAsciiStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+		_statement.setAsciiStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+		_statement.setBigDecimal(parameterIndex, x);
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+		_statement.setBinaryStream(parameterIndex, x);
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		_statement.setBinaryStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+		_statement.setBinaryStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, InputStream x) throws SQLException {
+		_statement.setBlob(parameterIndex, x);
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, Blob x) throws SQLException {
+		_statement.setBlob(parameterIndex, x);
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, InputStream x, long length) throws SQLException {
+		_statement.setBlob(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+		_statement.setBoolean(parameterIndex, x);
+	}
+
+	@Override
+	public void setByte(int parameterIndex, byte x) throws SQLException {
+		_statement.setByte(parameterIndex, x);
+	}
+
+	@Override
+	public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+		_statement.setBytes(parameterIndex, x);
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader x) throws SQLException {
+		_statement.setCharacterStream(parameterIndex, x);
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader x, int length) throws SQLException {
+		_statement.setCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader x, long length) throws SQLException {
+		_statement.setCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Reader x) throws SQLException {
+		_statement.setClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Clob x) throws SQLException {
+		_statement.setClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Reader x, long length) throws SQLException {
+		_statement.setClob(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setDate(int parameterIndex, Date x) throws SQLException {
+		_statement.setDate(parameterIndex, x);
+	}
+
+	@Override
+	public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+		_statement.setDate(parameterIndex, x, cal);
+	}
+
+	@Override
+	public void setDouble(int parameterIndex, double x) throws SQLException {
+		_statement.setDouble(parameterIndex, x);
+	}
+
+	@Override
+	public void setFloat(int parameterIndex, float x) throws SQLException {
+		_statement.setFloat(parameterIndex, x);
+	}
+
+	@Override
+	public void setInt(int parameterIndex, int x) throws SQLException {
+		_statement.setInt(parameterIndex, x);
+	}
+
+	@Override
+	public void setLong(int parameterIndex, long x) throws SQLException {
+		_statement.setLong(parameterIndex, x);
+	}
+
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader x) throws SQLException {
+		_statement.setNCharacterStream(parameterIndex, x);
+	}
+
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader x, long length) throws SQLException {
+		_statement.setNCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, Reader x) throws SQLException {
+		_statement.setNClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, NClob x) throws SQLException {
+		_statement.setNClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, Reader x, long length) throws SQLException {
+		_statement.setNClob(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setNString(int parameterIndex, String x) throws SQLException {
+		_statement.setNString(parameterIndex, x);
+	}
+
+	@Override
+	public void setNull(int parameterIndex, int sqlType) throws SQLException {
+		_statement.setNull(parameterIndex, sqlType);
+	}
+
+	@Override
+	public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+		_statement.setNull(parameterIndex, sqlType, typeName);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x) throws SQLException {
+		_statement.setObject(parameterIndex, x);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+		_statement.setObject(parameterIndex, x, targetSqlType);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+		_statement.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+	}
+
+	@Override
+	public void setRef(int parameterIndex, Ref x) throws SQLException {
+		_statement.setRef(parameterIndex, x);
+	}
+
+	@Override
+	public void setRowId(int parameterIndex, RowId x) throws SQLException {
+		_statement.setRowId(parameterIndex, x);
+	}
+
+	@Override
+	public void setSQLXML(int parameterIndex, SQLXML x) throws SQLException {
+		_statement.setSQLXML(parameterIndex, x);
+	}
+
+	@Override
+	public void setShort(int parameterIndex, short x) throws SQLException {
+		_statement.setShort(parameterIndex, x);
+	}
+
+	@Override
+	public void setString(int parameterIndex, String x) throws SQLException {
+		_statement.setString(parameterIndex, x);
+	}
+
+	@Override
+	public void setTime(int parameterIndex, Time x) throws SQLException {
+		_statement.setTime(parameterIndex, x);
+	}
+
+	@Override
+	public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+		_statement.setTime(parameterIndex, x, cal);
+	}
+
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+		_statement.setTimestamp(parameterIndex, x);
+	}
+
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+		_statement.setTimestamp(parameterIndex, x, cal);
+	}
+
+	@Override
+	public void setURL(int parameterIndex, URL x) throws SQLException {
+		_statement.setURL(parameterIndex, x);
+	}
+
+	@Override
+	@Deprecated
+	public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		_statement.setUnicodeStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public boolean execute(String sql) throws SQLException {
+		_connection.statementExecuted();
+		return _statement.execute(sql);
+	}
+
+	@Override
+	public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+		_connection.statementExecuted();
+		return _statement.execute(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		_connection.statementExecuted();
+		return _statement.execute(sql, columnIndexes);
+	}
+
+	@Override
+	public boolean execute(String sql, String[] columnNames) throws SQLException {
+		_connection.statementExecuted();
+		return _statement.execute(sql, columnNames);
+	}
+
+	@Override
+	public int[] executeBatch() throws SQLException {
+		_connection.statementExecuted();
+		return _statement.executeBatch();
+	}
+
+	@Override
+	public ResultSet executeQuery(String sql) throws SQLException {
+		_connection.statementExecuted();
+		return _statement.executeQuery(sql);
+	}
+
+	@Override
+	public int executeUpdate(String sql) throws SQLException {
+		_connection.statementExecuted();
+		return _statement.executeUpdate(sql);
+	}
+
+	@Override
+	public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		_connection.statementExecuted();
+		return _statement.executeUpdate(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		_connection.statementExecuted();
+		return _statement.executeUpdate(sql, columnIndexes);
+	}
+
+	@Override
+	public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+		_connection.statementExecuted();
+		return _statement.executeUpdate(sql, columnNames);
+	}
+
+	@Override
+	public void addBatch(String sql) throws SQLException {
+		_statement.addBatch(sql);
+	}
+
+	@Override
+	public void cancel() throws SQLException {
+		_statement.cancel();
+	}
+
+	@Override
+	public void clearBatch() throws SQLException {
+		_statement.clearBatch();
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		_statement.clearWarnings();
+	}
+
+	@Override
+	public void close() throws SQLException {
+		_statement.close();
+	}
+
+	@Override
+	public void closeOnCompletion() throws SQLException {
+		_statement.closeOnCompletion();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return _statement.getConnection();
+	}
+
+	@Override
+	public int getFetchDirection() throws SQLException {
+		return _statement.getFetchDirection();
+	}
+
+	@Override
+	public int getFetchSize() throws SQLException {
+		return _statement.getFetchSize();
+	}
+
+	@Override
+	public ResultSet getGeneratedKeys() throws SQLException {
+		return _statement.getGeneratedKeys();
+	}
+
+	@Override
+	public int getMaxFieldSize() throws SQLException {
+		return _statement.getMaxFieldSize();
+	}
+
+	@Override
+	public int getMaxRows() throws SQLException {
+		return _statement.getMaxRows();
+	}
+
+	@Override
+	public boolean getMoreResults() throws SQLException {
+		return _statement.getMoreResults();
+	}
+
+	@Override
+	public boolean getMoreResults(int current) throws SQLException {
+		return _statement.getMoreResults(current);
+	}
+
+	@Override
+	public int getQueryTimeout() throws SQLException {
+		return _statement.getQueryTimeout();
+	}
+
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		return _statement.getResultSet();
+	}
+
+	@Override
+	public int getResultSetConcurrency() throws SQLException {
+		return _statement.getResultSetConcurrency();
+	}
+
+	@Override
+	public int getResultSetHoldability() throws SQLException {
+		return _statement.getResultSetHoldability();
+	}
+
+	@Override
+	public int getResultSetType() throws SQLException {
+		return _statement.getResultSetType();
+	}
+
+	@Override
+	public int getUpdateCount() throws SQLException {
+		return _statement.getUpdateCount();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return _statement.getWarnings();
+	}
+
+	@Override
+	public boolean isCloseOnCompletion() throws SQLException {
+		return _statement.isCloseOnCompletion();
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return _statement.isClosed();
+	}
+
+	@Override
+	public boolean isPoolable() throws SQLException {
+		return _statement.isPoolable();
+	}
+
+	@Override
+	public void setCursorName(String name) throws SQLException {
+		_statement.setCursorName(name);
+	}
+
+	@Override
+	public void setEscapeProcessing(boolean enable) throws SQLException {
+		_statement.setEscapeProcessing(enable);
+	}
+
+	@Override
+	public void setFetchDirection(int direction) throws SQLException {
+		_statement.setFetchDirection(direction);
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		_statement.setFetchSize(rows);
+	}
+
+	@Override
+	public void setMaxFieldSize(int max) throws SQLException {
+		_statement.setMaxFieldSize(max);
+	}
+
+	@Override
+	public void setMaxRows(int max) throws SQLException {
+		_statement.setMaxRows(max);
+	}
+
+	@Override
+	public void setPoolable(boolean poolable) throws SQLException {
+		_statement.setPoolable(poolable);
+	}
+
+	@Override
+	public void setQueryTimeout(int seconds) throws SQLException {
+		_statement.setQueryTimeout(seconds);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return _statement.isWrapperFor(iface);
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if(iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		return _statement.unwrap(iface);
+	}
+}
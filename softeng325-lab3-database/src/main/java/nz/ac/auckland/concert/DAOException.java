@@ -2,6 +2,8 @@ package nz.ac.auckland.concert;
 
 public class DAOException extends Exception {
 
+	private static final long serialVersionUID = 1L;
+
 	public DAOException() {
 		super();
 	}
@@ -9,4 +11,8 @@ public class DAOException extends Exception {
 	public DAOException(String message) {
 		super(message);
 	}
+
+	public DAOException(String message, Throwable cause) {
+		super(message, cause);
+	}
 }
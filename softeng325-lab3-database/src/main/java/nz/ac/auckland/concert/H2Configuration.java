@@ -0,0 +1,185 @@
+package nz.ac.auckland.concert;
+
+/**
+ * Class to represent the configuration of an H2 database: where and how it's
+ * stored, plus tuning parameters. An H2Configuration is turned into a JDBC URL
+ * by getUrl().
+ *
+ * H2Configurations are created with one of the static factory methods, one
+ * per StorageMode, and can then be tuned using the setters.
+ *
+ */
+public class H2Configuration {
+
+	/**
+	 * How an H2 database is stored.
+	 *
+	 */
+	public enum StorageMode {
+		/**
+		 * The database is held in memory, and lasts until the JVM exits.
+		 */
+		IN_MEMORY,
+
+		/**
+		 * The database is stored in a file using the MVStore engine.
+		 */
+		MV_STORE,
+
+		/**
+		 * The database is stored in a file using the legacy PageStore engine.
+		 */
+		PAGE_STORE
+	}
+
+	// Lock modes, as defined by H2's LOCK_MODE setting.
+	public static final int LOCK_MODE_OFF = 0;
+	public static final int LOCK_MODE_TABLE = 1;
+	public static final int LOCK_MODE_READ_COMMITTED = 3;
+
+	// Default database location and credentials.
+	private static final String DEFAULT_DATABASE_PATH = "~/test";
+	private static final String DEFAULT_USERNAME = "sa";
+	private static final String DEFAULT_PASSWORD = "sa";
+
+	private final StorageMode _storageMode;
+	private final String _name;
+	private String _username = DEFAULT_USERNAME;
+	private String _password = DEFAULT_PASSWORD;
+
+	// Tuning parameters. Null means H2's default is used.
+	private Integer _cacheSizeKb;
+	private Integer _lockMode;
+
+	private H2Configuration(StorageMode storageMode, String name) {
+		_storageMode = storageMode;
+		_name = name;
+	}
+
+	/**
+	 * Returns the default configuration: a PageStore database stored in the
+	 * user's home directory, in the file test.h2.db.
+	 *
+	 */
+	public static H2Configuration defaultConfiguration() {
+		return pageStoreFile(DEFAULT_DATABASE_PATH);
+	}
+
+	/**
+	 * Creates a configuration for a named in-memory database. The database is
+	 * shared by all connections in the JVM that use the same name, and is
+	 * kept until the JVM exits.
+	 *
+	 * @param name the name of the database.
+	 *
+	 */
+	public static H2Configuration inMemory(String name) {
+		return new H2Configuration(StorageMode.IN_MEMORY, name);
+	}
+
+	/**
+	 * Creates a configuration for a database stored in a file using the
+	 * MVStore engine.
+	 *
+	 * @param path the path of the database file, without its extension.
+	 * Relative paths must start with "./".
+	 *
+	 */
+	public static H2Configuration mvStoreFile(String path) {
+		return new H2Configuration(StorageMode.MV_STORE, path);
+	}
+
+	/**
+	 * Creates a configuration for a database stored in a file using the
+	 * PageStore engine.
+	 *
+	 * @param path the path of the database file, without its extension.
+	 * Relative paths must start with "./".
+	 *
+	 */
+	public static H2Configuration pageStoreFile(String path) {
+		return new H2Configuration(StorageMode.PAGE_STORE, path);
+	}
+
+	public StorageMode getStorageMode() {
+		return _storageMode;
+	}
+
+	public String getUsername() {
+		return _username;
+	}
+
+	public void setUsername(String username) {
+		_username = username;
+	}
+
+	public String getPassword() {
+		return _password;
+	}
+
+	public void setPassword(String password) {
+		_password = password;
+	}
+
+	public Integer getCacheSizeKb() {
+		return _cacheSizeKb;
+	}
+
+	/**
+	 * Sets the size of H2's page cache, in KB.
+	 *
+	 */
+	public void setCacheSizeKb(Integer cacheSizeKb) {
+		_cacheSizeKb = cacheSizeKb;
+	}
+
+	public Integer getLockMode() {
+		return _lockMode;
+	}
+
+	/**
+	 * Sets H2's lock mode, one of the LOCK_MODE constants.
+	 *
+	 */
+	public void setLockMode(Integer lockMode) {
+		_lockMode = lockMode;
+	}
+
+	/**
+	 * Returns the JDBC URL for this configuration.
+	 *
+	 */
+	public String getUrl() {
+		StringBuffer buffer = new StringBuffer("jdbc:h2:");
+		switch(_storageMode) {
+		case IN_MEMORY:
+			// Keep the database open when its last connection closes.
+			buffer.append("mem:");
+			buffer.append(_name);
+			buffer.append(";DB_CLOSE_DELAY=-1");
+			break;
+		case MV_STORE:
+			buffer.append(_name);
+			buffer.append(";MV_STORE=TRUE");
+			break;
+		case PAGE_STORE:
+			buffer.append(_name);
+			buffer.append(";MV_STORE=FALSE");
+			break;
+		}
+		if(_cacheSizeKb != null) {
+			buffer.append(";CACHE_SIZE=");
+			buffer.append(_cacheSizeKb);
+		}
+		if(_lockMode != null) {
+			buffer.append(";LOCK_MODE=");
+			buffer.append(_lockMode);
+		}
+		return buffer.toString();
+	}
+
+	@Override
+	public String toString() {
+		return _storageMode + " " + _name;
+	}
+}
@@ -0,0 +1,326 @@
+package nz.ac.auckland.concert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.joda.time.LocalDateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConcertDAO decorator that serves searches from an in-memory
+ * ConcertSearchIndex.
+ *
+ * The index is built from the underlying ConcertDAO when the IndexedConcertDAO
+ * is created, and kept in sync as Concerts are saved and deleted through it.
+ * Changes made directly to the datastore, or through another ConcertDAO, are
+ * picked up by rebuild(). All other operations are passed to the underlying
+ * ConcertDAO.
+ *
+ * A search looks up the ranked page of IDs in the index and then loads the
+ * page's Concerts together with findByIds(), so its cost depends on the page
+ * size rather than on the number of Concerts, and takes a single query 
+ * whatever the page size. Concerts deleted from the datastore since they 
+ * were indexed are left out of the page.
+ *
+ * IndexedConcertDAO is thread-safe if the underlying ConcertDAO is.
+ *
+ */
+public class IndexedConcertDAO implements ConcertDAO {
+
+	private static Logger _logger = LoggerFactory
+			.getLogger(IndexedConcertDAO.class);
+
+	private final ConcertDAO _delegate;
+
+	// Replaced wholesale by rebuild().
+	private volatile ConcertSearchIndex _index;
+
+	// IDs of the Concerts written by the transaction running on the current
+	// thread, if any.
+	private final ThreadLocal<Set<Long>> _transaction = new ThreadLocal<Set<Long>>();
+
+	/**
+	 * Creates an IndexedConcertDAO and indexes all stored Concerts.
+	 *
+	 * @throws DAOException if the Concerts can't be loaded.
+	 *
+	 */
+	public IndexedConcertDAO(ConcertDAO delegate) throws DAOException {
+		_delegate = delegate;
+		rebuild();
+	}
+
+	/**
+	 * @see ConcertDAO.save()
+	 *
+	 */
+	public void save(Concert concert) throws DAOException {
+		_delegate.save(concert);
+		_index.put(concert);
+		written(concert);
+	}
+
+	/**
+	 * @see ConcertDAO.saveAll()
+	 *
+	 */
+	public void saveAll(Collection<Concert> concerts) throws DAOException {
+		_delegate.saveAll(concerts);
+		for(Concert concert : concerts) {
+			_index.put(concert);
+			written(concert);
+		}
+	}
+
+	/**
+	 * @see ConcertDAO.getById()
+	 *
+	 */
+	public Concert getById(long id) throws DAOException {
+		return _delegate.getById(id);
+	}
+
+	/**
+	 * @see ConcertDAO.getAll()
+	 *
+	 */
+	public List<Concert> getAll() throws DAOException {
+		return _delegate.getAll();
+	}
+
+	/**
+	 * @see ConcertDAO.getAllPerformers()
+	 *
+	 */
+	public List<Performer> getAllPerformers() throws DAOException {
+		return _delegate.getAllPerformers();
+	}
+
+	/**
+	 * @see ConcertDAO.getPage()
+	 *
+	 */
+	public List<Concert> getPage(Concert after, int pageSize) throws DAOException {
+		return _delegate.getPage(after, pageSize);
+	}
+
+	/**
+	 * @see ConcertDAO.findByGenre()
+	 *
+	 */
+	public List<Concert> findByGenre(Genre genre) throws DAOException {
+		return _delegate.findByGenre(genre);
+	}
+
+	/**
+	 * @see ConcertDAO.findByPerformer()
+	 *
+	 */
+	public List<Concert> findByPerformer(Performer performer) throws DAOException {
+		return _delegate.findByPerformer(performer);
+	}
+
+	/**
+	 * @see ConcertDAO.findBetween()
+	 *
+	 */
+	public List<Concert> findBetween(LocalDateTime from, LocalDateTime to) throws DAOException {
+		return _delegate.findBetween(from, to);
+	}
+
+	/**
+	 * @see ConcertDAO.findByIds()
+	 *
+	 */
+	public List<Concert> findByIds(Collection<Long> ids) throws DAOException {
+		return _delegate.findByIds(ids);
+	}
+
+	/**
+	 * @see ConcertDAO.forEach()
+	 *
+	 */
+	public void forEach(Consumer<? super Concert> action) throws DAOException {
+		_delegate.forEach(action);
+	}
+
+	/**
+	 * @see ConcertDAO.search()
+	 *
+	 */
+	public List<Concert> search(String query, int offset, int pageSize) throws DAOException {
+		List<ConcertSearchIndex.Hit> hits = _index.search(query, offset, pageSize);
+		if(hits.isEmpty()) {
+			return new ArrayList<Concert>();
+		}
+
+		List<Long> ids = new ArrayList<Long>(hits.size());
+		for(ConcertSearchIndex.Hit hit : hits) {
+			ids.add(hit.getId());
+		}
+		Map<Long, Concert> loaded = new HashMap<Long, Concert>();
+		for(Concert concert : _delegate.findByIds(ids)) {
+			loaded.put(concert.getId(), concert);
+		}
+
+		// Restore the ranking, which findByIds() doesn't preserve.
+		List<Concert> concerts = new ArrayList<Concert>(hits.size());
+		for(Long id : ids) {
+			Concert concert = loaded.get(id);
+			if(concert != null) {
+				concerts.add(concert);
+			}
+		}
+		return concerts;
+	}
+
+	/**
+	 * @see ConcertDAO.deleteConcert()
+	 *
+	 */
+	public void deleteConcert(Concert concert) throws DAOException {
+		_delegate.deleteConcert(concert);
+		_index.remove(concert.getId());
+		written(concert);
+	}
+
+	/**
+	 * @see ConcertDAO.deleteAll()
+	 *
+	 */
+	public void deleteAll(Collection<Concert> concerts) throws DAOException {
+		_delegate.deleteAll(concerts);
+		for(Concert concert : concerts) {
+			_index.remove(concert.getId());
+			written(concert);
+		}
+	}
+
+	/**
+	 * Runs the unit of work against this IndexedConcertDAO, so that its saves
+	 * and deletes update the index. If the transaction fails, the Concerts it
+	 * saved or deleted are reloaded to discard the updates; should the reload
+	 * also fail, those Concerts may be out of date in the index until 
+	 * rebuild() is called.
+	 *
+	 * @see ConcertDAO.inTransaction(UnitOfWork)
+	 *
+	 */
+	public <T> T inTransaction(UnitOfWork<T> work) throws DAOException {
+		return inTransaction(() -> _delegate.inTransaction(dao -> work.execute(this)));
+	}
+
+	/**
+	 * @see inTransaction(UnitOfWork)
+	 *
+	 */
+	public <T> T inTransaction(int isolationLevel, UnitOfWork<T> work) throws DAOException {
+		return inTransaction(() -> _delegate.inTransaction(isolationLevel, dao -> work.execute(this)));
+	}
+
+	/**
+	 * @see ConcertDAO.close()
+	 *
+	 */
+	public void close() throws DAOException {
+		_index.clear();
+		_delegate.close();
+	}
+
+	/**
+	 * Rebuilds the index from the Concerts in the datastore. Searches use
+	 * the previous index until the new one is complete. Saves and deletes
+	 * made through this IndexedConcertDAO during the rebuild may be missed.
+	 *
+	 * @throws DAOException if the Concerts can't be loaded.
+	 *
+	 */
+	public void rebuild() throws DAOException {
+		ConcertSearchIndex index = new ConcertSearchIndex();
+		_delegate.forEach(index::put);
+		_index = index;
+	}
+
+	/*
+	 * A transaction on the underlying ConcertDAO.
+	 *
+	 */
+	private interface TransactionCall<T> {
+		T call() throws DAOException;
+	}
+
+	/*
+	 * Helper method to run a transaction, recording the IDs of the Concerts
+	 * it writes so that they can be reloaded if it fails. A transaction 
+	 * started within another joins it, leaving the reload to the outer one.
+	 *
+	 */
+	private <T> T inTransaction(TransactionCall<T> call) throws DAOException {
+		if(_transaction.get() != null) {
+			return call.call();
+		}
+
+		Set<Long> ids = new HashSet<Long>();
+		_transaction.set(ids);
+		try {
+			return call.call();
+		} catch(DAOException | RuntimeException e) {
+			reloadQuietly(ids);
+			throw e;
+		} finally {
+			_transaction.remove();
+		}
+	}
+
+	/*
+	 * Records the ID of a Concert written by the current thread's 
+	 * transaction, if there is one. IDs are recorded as they're written, as
+	 * a rollback clears the IDs of new Concerts.
+	 *
+	 */
+	private void written(Concert concert) {
+		Set<Long> ids = _transaction.get();
+		if(ids != null && concert.getId() != null) {
+			ids.add(concert.getId());
+		}
+	}
+
+	/*
+	 * Brings the index entries for the given Concerts back in line with the
+	 * datastore, after the transaction that wrote them has rolled back.
+	 *
+	 */
+	private void reloadQuietly(Set<Long> ids) {
+		if(ids.isEmpty()) {
+			return;
+		}
+		try {
+			ConcertSearchIndex index = _index;
+			Set<Long> deleted = new HashSet<Long>(ids);
+			for(Concert concert : _delegate.findByIds(ids)) {
+				index.put(concert);
+				deleted.remove(concert.getId());
+			}
+			for(Long id : deleted) {
+				index.remove(id);
+			}
+		} catch(DAOException e) {
+			_logger.warn("Unable to reload " + ids.size() + " Concert(s) into the search index", e);
+		}
+	}
+
+	/**
+	 * Returns the number of Concerts indexed.
+	 *
+	 */
+	public int getIndexSize() {
+		return _index.size();
+	}
+}
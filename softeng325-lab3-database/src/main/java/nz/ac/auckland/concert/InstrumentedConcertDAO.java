@@ -0,0 +1,480 @@
+package nz.ac.auckland.concert;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.joda.time.LocalDateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConcertDAO decorator that records metrics for each call to the underlying
+ * ConcertDAO.
+ *
+ * For each operation (ConcertDAO method), an OperationMetrics records a
+ * histogram of call latencies, the number of calls that failed, and the
+ * number of rows read or written: the Concerts returned by a query, visited
+ * by forEach() or passed to a save or delete. Given the ConnectionPool used
+ * by the underlying ConcertDAO, the number of SQL statements each call 
+ * executes is also counted; statements executed by other threads sharing the
+ * pool are excluded.
+ *
+ * Metrics can be read directly, published as JMX MBeans with
+ * registerMBeans(), and passed call by call to a MetricsSink.
+ *
+ * Failed calls are logged at warn level, with their cause, except for the
+ * concurrency failures expected under contention - optimistic lock conflicts,
+ * deadlocks and lock timeouts - which are logged at debug level.
+ *
+ */
+public class InstrumentedConcertDAO implements ConcertDAO, InstrumentedConcertDAOMBean {
+
+	/**
+	 * Receives the metrics for each call, for forwarding to an external
+	 * monitoring system.
+	 *
+	 */
+	public interface MetricsSink {
+		/**
+		 * Called on the calling thread once a ConcertDAO call completes, and
+		 * so should return quickly.
+		 *
+		 * @param operation the name of the ConcertDAO method called.
+		 *
+		 * @param latencyNanos the time the call took.
+		 *
+		 * @param rows the number of rows read or written.
+		 *
+		 * @param failure the exception thrown by the call, or null if it
+		 * succeeded.
+		 *
+		 */
+		void record(String operation, long latencyNanos, int rows, Exception failure);
+	}
+
+	public static final String JMX_DOMAIN = "nz.ac.auckland.concert";
+
+	private static final String ERROR_REGISTERING_MBEANS = "Unable to register ConcertDAO MBeans";
+
+	private static final String OPERATION_SAVE = "save";
+	private static final String OPERATION_SAVE_ALL = "saveAll";
+	private static final String OPERATION_GET_BY_ID = "getById";
+	private static final String OPERATION_GET_ALL = "getAll";
+	private static final String OPERATION_GET_ALL_PERFORMERS = "getAllPerformers";
+	private static final String OPERATION_GET_PAGE = "getPage";
+	private static final String OPERATION_FIND_BY_GENRE = "findByGenre";
+	private static final String OPERATION_FIND_BY_PERFORMER = "findByPerformer";
+	private static final String OPERATION_FIND_BETWEEN = "findBetween";
+	private static final String OPERATION_FIND_BY_IDS = "findByIds";
+	private static final String OPERATION_FOR_EACH = "forEach";
+	private static final String OPERATION_SEARCH = "search";
+	private static final String OPERATION_DELETE_CONCERT = "deleteConcert";
+	private static final String OPERATION_DELETE_ALL = "deleteAll";
+	private static final String OPERATION_IN_TRANSACTION = "inTransaction";
+
+	private static Logger _logger = LoggerFactory
+			.getLogger(InstrumentedConcertDAO.class);
+
+	private final ConcertDAO _delegate;
+	private final ConnectionPool _connectionPool;
+
+	private final Map<String, OperationMetrics> _metrics = new LinkedHashMap<String, OperationMetrics>();
+	private final List<ObjectName> _registeredNames = new ArrayList<ObjectName>();
+
+	private volatile MetricsSink _metricsSink;
+
+	// Statements executed by calls that weren't nested in another call.
+	private final AtomicLong _statements = new AtomicLong();
+
+	// Statements executed so far by the current thread's calls. Set only for
+	// the duration of the thread's outermost call.
+	private final ThreadLocal<long[]> _threadStatements = new ThreadLocal<long[]>();
+
+	private final ConnectionPool.StatementListener _statementListener = this::statementExecuted;
+
+	/**
+	 * Creates an InstrumentedConcertDAO that doesn't count SQL statements.
+	 *
+	 */
+	public InstrumentedConcertDAO(ConcertDAO delegate) {
+		this(delegate, null);
+	}
+
+	/**
+	 * Creates an InstrumentedConcertDAO.
+	 *
+	 * @param delegate the ConcertDAO to instrument.
+	 *
+	 * @param connectionPool the pool that delegate issues SQL statements
+	 * through, or null. Statement counting is turned on for the pool.
+	 *
+	 */
+	public InstrumentedConcertDAO(ConcertDAO delegate, ConnectionPool connectionPool) {
+		_delegate = delegate;
+		_connectionPool = connectionPool;
+		if(connectionPool != null) {
+			connectionPool.setCountingStatements(true);
+			connectionPool.addStatementListener(_statementListener);
+		}
+
+		for(String operation : new String[] {OPERATION_SAVE, OPERATION_SAVE_ALL,
+				OPERATION_GET_BY_ID, OPERATION_GET_ALL, OPERATION_GET_ALL_PERFORMERS, OPERATION_GET_PAGE,
+				OPERATION_FIND_BY_GENRE, OPERATION_FIND_BY_PERFORMER, OPERATION_FIND_BETWEEN,
+				OPERATION_FIND_BY_IDS, OPERATION_FOR_EACH, OPERATION_SEARCH,
+				OPERATION_DELETE_CONCERT, OPERATION_DELETE_ALL, OPERATION_IN_TRANSACTION}) {
+			_metrics.put(operation, new OperationMetrics(operation));
+		}
+	}
+
+	public void setMetricsSink(MetricsSink metricsSink) {
+		_metricsSink = metricsSink;
+	}
+
+	/**
+	 * Registers this InstrumentedConcertDAO, and an OperationMetrics for each
+	 * operation, with the platform MBean server. The MBeans are named
+	 * JMX_DOMAIN:type=ConcertDAO,name=<name> and
+	 * JMX_DOMAIN:type=ConcertDAO,name=<name>,operation=<operation>, and are
+	 * unregistered by close().
+	 *
+	 * @param name distinguishes this ConcertDAO from others in the same JVM.
+	 *
+	 * @throws DAOException if the MBeans can't be registered, for example
+	 * because the name is already in use.
+	 *
+	 */
+	public synchronized void registerMBeans(String name) throws DAOException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		String prefix = JMX_DOMAIN + ":type=ConcertDAO,name=" + ObjectName.quote(name);
+		try {
+			register(server, new ObjectName(prefix), this);
+			for(OperationMetrics metrics : _metrics.values()) {
+				register(server, new ObjectName(prefix + ",operation=" + metrics.getName()), metrics);
+			}
+		} catch(JMException e) {
+			unregisterMBeans();
+			_logger.debug(ERROR_REGISTERING_MBEANS, e);
+			throw new DAOException(ERROR_REGISTERING_MBEANS, e);
+		}
+	}
+
+	/**
+	 * Returns the metrics for the named operation, or null if there's no
+	 * such operation.
+	 *
+	 * @param operation the name of a ConcertDAO method, other than close().
+	 *
+	 */
+	public OperationMetrics getMetrics(String operation) {
+		return _metrics.get(operation);
+	}
+
+	/**
+	 * Returns the metrics for all operations.
+	 *
+	 */
+	public Collection<OperationMetrics> getMetrics() {
+		return Collections.unmodifiableCollection(_metrics.values());
+	}
+
+	public long getCallCount() {
+		long count = 0;
+		for(OperationMetrics metrics : _metrics.values()) {
+			count += metrics.getCount();
+		}
+		return count;
+	}
+
+	public long getErrorCount() {
+		long count = 0;
+		for(OperationMetrics metrics : _metrics.values()) {
+			count += metrics.getErrorCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of SQL statements executed by calls to this 
+	 * InstrumentedConcertDAO, or 0 if it wasn't given a ConnectionPool. 
+	 * Statements of calls nested in an inTransaction() call are counted once.
+	 *
+	 */
+	public long getStatementCount() {
+		return _statements.get();
+	}
+
+	/**
+	 * @see ConcertDAO.save()
+	 *
+	 */
+	public void save(Concert concert) throws DAOException {
+		instrument(OPERATION_SAVE, () -> {
+			_delegate.save(concert);
+			return null;
+		}, result -> 1);
+	}
+
+	/**
+	 * @see ConcertDAO.saveAll()
+	 *
+	 */
+	public void saveAll(Collection<Concert> concerts) throws DAOException {
+		instrument(OPERATION_SAVE_ALL, () -> {
+			_delegate.saveAll(concerts);
+			return null;
+		}, result -> concerts.size());
+	}
+
+	/**
+	 * @see ConcertDAO.getById()
+	 *
+	 */
+	public Concert getById(long id) throws DAOException {
+		return instrument(OPERATION_GET_BY_ID, () -> _delegate.getById(id),
+				concert -> concert == null ? 0 : 1);
+	}
+
+	/**
+	 * @see ConcertDAO.getAll()
+	 *
+	 */
+	public List<Concert> getAll() throws DAOException {
+		return instrument(OPERATION_GET_ALL, () -> _delegate.getAll(), List::size);
+	}
+
+	/**
+	 * @see ConcertDAO.getAllPerformers()
+	 *
+	 */
+	public List<Performer> getAllPerformers() throws DAOException {
+		return instrument(OPERATION_GET_ALL_PERFORMERS, () -> _delegate.getAllPerformers(), List::size);
+	}
+
+	/**
+	 * @see ConcertDAO.getPage()
+	 *
+	 */
+	public List<Concert> getPage(Concert after, int pageSize) throws DAOException {
+		return instrument(OPERATION_GET_PAGE, () -> _delegate.getPage(after, pageSize), List::size);
+	}
+
+	/**
+	 * @see ConcertDAO.findByGenre()
+	 *
+	 */
+	public List<Concert> findByGenre(Genre genre) throws DAOException {
+		return instrument(OPERATION_FIND_BY_GENRE, () -> _delegate.findByGenre(genre), List::size);
+	}
+
+	/**
+	 * @see ConcertDAO.findByPerformer()
+	 *
+	 */
+	public List<Concert> findByPerformer(Performer performer) throws DAOException {
+		return instrument(OPERATION_FIND_BY_PERFORMER, () -> _delegate.findByPerformer(performer), List::size);
+	}
+
+	/**
+	 * @see ConcertDAO.findBetween()
+	 *
+	 */
+	public List<Concert> findBetween(LocalDateTime from, LocalDateTime to) throws DAOException {
+		return instrument(OPERATION_FIND_BETWEEN, () -> _delegate.findBetween(from, to), List::size);
+	}
+
+	/**
+	 * @see ConcertDAO.findByIds()
+	 *
+	 */
+	public List<Concert> findByIds(Collection<Long> ids) throws DAOException {
+		return instrument(OPERATION_FIND_BY_IDS, () -> _delegate.findByIds(ids), List::size);
+	}
+
+	/**
+	 * @see ConcertDAO.forEach()
+	 *
+	 */
+	public void forEach(Consumer<? super Concert> action) throws DAOException {
+		int[] rows = new int[1];
+		instrument(OPERATION_FOR_EACH, () -> {
+			_delegate.forEach(concert -> {
+				rows[0]++;
+				action.accept(concert);
+			});
+			return null;
+		}, result -> rows[0]);
+	}
+
+	/**
+	 * @see ConcertDAO.search()
+	 *
+	 */
+	public List<Concert> search(String query, int offset, int pageSize) throws DAOException {
+		return instrument(OPERATION_SEARCH, () -> _delegate.search(query, offset, pageSize), List::size);
+	}
+
+	/**
+	 * @see ConcertDAO.deleteConcert()
+	 *
+	 */
+	public void deleteConcert(Concert concert) throws DAOException {
+		instrument(OPERATION_DELETE_CONCERT, () -> {
+			_delegate.deleteConcert(concert);
+			return null;
+		}, result -> 1);
+	}
+
+	/**
+	 * @see ConcertDAO.deleteAll()
+	 *
+	 */
+	public void deleteAll(Collection<Concert> concerts) throws DAOException {
+		instrument(OPERATION_DELETE_ALL, () -> {
+			_delegate.deleteAll(concerts);
+			return null;
+		}, result -> concerts.size());
+	}
+
+	/**
+	 * Records the transaction as a whole, with no rows. The unit of work is
+	 * run against this InstrumentedConcertDAO, so its operations are also
+	 * recorded individually.
+	 *
+	 * @see ConcertDAO.inTransaction(UnitOfWork)
+	 *
+	 */
+	public <T> T inTransaction(UnitOfWork<T> work) throws DAOException {
+		return instrument(OPERATION_IN_TRANSACTION,
+				() -> _delegate.inTransaction(dao -> work.execute(this)), result -> 0);
+	}
+
+	/**
+	 * @see inTransaction(UnitOfWork)
+	 *
+	 */
+	public <T> T inTransaction(int isolationLevel, UnitOfWork<T> work) throws DAOException {
+		return instrument(OPERATION_IN_TRANSACTION,
+				() -> _delegate.inTransaction(isolationLevel, dao -> work.execute(this)), result -> 0);
+	}
+
+	/**
+	 * Unregisters any MBeans and closes the underlying ConcertDAO.
+	 *
+	 * @see ConcertDAO.close()
+	 *
+	 */
+	public void close() throws DAOException {
+		unregisterMBeans();
+		if(_connectionPool != null) {
+			_connectionPool.removeStatementListener(_statementListener);
+		}
+		_delegate.close();
+	}
+
+	/*
+	 * A call to the underlying ConcertDAO.
+	 *
+	 */
+	private interface Call<T> {
+		T call() throws DAOException;
+	}
+
+	/*
+	 * Makes a call, and records its latency, the rows it read or wrote, the
+	 * statements it executed and whether it failed.
+	 *
+	 */
+	private <T> T instrument(String operation, Call<T> call, ToIntFunction<T> rows) throws DAOException {
+		long[] statements = _threadStatements.get();
+		boolean outermost = statements == null;
+		if(outermost) {
+			statements = new long[1];
+			_threadStatements.set(statements);
+		}
+		long before = statements[0];
+		long start = System.nanoTime();
+		try {
+			T result = call.call();
+			record(operation, System.nanoTime() - start, rows.applyAsInt(result),
+					statements[0] - before, null);
+			return result;
+		} catch(DAOException | RuntimeException e) {
+			if(isExpected(e)) {
+				_logger.debug("ConcertDAO." + operation + " failed", e);
+			} else {
+				_logger.warn("ConcertDAO." + operation + " failed", e);
+			}
+			record(operation, System.nanoTime() - start, 0, statements[0] - before, e);
+			throw e;
+		} finally {
+			if(outermost) {
+				_threadStatements.remove();
+				_statements.addAndGet(statements[0]);
+			}
+		}
+	}
+
+	private void record(String operation, long latencyNanos, int rows, long statements, Exception failure) {
+		_metrics.get(operation).record(latencyNanos, rows, statements, failure != null);
+
+		MetricsSink metricsSink = _metricsSink;
+		if(metricsSink != null) {
+			try {
+				metricsSink.record(operation, latencyNanos, rows, failure);
+			} catch(RuntimeException e) {
+				_logger.debug("MetricsSink failed", e);
+			}
+		}
+	}
+
+	/*
+	 * Counts a statement executed on the pool against the current thread's
+	 * calls, if it's making any.
+	 *
+	 */
+	private void statementExecuted() {
+		long[] statements = _threadStatements.get();
+		if(statements != null) {
+			statements[0]++;
+		}
+	}
+
+	/*
+	 * Helper method to decide whether a failure is one that concurrent use of
+	 * the datastore is expected to cause from time to time.
+	 *
+	 */
+	private static boolean isExpected(Exception e) {
+		return e instanceof OptimisticLockException || 
+				(e instanceof DAOException && JDBCConcertDAO.isRetryable((DAOException) e));
+	}
+
+	private void register(MBeanServer server, ObjectName name, Object mbean) throws JMException {
+		server.registerMBean(mbean, name);
+		_registeredNames.add(name);
+	}
+
+	private synchronized void unregisterMBeans() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for(ObjectName name : _registeredNames) {
+			try {
+				server.unregisterMBean(name);
+			} catch(JMException e) {
+				_logger.debug("Unable to unregister MBean " + name, e);
+			}
+		}
+		_registeredNames.clear();
+	}
+}
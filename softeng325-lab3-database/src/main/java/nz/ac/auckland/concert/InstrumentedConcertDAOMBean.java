@@ -0,0 +1,15 @@
+package nz.ac.auckland.concert;
+
+/**
+ * JMX view of the totals recorded by an InstrumentedConcertDAO. Metrics for
+ * individual operations are registered as OperationMetricsMBeans.
+ *
+ */
+public interface InstrumentedConcertDAOMBean {
+
+	long getCallCount();
+
+	long getErrorCount();
+
+	long getStatementCount();
+}
@@ -4,18 +4,25 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
+import org.h2.api.ErrorCode;
 import org.h2.tools.RunScript;
 import org.joda.time.LocalDateTime;
 import org.slf4j.Logger;
@@ -30,84 +37,258 @@ import nz.ac.auckland.concert.Genre;
  * Concert and Performer map to primary key columns of the Concert and 
  * Performer tables respectively.
  * 
+ * Each operation borrows a connection from a ConnectionPool and returns it 
+ * when the operation completes. PreparedStatements are cached per connection
+ * and reused across operations, so each SQL statement is parsed once per 
+ * connection. A JDBCConcertDAO is safe for use by multiple
+ * threads; the size of its pool bounds how many operations run concurrently.
+ * 
  * @see ConcertDAO.
  *
  */
 public class JDBCConcertDAO implements ConcertDAO {
 	
-	// H2 database configuration parameters.
+	// H2 database driver.
 	private static final String DATABASE_DRIVER_NAME = "org.h2.Driver";
-	private static final String DATABASE_URL = "jdbc:h2:~/test;mv_store=false";
-	private static final String DATABASE_USERNAME = "sa";
-	private static final String DATABASE_PASSWORD = "sa";
 	
 	// Error messages.
 	private static final String ERROR_CREATING_DAO = "Unable to create JDBCConcertDAO";
-	private static final String ERROR_CLOSING_CONNECTION = "Unable to create JDBCConcertDAO";
 	private static final String ERROR_SAVING_CONCERT = "Unable to save Concert";
-	private static final String ERROR_DELETING_CONCERT = "Unable to save Concert";
+	private static final String ERROR_SAVING_CONCERTS = "Unable to save Concerts";
+	private static final String ERROR_CONCURRENT_UPDATE = "Concert or Performer has been modified by another transaction";
+	private static final String ERROR_DELETING_CONCERT = "Unable to delete Concert";
+	private static final String ERROR_DELETING_CONCERTS = "Unable to delete Concerts";
+	private static final String ERROR_DELETING_PERFORMERS = "Unable to delete orphaned Performers";
 	private static final String ERROR_LOADING_CONCERT = "Unable to retrieve Concert";
 	private static final String ERROR_LOADING_ALL_CONCERTS = "Unable to retrieve all Concerts";
+	private static final String ERROR_LOADING_ALL_PERFORMERS = "Unable to retrieve all Performers";
+	private static final String ERROR_LOADING_PAGE_OF_CONCERTS = "Unable to retrieve page of Concerts";
+	private static final String ERROR_FINDING_CONCERTS = "Unable to find Concerts";
+	private static final String ERROR_INITIALISING_SCHEMA = "Unable to initialise database schema";
+	private static final String ERROR_TRANSACTION = "Unable to complete transaction";
+	private static final String ERROR_TRANSACTION_ROLLED_BACK = "Transaction rolled back after an operation failed";
 	
 	// Column names for the Concert table.
 	private static final String CONCERT_COLUMN_ID = "ID";
 	private static final String CONCERT_COLUMN_TITLE = "TITLE";
 	private static final String CONCERT_COLUMN_DATE = "DATE";
 	private static final String CONCERT_COLUMN_PERFORMER_ID = "FK_PERFORMER_ID";
+	private static final String CONCERT_COLUMN_VERSION = "VERSION";
 	
 	// Column names for the Performer table.
+	private static final String PERFORMER_COLUMN_ID = "ID";
 	private static final String PERFORMER_COLUMN_NAME = "NAME";
 	private static final String PERFORMER_COLUMN_S3IMAGE = "S3IMAGE";
 	private static final String PERFORMER_COLUMN_GENRE = "GENRE";
+	private static final String PERFORMER_COLUMN_VERSION = "VERSION";
+	
+	// Table names.
+	private static final String TABLE_CONCERT = "CONCERT";
+	private static final String TABLE_PERFORMER = "PERFORMER";
 	
-	// SQL for inserting and updating the Performer table.
-	private static final String SQL_INSERT_PERFORMER = "INSERT INTO PERFORMER VALUES (?,?,?,?)";
-	private static final String SQL_UPDATE_PERFORMER = "UPDATE PERFORMER SET NAME = ?, S3IMAGE = ?, GENRE = ? WHERE ID = ?";
+	// SQL for inserting into the Performer table. Updates are generated by
+	// prepareUpdateBatch(), so that only modified columns are written.
+	private static final String SQL_INSERT_PERFORMER = "INSERT INTO PERFORMER (ID, NAME, S3IMAGE, GENRE, VERSION) VALUES (?,?,?,?,0)";
+	private static final String SQL_SELECT_ALL_PERFORMERS = "SELECT ID, NAME, S3IMAGE, GENRE, VERSION FROM PERFORMER ORDER BY ID";
+	private static final String SQL_LOCK_PERFORMER = "SELECT ID FROM PERFORMER WHERE ID = ? FOR UPDATE";
+	
+	// SQL for deleting Performers that no Concert references. The first takes
+	// an array of candidate IDs, so that a set of Performers is checked and 
+	// deleted in one statement; the second deletes any orphans, in batches.
+	private static final String SQL_DELETE_ORPHANED_PERFORMERS_IN = "DELETE FROM PERFORMER WHERE ID IN (SELECT ID FROM TABLE(ID BIGINT = ?)) AND NOT EXISTS (SELECT 1 FROM CONCERT C WHERE C.FK_PERFORMER_ID = PERFORMER.ID)";
+	private static final String SQL_DELETE_ORPHANED_PERFORMERS = "DELETE FROM PERFORMER WHERE NOT EXISTS (SELECT 1 FROM CONCERT C WHERE C.FK_PERFORMER_ID = PERFORMER.ID) LIMIT ?";
 	
 	// SQL for CRUD operations on the Concert table.
-	private static final String SQL_INSERT_CONCERT = "INSERT INTO CONCERT VALUES (?,?,?,?)";
-	private static final String SQL_UPDATE_CONCERT = "UPDATE CONCERT SET TITLE = ?, DATE = ?, FK_PERFORMER_ID = ? WHERE ID = ?";
+	private static final String SQL_INSERT_CONCERT = "INSERT INTO CONCERT (ID, TITLE, DATE, FK_PERFORMER_ID, VERSION) VALUES (?,?,?,?,0)";
 	private static final String SQL_DELETE_CONCERT = "DELETE FROM CONCERT WHERE ID = ?";
-	private static final String SQL_SELECT_CONCERT_BY_ID = "SELECT * FROM CONCERT WHERE ID = ?";
-	private static final String SQL_SELECT_ALL_CONCERTS = "SELECT * FROM CONCERT";
 	
-	// SQL for finding largest primary keys values in the Concert and Performer tables.
-	private static final String SQL_GET_LARGEST_PRIMARY_KEY_VALUE_FOR_CONCERT = "SELECT ID FROM CONCERT ORDER BY ID DESC LIMIT 1";
-	private static final String SQL_GET_LARGEST_PRIMARY_KEY_VALUE_FOR_PERFORMER = "SELECT ID FROM PERFORMER ORDER BY ID DESC LIMIT 1";
+	// SQL for querying Concerts together with their Performers. The columns
+	// selected are those read by ConcertRowMapper.
+	private static final String SQL_SELECT_CONCERTS_WITH_PERFORMERS = "SELECT " + ConcertRowMapper.SELECT_COLUMNS + " FROM CONCERT C LEFT JOIN PERFORMER P ON C.FK_PERFORMER_ID = P.ID";
+	private static final String SQL_SELECT_CONCERT_BY_ID = SQL_SELECT_CONCERTS_WITH_PERFORMERS + " WHERE C.ID = ?";
+	private static final String SQL_SELECT_ALL_CONCERTS = SQL_SELECT_CONCERTS_WITH_PERFORMERS + " ORDER BY C.TITLE, C.ID";
+	private static final String SQL_SELECT_FIRST_PAGE_OF_CONCERTS = SQL_SELECT_CONCERTS_WITH_PERFORMERS + " ORDER BY C.TITLE, C.ID LIMIT ?";
+	private static final String SQL_SELECT_PAGE_OF_CONCERTS = SQL_SELECT_CONCERTS_WITH_PERFORMERS + " WHERE C.TITLE > ? OR (C.TITLE = ? AND C.ID > ?) ORDER BY C.TITLE, C.ID LIMIT ?";
+	
+	// SQL for finder queries. These are package-private so that tests can 
+	// check their query plans.
+	static final String SQL_SELECT_CONCERTS_BY_GENRE = "SELECT " + ConcertRowMapper.SELECT_COLUMNS + " FROM PERFORMER P JOIN CONCERT C ON C.FK_PERFORMER_ID = P.ID WHERE P.GENRE = ? ORDER BY C.TITLE, C.ID";
+	static final String SQL_SELECT_CONCERTS_BY_PERFORMER = SQL_SELECT_CONCERTS_WITH_PERFORMERS + " WHERE C.FK_PERFORMER_ID = ? ORDER BY C.TITLE, C.ID";
+	static final String SQL_SELECT_CONCERTS_BETWEEN = SQL_SELECT_CONCERTS_WITH_PERFORMERS + " WHERE C.DATE >= ? AND C.DATE < ? ORDER BY C.DATE, C.TITLE";
+	static final String SQL_SELECT_CONCERTS_BY_IDS = SQL_SELECT_CONCERTS_WITH_PERFORMERS + " WHERE C.ID IN (SELECT ID FROM TABLE(ID BIGINT = ?)) ORDER BY C.ID";
+	
+	// Condition on each word of a search, with the LIKE pattern for the word
+	// as both parameters.
+	private static final String SQL_SEARCH_CONDITION = "(LOWER(C.TITLE) LIKE ? OR LOWER(P.NAME) LIKE ?)";
+	
+	// DDL for the version columns used for optimistic locking, for databases
+	// created before the columns were introduced. Adding the columns is 
+	// idempotent; existing rows start at version 0.
+	private static final String[] SQL_ADD_VERSION_COLUMNS = {
+		"ALTER TABLE CONCERT ADD COLUMN IF NOT EXISTS VERSION BIGINT DEFAULT 0 NOT NULL",
+		"ALTER TABLE PERFORMER ADD COLUMN IF NOT EXISTS VERSION BIGINT DEFAULT 0 NOT NULL"
+	};
+	
+	// DDL for the indexes that support the queries above. Creating the
+	// indexes is idempotent. Queries by Performer use the index that H2 
+	// creates for the foreign key from CONCERT to PERFORMER.
+	private static final String[] SQL_CREATE_INDEXES = {
+		"CREATE INDEX IF NOT EXISTS IDX_CONCERT_TITLE ON CONCERT(TITLE, ID)",
+		"CREATE INDEX IF NOT EXISTS IDX_CONCERT_DATE ON CONCERT(DATE)",
+		"CREATE INDEX IF NOT EXISTS IDX_PERFORMER_GENRE ON PERFORMER(GENRE)"
+	};
+	
+	// Number of rows fetched at a time when streaming Concerts.
+	private static final int STREAMING_FETCH_SIZE = 100;
+	
+	// Sequences for generating primary key values for the Concert and 
+	// Performer tables.
+	private static final String CONCERT_SEQUENCE = "CONCERT_ID_SEQ";
+	private static final String PERFORMER_SEQUENCE = "PERFORMER_ID_SEQ";
+	
+	/**
+	 * Default number of primary key values reserved from a sequence at once.
+	 */
+	public static final int DEFAULT_KEY_ALLOCATION_SIZE = 50;
+	
+	/**
+	 * Default number of times a transaction is retried after a deadlock or
+	 * lock timeout.
+	 */
+	public static final int DEFAULT_MAX_TRANSACTION_RETRIES = 3;
+	
+	// Base delay before retrying a transaction; the delay grows with each
+	// attempt, and is randomised so that the transactions that deadlocked 
+	// don't retry in step.
+	private static final long TRANSACTION_RETRY_DELAY_MILLIS = 10;
+	
+	// Isolation level argument that leaves the connection's level unchanged.
+	private static final int ISOLATION_UNCHANGED = -1;
 	
 	private static Logger _logger = LoggerFactory
 			.getLogger(JDBCConcertDAO.class);
 
-	// JDBC database connection.
-	private Connection _jdbcConnection = null;
+	// Pool of JDBC database connections.
+	private ConnectionPool _connectionPool = null;
+	
+	// Primary key generators for the Concert and Performer tables.
+	private KeyGenerator _concertKeyGenerator;
+	private KeyGenerator _performerKeyGenerator;
+	
+	// Whether deleting Concerts also deletes Performers left without any.
+	private volatile boolean _deleteOrphanedPerformers = false;
+	
+	// Transaction started by inTransaction() on the current thread, if any.
+	// Operations on a thread with a transaction use its connection, and 
+	// leave committing to inTransaction().
+	private final ThreadLocal<Transaction> _transaction = new ThreadLocal<Transaction>();
+	
+	private volatile int _maxTransactionRetries = DEFAULT_MAX_TRANSACTION_RETRIES;
 	
 	/**
 	 * Creates a JDBCConcertDAO. 
 	 * 
 	 * Following successful creation, the JDBCConcertDAO has established a 
-	 * connection to the database.
+	 * connection to the database, and has initialised its schema as for 
+	 * initialiseSchema(). The JDBCConcertDAO uses a single connection, so 
+	 * concurrent calls on it are serialised.
 	 * 
-	 * @throws DAOException if there's an error connecting to the database.
+	 * @throws DAOException if there's an error connecting to the database or
+	 * initialising its schema.
 	 */
 	public JDBCConcertDAO() throws DAOException {
-		try {
-			// Load H2 database driver class.
-			Class.forName(DATABASE_DRIVER_NAME);
-				
-			// Open a connection to the database.
-			_jdbcConnection = DriverManager.getConnection(DATABASE_URL,
-					DATABASE_USERNAME, DATABASE_PASSWORD);
-		} catch(SQLException | ClassNotFoundException e) {
-			_logger.debug(ERROR_CREATING_DAO, e);
-			throw new DAOException(ERROR_CREATING_DAO);
-		}
+		this(H2Configuration.defaultConfiguration(), 1, 1);
+	}
+	
+	/**
+	 * Creates a pooled JDBCConcertDAO. A pooled JDBCConcertDAO borrows a 
+	 * connection from its pool for each operation, so a single instance can 
+	 * serve many threads concurrently.
+	 * 
+	 * @param minPoolSize the number of connections kept open at all times.
+	 * 
+	 * @param maxPoolSize the maximum number of connections that may be open,
+	 * and hence the maximum number of concurrent operations.
+	 * 
+	 * @throws DAOException if there's an error connecting to the database or
+	 * initialising its schema.
+	 * 
+	 * @see JDBCConcertDAO()
+	 * 
+	 */
+	public JDBCConcertDAO(int minPoolSize, int maxPoolSize) throws DAOException {
+		this(H2Configuration.defaultConfiguration(), minPoolSize, maxPoolSize);
+	}
+	
+	/**
+	 * Creates a pooled JDBCConcertDAO for the database described by an
+	 * H2Configuration.
+	 * 
+	 * @param configuration the database's storage mode and settings.
+	 * 
+	 * @see JDBCConcertDAO(int, int)
+	 * 
+	 */
+	public JDBCConcertDAO(H2Configuration configuration, int minPoolSize, int maxPoolSize) throws DAOException {
+		this(createConnectionPool(configuration, minPoolSize, maxPoolSize));
+		initialise(null);
+	}
+	
+	/**
+	 * Creates a JDBCConcertDAO that uses the given ConnectionPool. The 
+	 * JDBCConcertDAO takes ownership of the pool, and closes it when the
+	 * JDBCConcertDAO is closed.
+	 * 
+	 * @param connectionPool the pool to borrow connections from.
+	 * 
+	 */
+	public JDBCConcertDAO(ConnectionPool connectionPool) {
+		this(connectionPool, DEFAULT_KEY_ALLOCATION_SIZE);
+	}
+	
+	/**
+	 * Creates a JDBCConcertDAO that uses the given ConnectionPool, and which
+	 * generates primary key values from sequences in blocks of the given 
+	 * size.
+	 * 
+	 * @param connectionPool the pool to borrow connections from.
+	 * 
+	 * @param keyAllocationSize the number of primary key values reserved by
+	 * each sequence query. A value of 1 queries the sequence for each insert.
+	 * 
+	 * @see SequenceKeyGenerator
+	 * 
+	 */
+	public JDBCConcertDAO(ConnectionPool connectionPool, int keyAllocationSize) {
+		this(connectionPool, 
+				new SequenceKeyGenerator(CONCERT_SEQUENCE, "CONCERT", keyAllocationSize),
+				new SequenceKeyGenerator(PERFORMER_SEQUENCE, "PERFORMER", keyAllocationSize));
+	}
+	
+	/**
+	 * Creates a JDBCConcertDAO that uses the given ConnectionPool and 
+	 * primary key generators.
+	 * 
+	 * @param connectionPool the pool to borrow connections from.
+	 * 
+	 * @param concertKeyGenerator the generator for Concert IDs.
+	 * 
+	 * @param performerKeyGenerator the generator for Performer IDs.
+	 * 
+	 */
+	public JDBCConcertDAO(ConnectionPool connectionPool, 
+			KeyGenerator concertKeyGenerator, KeyGenerator performerKeyGenerator) {
+		_connectionPool = connectionPool;
+		_concertKeyGenerator = concertKeyGenerator;
+		_performerKeyGenerator = performerKeyGenerator;
 	}
 	
 	/**
 	 * Creates a JDBCConcertDAO and runs a database initialisation script.
 	 * 
 	 * Following successful creation, the JDBCConcertDAO has established a 
-	 * connection to the database.
+	 * connection to the database, and has initialised the schema created by
+	 * the script as for initialiseSchema().
 	 * 
 	 * @param scriptFile a text file containing database initialisation 
 	 * instructions.
@@ -117,14 +298,33 @@ public class JDBCConcertDAO implements ConcertDAO {
 	 * 
 	 */
 	public JDBCConcertDAO(File scriptFile) throws DAOException {
-		this();
-		
-		try {
-			RunScript.execute(_jdbcConnection,  new FileReader(scriptFile));
-		} catch(SQLException | FileNotFoundException e) {
-			_logger.debug(ERROR_CREATING_DAO, e);
-			throw new DAOException(ERROR_CREATING_DAO);
-		}
+		this(H2Configuration.defaultConfiguration(), 1, 1, scriptFile);
+	}
+	
+	/**
+	 * Creates a pooled JDBCConcertDAO and runs a database initialisation 
+	 * script. Following the script, the schema is initialised as for 
+	 * initialiseSchema().
+	 * 
+	 * @see JDBCConcertDAO(int, int)
+	 * @see JDBCConcertDAO(File)
+	 * 
+	 */
+	public JDBCConcertDAO(int minPoolSize, int maxPoolSize, File scriptFile) throws DAOException {
+		this(H2Configuration.defaultConfiguration(), minPoolSize, maxPoolSize, scriptFile);
+	}
+	
+	/**
+	 * Creates a pooled JDBCConcertDAO for the database described by an
+	 * H2Configuration, and runs a database initialisation script.
+	 * 
+	 * @see JDBCConcertDAO(H2Configuration, int, int)
+	 * @see JDBCConcertDAO(File)
+	 * 
+	 */
+	public JDBCConcertDAO(H2Configuration configuration, int minPoolSize, int maxPoolSize, File scriptFile) throws DAOException {
+		this(createConnectionPool(configuration, minPoolSize, maxPoolSize));
+		initialise(scriptFile);
 	}
 	
 	/**
@@ -132,80 +332,23 @@ public class JDBCConcertDAO implements ConcertDAO {
 	 * 
 	 */
 	public void close() throws DAOException {
-		try {
-			_jdbcConnection.close();
-		} catch(SQLException e) {
-			_logger.debug(ERROR_CLOSING_CONNECTION, e);
-			throw new DAOException(ERROR_CLOSING_CONNECTION);
-		}
+		_connectionPool.close();
 	}
 
 	/**
-	 * @see ConcertDAO.close()
+	 * @see ConcertDAO.save()
+	 * 
 	 */
 	public void save(Concert concert) throws DAOException {
-		try {
-			Performer performer = concert.getPerformer();
-			
-			// Process the Concert's Performer first. It needs to be persisted 
-			// in the database before inserting a new Concert because the
-			// Concert table has a foreign key relationship with Performer.
-			if(performer.getId() == null) {
-				// Performer isn't stored in the database, so needs to be 
-				// inserted. Generate the new primary key value and insert a
-				// new Performer row.
-				long key = getNextPrimaryKeyForPerformer();
-				
-				PreparedStatement preparedStatement = _jdbcConnection.prepareStatement(SQL_INSERT_PERFORMER);
-				preparedStatement.setLong(1, key);
-				preparedStatement.setString(2, performer.getName());
-				preparedStatement.setString(3, performer.getS3ImageUri());
-				preparedStatement.setString(4, performer.getGenre().toString());
-				preparedStatement.executeUpdate();
-				
-				// Update the Performer's id instance variable.
-				performer.setId(key);
-			} else {
-				// Performer is already persisted, so update its row in case 
-				// the Performer object has been modified.
-				PreparedStatement preparedStatement = _jdbcConnection.prepareStatement(SQL_UPDATE_PERFORMER);
-				preparedStatement.setString(1, performer.getName());
-				preparedStatement.setString(2, performer.getS3ImageUri());
-				preparedStatement.setString(3, performer.getGenre().toString());
-				preparedStatement.setLong(4, performer.getId());
-				preparedStatement.executeUpdate();
-			}
-			
-			// Process the Concert.
-			if(concert.getId() == null) {
-				// Concert isn't stored in the database, so needs to be 
-				// inserted. Generate the new primary key value and insert a
-				// new Concert row.
-				long key = getNextPrimaryKeyForConcert();
-				
-				PreparedStatement preparedStatement = _jdbcConnection.prepareStatement(SQL_INSERT_CONCERT);
-				preparedStatement.setLong(1, key);
-				preparedStatement.setString(2, concert.getTitle());
-				preparedStatement.setTimestamp(3, new Timestamp(concert.getDate().toDateTime().getMillis()));
-				preparedStatement.setLong(4, concert.getPerformer().getId());
-				preparedStatement.executeUpdate();
-				
-				// Update the Concert's id instance variable.
-				concert.setId(key);
-			} else {
-				// Concert is already persisted, so update its row in case the
-				// Concert object has been modified.
-				PreparedStatement preparedStatement = _jdbcConnection.prepareStatement(SQL_UPDATE_CONCERT);
-				preparedStatement.setString(1, concert.getTitle());
-				preparedStatement.setTimestamp(2, new Timestamp(concert.getDate().toDateTime().getMillis()));
-				preparedStatement.setLong(3, concert.getPerformer().getId());
-				preparedStatement.setLong(4, concert.getId());
-				preparedStatement.executeUpdate();
-			}
-		} catch(SQLException e) {
-			_logger.debug(ERROR_SAVING_CONCERT, e);
-			throw new DAOException(ERROR_SAVING_CONCERT);
-		}
+		saveConcerts(Collections.singletonList(concert), ERROR_SAVING_CONCERT);
+	}
+	
+	/**
+	 * @see ConcertDAO.saveAll()
+	 * 
+	 */
+	public void saveAll(Collection<Concert> concerts) throws DAOException {
+		saveConcerts(concerts, ERROR_SAVING_CONCERTS);
 	}
 
 	/**
@@ -213,34 +356,24 @@ public class JDBCConcertDAO implements ConcertDAO {
 	 * 
 	 */
 	public Concert getById(long id) throws DAOException {
+		PooledConnection connection = null;
 		try {
-			PreparedStatement preparedStatement = _jdbcConnection.prepareStatement(SQL_SELECT_CONCERT_BY_ID);
+			connection = borrowConnection();
+			PreparedStatement preparedStatement = connection.prepareStatement(SQL_SELECT_CONCERT_BY_ID);
 			preparedStatement.setLong(1, id);
-			ResultSet rs = preparedStatement.executeQuery();
-			if (rs.next()){
-				Long cid = rs.getLong(1);
-				String title = rs.getString(2);
-				LocalDateTime ldt = new org.joda.time.LocalDateTime(rs.getTimestamp(3).toLocalDateTime().toString());
-				Long pid = rs.getLong(4);
-				preparedStatement = _jdbcConnection.prepareStatement("SELECT * FROM PERFORMER WHERE ID = ?");
-				preparedStatement.setLong(1, pid);
-				ResultSet prs = preparedStatement.executeQuery();
-				Performer p = null;
-				if (prs.next()){
-//					_logger.debug(prs.getString(1)+" what???");
-//					_logger.debug(prs.getString(2)+" what???");
-//					_logger.debug(prs.getString(3)+" what???");
-//					_logger.debug(prs.getString(4)+" what???");
-					p = new Performer(prs.getLong(1), prs.getString(2), prs.getString(3), Genre.valueOf(prs.getString(4)));
-				}
-				Concert concert = new Concert(cid, title, ldt, p);
-				return concert;
-			}else{
-				return null;
+			try(ResultSet rs = preparedStatement.executeQuery()) {
+				if (rs.next()){
+					return ConcertRowMapper.mapConcert(rs, new HashMap<Long, Performer>());
+				}else{
+					return null;
+				}
 			}
 		} catch(SQLException e) {
+			markRollbackOnly();
 			_logger.debug(ERROR_LOADING_CONCERT, e);
-			throw new DAOException(ERROR_LOADING_CONCERT);
+			throw new DAOException(ERROR_LOADING_CONCERT, e);
+		} finally {
+			releaseConnection(connection);
 		}
 	}
 
@@ -249,42 +382,215 @@ public class JDBCConcertDAO implements ConcertDAO {
 	 * 
 	 */
 	public List<Concert> getAll() throws DAOException {
+		PooledConnection connection = null;
 		try {
-			PreparedStatement preparedStatement = _jdbcConnection.prepareStatement(SQL_SELECT_ALL_CONCERTS);
-			ResultSet rs = preparedStatement.executeQuery();
+			connection = borrowConnection();
+			PreparedStatement preparedStatement = connection.prepareStatement(SQL_SELECT_ALL_CONCERTS);
+			
+			// Performers already loaded by this query, keyed on ID, so that
+			// Concerts sharing a Performer share the same Performer object.
+			Map<Long, Performer> performers = new HashMap<Long, Performer>();
 			List<Concert> concertList = new ArrayList<Concert>();
+			try(ResultSet rs = preparedStatement.executeQuery()) {
+				while (rs.next()){
+					concertList.add(ConcertRowMapper.mapConcert(rs, performers));
+				}
+			}
+			return concertList;
+		} catch(SQLException e) {
+			markRollbackOnly();
+			_logger.debug(ERROR_LOADING_ALL_CONCERTS, e);
+			throw new DAOException(ERROR_LOADING_ALL_CONCERTS, e);
+		} finally {
+			releaseConnection(connection);
+		}
+	}
+
+	/**
+	 * @see ConcertDAO.getAllPerformers()
+	 * 
+	 */
+	public List<Performer> getAllPerformers() throws DAOException {
+		PooledConnection connection = null;
+		try {
+			connection = borrowConnection();
+			PreparedStatement preparedStatement = connection.prepareStatement(SQL_SELECT_ALL_PERFORMERS);
+			
 			List<Performer> performerList = new ArrayList<Performer>();
-			while (rs.next()){
-				Long cid = rs.getLong(1);
-				String title = rs.getString(2);
-				LocalDateTime ldt = new org.joda.time.LocalDateTime(rs.getTimestamp(3).toLocalDateTime().toString());
-				Long pid = rs.getLong(4);
-				preparedStatement = _jdbcConnection.prepareStatement("SELECT * FROM PERFORMER WHERE ID = ?");
-				preparedStatement.setLong(1, pid);
-				ResultSet prs = preparedStatement.executeQuery();
-				Performer p = null;
-				if (prs.next()){
-					p = new Performer(prs.getLong(1), prs.getString(2), prs.getString(3), Genre.valueOf(prs.getString(4)));
-					if (performerList.contains(p)){
-						for (Performer pf : performerList){
-							if (pf.equals(p)){
-								p = pf;
-								break;
-							}
-						}
-					}else{
-						performerList.add(p);
-					}
+			try(ResultSet rs = preparedStatement.executeQuery()) {
+				while (rs.next()){
+					Performer performer = new Performer(rs.getLong(1), rs.getString(2), rs.getString(3),
+							ConcertRowMapper.toGenre(rs.getString(4)));
+					performer.setVersion(rs.getLong(5));
+					performer.markClean();
+					performerList.add(performer);
+				}
+			}
+			return performerList;
+		} catch(SQLException e) {
+			markRollbackOnly();
+			_logger.debug(ERROR_LOADING_ALL_PERFORMERS, e);
+			throw new DAOException(ERROR_LOADING_ALL_PERFORMERS, e);
+		} finally {
+			releaseConnection(connection);
+		}
+	}
+
+	/**
+	 * @see ConcertDAO.getPage()
+	 * 
+	 */
+	public List<Concert> getPage(Concert after, int pageSize) throws DAOException {
+		PooledConnection connection = null;
+		try {
+			connection = borrowConnection();
+			PreparedStatement preparedStatement;
+			if(after == null) {
+				preparedStatement = connection.prepareStatement(SQL_SELECT_FIRST_PAGE_OF_CONCERTS);
+				preparedStatement.setInt(1, pageSize);
+			} else {
+				preparedStatement = connection.prepareStatement(SQL_SELECT_PAGE_OF_CONCERTS);
+				preparedStatement.setString(1, after.getTitle());
+				preparedStatement.setString(2, after.getTitle());
+				preparedStatement.setLong(3, after.getId());
+				preparedStatement.setInt(4, pageSize);
+			}
+			
+			Map<Long, Performer> performers = new HashMap<Long, Performer>();
+			List<Concert> concertList = new ArrayList<Concert>();
+			try(ResultSet rs = preparedStatement.executeQuery()) {
+				while (rs.next()){
+					concertList.add(ConcertRowMapper.mapConcert(rs, performers));
 				}
-				Concert concert = new Concert(cid, title, ldt, p);
-				concertList.add(concert);
-//				_logger.debug(concert.getTitle()+" what???");
 			}
-			Collections.sort(concertList);
 			return concertList;
 		} catch(SQLException e) {
-			_logger.debug(ERROR_LOADING_CONCERT, e);
-			throw new DAOException(ERROR_LOADING_CONCERT);
+			markRollbackOnly();
+			_logger.debug(ERROR_LOADING_PAGE_OF_CONCERTS, e);
+			throw new DAOException(ERROR_LOADING_PAGE_OF_CONCERTS, e);
+		} finally {
+			releaseConnection(connection);
+		}
+	}
+	
+	/**
+	 * @see ConcertDAO.findByGenre()
+	 * 
+	 */
+	public List<Concert> findByGenre(Genre genre) throws DAOException {
+		return findConcerts(SQL_SELECT_CONCERTS_BY_GENRE, genre.toString());
+	}
+	
+	/**
+	 * @see ConcertDAO.findByPerformer()
+	 * 
+	 */
+	public List<Concert> findByPerformer(Performer performer) throws DAOException {
+		return findConcerts(SQL_SELECT_CONCERTS_BY_PERFORMER, performer.getId());
+	}
+	
+	/**
+	 * @see ConcertDAO.findBetween()
+	 * 
+	 */
+	public List<Concert> findBetween(LocalDateTime from, LocalDateTime to) throws DAOException {
+		return findConcerts(SQL_SELECT_CONCERTS_BETWEEN, 
+				new Timestamp(from.toDateTime().getMillis()),
+				new Timestamp(to.toDateTime().getMillis()));
+	}
+	
+	/**
+	 * @see ConcertDAO.findByIds()
+	 * 
+	 */
+	public List<Concert> findByIds(Collection<Long> ids) throws DAOException {
+		if(ids.isEmpty()) {
+			return new ArrayList<Concert>();
+		}
+		return findConcerts(SQL_SELECT_CONCERTS_BY_IDS, new Object[] {ids.toArray()});
+	}
+	
+	/**
+	 * Searches with a query that selects Concerts containing each word 
+	 * anywhere in their title or Performer name, and then scores and ranks 
+	 * the candidates with ConcertSearchIndex.score(). 
+	 * 
+	 * This is the unindexed fallback, suited to small datastores and to 
+	 * checking other implementations. The LIKE conditions can't use an 
+	 * index, so every search scans the CONCERT and PERFORMER tables, and all
+	 * matching Concerts are loaded, scored and sorted in memory before the 
+	 * page is taken. Its cost therefore grows with the number of Concerts 
+	 * and of matches, whatever the page size; IndexedConcertDAO provides 
+	 * indexed searches.
+	 * 
+	 * @see ConcertDAO.search()
+	 * 
+	 */
+	public List<Concert> search(String query, int offset, int pageSize) throws DAOException {
+		ConcertSearchIndex.checkOffset(offset);
+		List<String> words = ConcertSearchIndex.tokenize(query);
+		if(words.isEmpty() || pageSize <= 0) {
+			return new ArrayList<Concert>();
+		}
+		
+		StringBuffer sql = new StringBuffer(SQL_SELECT_CONCERTS_WITH_PERFORMERS);
+		Object[] parameters = new Object[words.size() * 2];
+		for(int i = 0; i < words.size(); i++) {
+			sql.append(i == 0 ? " WHERE " : " AND ");
+			sql.append(SQL_SEARCH_CONDITION);
+			parameters[i * 2] = parameters[i * 2 + 1] = "%" + words.get(i) + "%";
+		}
+		
+		// The query's substring matches are a superset of the word prefix
+		// matches that score(), and ConcertSearchIndex, accept.
+		Map<Long, Concert> concerts = new HashMap<Long, Concert>();
+		List<ConcertSearchIndex.Hit> hits = new ArrayList<ConcertSearchIndex.Hit>();
+		for(Concert concert : findConcerts(sql.toString(), parameters)) {
+			Performer performer = concert.getPerformer();
+			int score = ConcertSearchIndex.score(words, concert.getTitle(), 
+					performer == null ? null : performer.getName());
+			if(score > 0) {
+				concerts.put(concert.getId(), concert);
+				hits.add(new ConcertSearchIndex.Hit(concert.getId(), concert.getTitle(), score));
+			}
+		}
+		Collections.sort(hits, ConcertSearchIndex.SEARCH_ORDER);
+		
+		List<Concert> page = new ArrayList<Concert>();
+		for(int i = offset; i < hits.size() && page.size() < pageSize; i++) {
+			page.add(concerts.get(hits.get(i).getId()));
+		}
+		return page;
+	}
+	
+	/**
+	 * @see ConcertDAO.forEach()
+	 * 
+	 */
+	public void forEach(Consumer<? super Concert> action) throws DAOException {
+		PooledConnection connection = null;
+		try {
+			connection = borrowConnection();
+			PreparedStatement preparedStatement = connection.prepareStatement(SQL_SELECT_ALL_CONCERTS);
+			preparedStatement.setFetchSize(STREAMING_FETCH_SIZE);
+			
+			// Performers aren't shared between Concerts, so that memory use 
+			// doesn't depend on the number of Performers either.
+			Map<Long, Performer> performers = new HashMap<Long, Performer>();
+			try(ResultSet rs = preparedStatement.executeQuery()) {
+				while (rs.next()){
+					performers.clear();
+					action.accept(ConcertRowMapper.mapConcert(rs, performers));
+				}
+			} finally {
+				preparedStatement.setFetchSize(0);
+			}
+		} catch(SQLException e) {
+			markRollbackOnly();
+			_logger.debug(ERROR_LOADING_ALL_CONCERTS, e);
+			throw new DAOException(ERROR_LOADING_ALL_CONCERTS, e);
+		} finally {
+			releaseConnection(connection);
 		}
 	}
 
@@ -293,42 +599,775 @@ public class JDBCConcertDAO implements ConcertDAO {
 	 * 
 	 */
 	public void deleteConcert(Concert concert) throws DAOException {
+		if(_deleteOrphanedPerformers) {
+			deleteConcerts(Collections.singletonList(concert), ERROR_DELETING_CONCERT);
+			return;
+		}
+		
+		PooledConnection connection = null;
 		try {
-			PreparedStatement statement = _jdbcConnection.prepareStatement(SQL_DELETE_CONCERT);
+			connection = borrowConnection();
+			PreparedStatement statement = connection.prepareStatement(SQL_DELETE_CONCERT);
 			statement.setLong(1,concert.getId());
 			statement.executeUpdate();
 		} catch(SQLException e) {
+			markRollbackOnly();
 			_logger.debug(ERROR_DELETING_CONCERT, e);
-			throw new DAOException(ERROR_DELETING_CONCERT);
+			throw new DAOException(ERROR_DELETING_CONCERT, e);
+		} finally {
+			releaseConnection(connection);
+		}
+	}
+	
+	/**
+	 * @see ConcertDAO.deleteAll()
+	 * 
+	 */
+	public void deleteAll(Collection<Concert> concerts) throws DAOException {
+		deleteConcerts(concerts, ERROR_DELETING_CONCERTS);
+	}
+	
+	/**
+	 * @see ConcertDAO.inTransaction(UnitOfWork)
+	 * 
+	 */
+	public <T> T inTransaction(UnitOfWork<T> work) throws DAOException {
+		return inTransaction(ISOLATION_UNCHANGED, work);
+	}
+	
+	/**
+	 * Runs a unit of work in a single transaction, on a connection that is 
+	 * bound to the calling thread until the transaction ends. A unit of work
+	 * that fails because of a deadlock or lock timeout is retried, up to 
+	 * the number of times set by setMaxTransactionRetries().
+	 * 
+	 * Note that H2 applies isolation levels to the whole database rather 
+	 * than to a connection. The level is restored when the transaction ends,
+	 * but transactions on other connections run at the requested level in 
+	 * the meantime.
+	 * 
+	 * @see ConcertDAO.inTransaction(int, UnitOfWork)
+	 * 
+	 */
+	public <T> T inTransaction(int isolationLevel, UnitOfWork<T> work) throws DAOException {
+		// A nested unit of work joins the enclosing transaction.
+		if(_transaction.get() != null) {
+			return work.execute(this);
+		}
+		
+		for(int attempt = 0; ; attempt++) {
+			try {
+				return runTransaction(isolationLevel, work);
+			} catch(DAOException e) {
+				if(attempt >= _maxTransactionRetries || !isRetryable(e)) {
+					throw e;
+				}
+				_logger.debug("Retrying transaction after lock conflict", e);
+				try {
+					Thread.sleep(ThreadLocalRandom.current().nextLong(
+							TRANSACTION_RETRY_DELAY_MILLIS * (attempt + 1)) + 1);
+				} catch(InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sets the number of times a transaction is retried after a deadlock or
+	 * lock timeout. 0 disables retries.
+	 * 
+	 */
+	public void setMaxTransactionRetries(int maxTransactionRetries) {
+		_maxTransactionRetries = maxTransactionRetries;
+	}
+	
+	/**
+	 * Sets whether deleting Concerts also deletes their Performers, where no
+	 * other Concert references them. The orphaned Performers are deleted in 
+	 * the same transaction as the Concerts. By default, Performers are kept.
+	 * 
+	 */
+	public void setDeleteOrphanedPerformers(boolean deleteOrphanedPerformers) {
+		_deleteOrphanedPerformers = deleteOrphanedPerformers;
+	}
+	
+	/**
+	 * Deletes up to maxCount Performers that no Concert references, in a 
+	 * single transaction. This reclaims Performers orphaned by deletes made 
+	 * without setDeleteOrphanedPerformers(), or by other clients.
+	 * 
+	 * @param maxCount the maximum number of Performers to delete.
+	 * 
+	 * @return the number of Performers deleted.
+	 * 
+	 * @throws DAOException if there's an error deleting the Performers.
+	 * 
+	 */
+	public int deleteOrphanedPerformers(int maxCount) throws DAOException {
+		PooledConnection connection = null;
+		try {
+			connection = borrowConnection();
+			PreparedStatement statement = connection.prepareStatement(SQL_DELETE_ORPHANED_PERFORMERS);
+			statement.setInt(1, maxCount);
+			return statement.executeUpdate();
+		} catch(SQLException e) {
+			markRollbackOnly();
+			_logger.debug(ERROR_DELETING_PERFORMERS, e);
+			throw new DAOException(ERROR_DELETING_PERFORMERS, e);
+		} finally {
+			releaseConnection(connection);
+		}
+	}
+	
+	/**
+	 * Creates the version columns, indexes and sequences this JDBCConcertDAO
+	 * uses, if they don't already exist. The CONCERT and PERFORMER tables 
+	 * must exist.
+	 * 
+	 * This method is called automatically by the constructors that connect
+	 * to a database themselves, after running any initialisation script. A
+	 * JDBCConcertDAO given a ConnectionPool leaves the call to its creator,
+	 * which must make it before any Concerts are saved.
+	 * 
+	 * Creating indexes and sequences is DDL, which H2 commits immediately, 
+	 * so the schema is initialised on a connection of its own, never one 
+	 * bound to a transaction.
+	 * 
+	 * @throws DAOException if there's an error creating the columns, indexes
+	 * or sequences.
+	 * 
+	 */
+	public void initialiseSchema() throws DAOException {
+		PooledConnection connection = null;
+		try {
+			connection = _connectionPool.borrow();
+			try(Statement statement = connection.getConnection().createStatement()) {
+				for(String sql : SQL_ADD_VERSION_COLUMNS) {
+					statement.executeUpdate(sql);
+				}
+				for(String sql : SQL_CREATE_INDEXES) {
+					statement.executeUpdate(sql);
+				}
+			}
+			_concertKeyGenerator.initialise(connection);
+			_performerKeyGenerator.initialise(connection);
+		} catch(SQLException e) {
+			_logger.debug(ERROR_INITIALISING_SCHEMA, e);
+			throw new DAOException(ERROR_INITIALISING_SCHEMA, e);
+		} finally {
+			_connectionPool.release(connection);
+		}
+	}
+	
+	/*
+	 * Helper method to run a finder query, returning the matching Concerts.
+	 * 
+	 */
+	private List<Concert> findConcerts(String sql, Object... parameters) throws DAOException {
+		PooledConnection connection = null;
+		try {
+			connection = borrowConnection();
+			PreparedStatement preparedStatement = connection.prepareStatement(sql);
+			for(int i = 0; i < parameters.length; i++) {
+				preparedStatement.setObject(i + 1, parameters[i]);
+			}
+			
+			Map<Long, Performer> performers = new HashMap<Long, Performer>();
+			List<Concert> concertList = new ArrayList<Concert>();
+			try(ResultSet rs = preparedStatement.executeQuery()) {
+				while (rs.next()){
+					concertList.add(ConcertRowMapper.mapConcert(rs, performers));
+				}
+			}
+			return concertList;
+		} catch(SQLException e) {
+			markRollbackOnly();
+			_logger.debug(ERROR_FINDING_CONCERTS, e);
+			throw new DAOException(ERROR_FINDING_CONCERTS, e);
+		} finally {
+			releaseConnection(connection);
+		}
+	}
+	
+	/*
+	 * Returns the ConnectionPool used by this JDBCConcertDAO.
+	 * 
+	 */
+	ConnectionPool getConnectionPool() {
+		return _connectionPool;
+	}
+	
+	/*
+	 * Helper method to load the H2 driver and create a pool of connections to
+	 * the database.
+	 * 
+	 */
+	private static ConnectionPool createConnectionPool(H2Configuration configuration, 
+			int minPoolSize, int maxPoolSize) throws DAOException {
+		try {
+			// Load H2 database driver class.
+			Class.forName(DATABASE_DRIVER_NAME);
+			
+			// Open the pool's initial connections to the database.
+			return new ConnectionPool(configuration.getUrl(), configuration.getUsername(),
+					configuration.getPassword(), minPoolSize, maxPoolSize);
+		} catch(SQLException | ClassNotFoundException e) {
+			_logger.debug(ERROR_CREATING_DAO, e);
+			throw new DAOException(ERROR_CREATING_DAO, e);
+		}
+	}
+	
+	/*
+	 * Helper method to run a database initialisation script, if there is one,
+	 * and then initialise the schema. The connection pool is closed if either
+	 * fails, as the constructor won't return the JDBCConcertDAO to be closed.
+	 * 
+	 */
+	private void initialise(File scriptFile) throws DAOException {
+		try {
+			if(scriptFile != null) {
+				runScript(scriptFile);
+			}
+			initialiseSchema();
+		} catch(DAOException e) {
+			_connectionPool.close();
+			throw e;
+		}
+	}
+	
+	/*
+	 * Helper method to run a database initialisation script.
+	 * 
+	 */
+	private void runScript(File scriptFile) throws DAOException {
+		PooledConnection connection = null;
+		try {
+			connection = borrowConnection();
+			RunScript.execute(connection.getConnection(),  new FileReader(scriptFile));
+		} catch(SQLException | FileNotFoundException e) {
+			_logger.debug(ERROR_CREATING_DAO, e);
+			throw new DAOException(ERROR_CREATING_DAO, e);
+		} finally {
+			releaseConnection(connection);
+		}
+	}
+	
+	/*
+	 * Helper method to save Concerts, and their Performers, in a single 
+	 * transaction. Rows are inserted and updated using JDBC batches.
+	 * 
+	 */
+	private void saveConcerts(Collection<Concert> concertCollection, String errorMessage) throws DAOException {
+		// Performers shared by several Concerts need only be saved once. 
+		// Performers and Concerts are compared by identity, because distinct
+		// objects can be equal by name or title.
+		Set<Concert> concerts = Collections.newSetFromMap(new IdentityHashMap<Concert, Boolean>());
+		Set<Performer> performers = Collections.newSetFromMap(new IdentityHashMap<Performer, Boolean>());
+		for(Concert concert : concertCollection) {
+			concerts.add(concert);
+			performers.add(concert.getPerformer());
+		}
+		
+		// Performers and Concerts given new IDs by this method, so that they
+		// are inserted rather than updated, and so that the IDs can be cleared
+		// if the transaction fails.
+		Set<Performer> newPerformers = Collections.newSetFromMap(new IdentityHashMap<Performer, Boolean>());
+		Set<Concert> newConcerts = Collections.newSetFromMap(new IdentityHashMap<Concert, Boolean>());
+		
+		PooledConnection connection = null;
+		try {
+			connection = borrowConnection();
+			
+			// Generate primary keys for new Performers and Concerts before
+			// making any changes. 
+			for(Performer performer : performers) {
+				if(performer.getId() == null) {
+					performer.setId(_performerKeyGenerator.nextKey(connection));
+					newPerformers.add(performer);
+				}
+			}
+			for(Concert concert : concerts) {
+				if(concert.getId() == null) {
+					concert.setId(_concertKeyGenerator.nextKey(connection));
+					newConcerts.add(concert);
+				}
+			}
+			
+			connection.getConnection().setAutoCommit(false);
+			
+			// Process the Performers first. They need to be persisted in the
+			// database before inserting new Concerts because the Concert 
+			// table has a foreign key relationship with Performer. Performers
+			// that are already persisted are updated only if they have been 
+			// modified, and then only the modified columns are written.
+			PreparedStatement insertPerformer = prepareBatch(connection, SQL_INSERT_PERFORMER);
+			Map<String, PreparedStatement> updatePerformers = new LinkedHashMap<String, PreparedStatement>();
+			boolean performersWritten = false;
+			for(Performer performer : performers) {
+				performersWritten |= newPerformers.contains(performer) || performer.isDirty();
+				if(newPerformers.contains(performer)) {
+					insertPerformer.setLong(1, performer.getId());
+					insertPerformer.setString(2, performer.getName());
+					insertPerformer.setString(3, performer.getS3ImageUri());
+					insertPerformer.setString(4, performer.getGenre().toString());
+					insertPerformer.addBatch();
+				} else if(performer.isDirty()) {
+					List<String> columns = new ArrayList<String>();
+					if(performer.isNameDirty()) {
+						columns.add(PERFORMER_COLUMN_NAME);
+					}
+					if(performer.isS3ImageUriDirty()) {
+						columns.add(PERFORMER_COLUMN_S3IMAGE);
+					}
+					if(performer.isGenreDirty()) {
+						columns.add(PERFORMER_COLUMN_GENRE);
+					}
+					PreparedStatement updatePerformer = prepareUpdateBatch(connection, 
+							updatePerformers, TABLE_PERFORMER, columns, PERFORMER_COLUMN_ID, PERFORMER_COLUMN_VERSION);
+					int index = 1;
+					if(performer.isNameDirty()) {
+						updatePerformer.setString(index++, performer.getName());
+					}
+					if(performer.isS3ImageUriDirty()) {
+						updatePerformer.setString(index++, performer.getS3ImageUri());
+					}
+					if(performer.isGenreDirty()) {
+						updatePerformer.setString(index++, performer.getGenre().toString());
+					}
+					updatePerformer.setLong(index++, performer.getId());
+					updatePerformer.setLong(index, performer.getVersion());
+					updatePerformer.addBatch();
+				}
+			}
+			insertPerformer.executeBatch();
+			executeUpdateBatches(updatePerformers);
+			
+			// Process the Concerts in the same way. A Concert's foreign key 
+			// is rewritten if its Performer has just been given a new ID.
+			PreparedStatement insertConcert = prepareBatch(connection, SQL_INSERT_CONCERT);
+			Map<String, PreparedStatement> updateConcerts = new LinkedHashMap<String, PreparedStatement>();
+			Set<Concert> updatedConcerts = Collections.newSetFromMap(new IdentityHashMap<Concert, Boolean>());
+			for(Concert concert : concerts) {
+				boolean performerDirty = concert.isPerformerDirty() || 
+						newPerformers.contains(concert.getPerformer());
+				boolean write = newConcerts.contains(concert) || concert.isDirty() || performerDirty;
+				if(write && !performersWritten) {
+					// Writing a Concert row locks the Concert table before 
+					// the Performer table is locked for the foreign key 
+					// check. With table-level locking that can deadlock with
+					// saves that write Performers first, so lock a Performer
+					// row up front to keep the lock order consistent.
+					lockPerformer(connection, concert.getPerformer().getId());
+					performersWritten = true;
+				}
+				
+				if(newConcerts.contains(concert)) {
+					insertConcert.setLong(1, concert.getId());
+					insertConcert.setString(2, concert.getTitle());
+					insertConcert.setTimestamp(3, toTimestamp(concert.getDate()));
+					insertConcert.setLong(4, concert.getPerformer().getId());
+					insertConcert.addBatch();
+					continue;
+				}
+				
+				if(!write) {
+					continue;
+				}
+				List<String> columns = new ArrayList<String>();
+				if(concert.isTitleDirty()) {
+					columns.add(CONCERT_COLUMN_TITLE);
+				}
+				if(concert.isDateDirty()) {
+					columns.add(CONCERT_COLUMN_DATE);
+				}
+				if(performerDirty) {
+					columns.add(CONCERT_COLUMN_PERFORMER_ID);
+				}
+				PreparedStatement updateConcert = prepareUpdateBatch(connection, 
+						updateConcerts, TABLE_CONCERT, columns, CONCERT_COLUMN_ID, CONCERT_COLUMN_VERSION);
+				int index = 1;
+				if(concert.isTitleDirty()) {
+					updateConcert.setString(index++, concert.getTitle());
+				}
+				if(concert.isDateDirty()) {
+					updateConcert.setTimestamp(index++, toTimestamp(concert.getDate()));
+				}
+				if(performerDirty) {
+					updateConcert.setLong(index++, concert.getPerformer().getId());
+				}
+				updateConcert.setLong(index++, concert.getId());
+				updateConcert.setLong(index, concert.getVersion());
+				updateConcert.addBatch();
+				updatedConcerts.add(concert);
+			}
+			insertConcert.executeBatch();
+			executeUpdateBatches(updateConcerts);
+			
+			commit(connection);
+			
+			// Within a transaction, the saved objects are restored if the
+			// transaction is rolled back.
+			Transaction transaction = _transaction.get();
+			if(transaction != null) {
+				for(Performer performer : performers) {
+					transaction.onRollback(performer, newPerformers.contains(performer));
+				}
+				for(Concert concert : concerts) {
+					transaction.onRollback(concert, newConcerts.contains(concert));
+				}
+			}
+			
+			// Bring the saved objects' versions into line with the database.
+			for(Performer performer : performers) {
+				if(newPerformers.contains(performer)) {
+					performer.setVersion(0);
+				} else if(performer.isDirty()) {
+					performer.setVersion(performer.getVersion() + 1);
+				}
+				performer.markClean();
+			}
+			for(Concert concert : concerts) {
+				if(newConcerts.contains(concert)) {
+					concert.setVersion(0);
+				} else if(updatedConcerts.contains(concert)) {
+					concert.setVersion(concert.getVersion() + 1);
+				}
+				concert.markClean();
+			}
+		} catch(OptimisticLockException e) {
+			clearNewIds(newPerformers, newConcerts);
+			markRollbackOnly();
+			_logger.debug(ERROR_CONCURRENT_UPDATE);
+			throw e;
+		} catch(SQLException e) {
+			clearNewIds(newPerformers, newConcerts);
+			markRollbackOnly();
+			_logger.debug(errorMessage, e);
+			throw new DAOException(errorMessage, e);
+		} finally {
+			releaseConnection(connection);
+		}
+	}
+	
+	/*
+	 * Helper method to make one attempt at a transaction for inTransaction().
+	 * The transaction is rolled back, and saved objects restored, unless the
+	 * unit of work completes without any failed operations and the commit 
+	 * succeeds.
+	 * 
+	 */
+	private <T> T runTransaction(int isolationLevel, UnitOfWork<T> work) throws DAOException {
+		PooledConnection connection = null;
+		Transaction transaction = null;
+		int previousIsolationLevel = ISOLATION_UNCHANGED;
+		boolean committed = false;
+		try {
+			connection = _connectionPool.borrow();
+			Connection jdbcConnection = connection.getConnection();
+			if(isolationLevel != ISOLATION_UNCHANGED && 
+					isolationLevel != jdbcConnection.getTransactionIsolation()) {
+				previousIsolationLevel = jdbcConnection.getTransactionIsolation();
+				jdbcConnection.setTransactionIsolation(isolationLevel);
+			}
+			jdbcConnection.setAutoCommit(false);
+			
+			transaction = new Transaction(connection);
+			_transaction.set(transaction);
+			T result = work.execute(this);
+			if(transaction._rollbackOnly) {
+				throw new DAOException(ERROR_TRANSACTION_ROLLED_BACK);
+			}
+			
+			jdbcConnection.commit();
+			committed = true;
+			return result;
+		} catch(SQLException e) {
+			_logger.debug(ERROR_TRANSACTION, e);
+			throw new DAOException(ERROR_TRANSACTION, e);
+		} finally {
+			_transaction.remove();
+			if(transaction != null && !committed) {
+				transaction.restoreSavedObjects();
+			}
+			if(previousIsolationLevel != ISOLATION_UNCHANGED) {
+				try {
+					connection.getConnection().rollback();
+					connection.getConnection().setTransactionIsolation(previousIsolationLevel);
+				} catch(SQLException e) {
+					_logger.debug("Unable to restore isolation level", e);
+				}
+			}
+			_connectionPool.release(connection);
+		}
+	}
+	
+	/*
+	 * Helper method to decide whether a failed transaction is worth retrying:
+	 * whether it failed because of a deadlock, a lock timeout, or, with 
+	 * MVStore, a concurrent update to the same row.
+	 * 
+	 */
+	static boolean isRetryable(DAOException e) {
+		for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+			if(cause instanceof SQLException) {
+				int errorCode = ((SQLException) cause).getErrorCode();
+				if(errorCode == ErrorCode.DEADLOCK_1 || 
+						errorCode == ErrorCode.LOCK_TIMEOUT_1 || 
+						errorCode == ErrorCode.CONCURRENT_UPDATE_1) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/*
+	 * Helper method to borrow a connection for an operation: the connection
+	 * of the current thread's transaction, if there is one, or else a 
+	 * connection from the pool.
+	 * 
+	 */
+	private PooledConnection borrowConnection() throws SQLException {
+		Transaction transaction = _transaction.get();
+		return transaction == null ? _connectionPool.borrow() : transaction._connection;
+	}
+	
+	/*
+	 * Helper method to release a connection obtained from borrowConnection().
+	 * A transaction's connection remains bound until the transaction ends.
+	 * 
+	 */
+	private void releaseConnection(PooledConnection connection) {
+		Transaction transaction = _transaction.get();
+		if(transaction == null || transaction._connection != connection) {
+			_connectionPool.release(connection);
+		}
+	}
+	
+	/*
+	 * Helper method to commit an operation's changes, unless the operation
+	 * is part of a transaction, in which case inTransaction() commits.
+	 * 
+	 */
+	private void commit(PooledConnection connection) throws SQLException {
+		if(_transaction.get() == null) {
+			connection.getConnection().commit();
+		}
+	}
+	
+	/*
+	 * Helper method to mark the current thread's transaction, if any, for 
+	 * rollback. Called when an operation fails, as the operation may have 
+	 * been partly applied.
+	 * 
+	 */
+	private void markRollbackOnly() {
+		Transaction transaction = _transaction.get();
+		if(transaction != null) {
+			transaction._rollbackOnly = true;
+		}
+	}
+	
+	/*
+	 * Helper method to delete Concerts, and optionally their orphaned 
+	 * Performers, in a single transaction. 
+	 * 
+	 * The Performers are locked before any Concert is deleted, so that locks 
+	 * are taken in the same order as by saveConcerts(): PERFORMER, then 
+	 * CONCERT. The Performers that are no longer referenced are then deleted
+	 * with one set-based statement.
+	 * 
+	 */
+	private void deleteConcerts(Collection<Concert> concerts, String errorMessage) throws DAOException {
+		PooledConnection connection = null;
+		try {
+			connection = borrowConnection();
+			connection.getConnection().setAutoCommit(false);
+			
+			Set<Long> performerIds = new TreeSet<Long>();
+			if(_deleteOrphanedPerformers) {
+				for(Concert concert : concerts) {
+					Performer performer = concert.getPerformer();
+					if(performer != null && performer.getId() != null) {
+						performerIds.add(performer.getId());
+					}
+				}
+				for(Long id : performerIds) {
+					lockPerformer(connection, id);
+				}
+			}
+			
+			PreparedStatement statement = prepareBatch(connection, SQL_DELETE_CONCERT);
+			for(Concert concert : concerts) {
+				statement.setLong(1, concert.getId());
+				statement.addBatch();
+			}
+			statement.executeBatch();
+			
+			if(!performerIds.isEmpty()) {
+				PreparedStatement deleteOrphans = connection.prepareStatement(SQL_DELETE_ORPHANED_PERFORMERS_IN);
+				deleteOrphans.setObject(1, performerIds.toArray());
+				deleteOrphans.executeUpdate();
+			}
+			
+			commit(connection);
+		} catch(SQLException e) {
+			markRollbackOnly();
+			_logger.debug(errorMessage, e);
+			throw new DAOException(errorMessage, e);
+		} finally {
+			releaseConnection(connection);
+		}
+	}
+	
+	/*
+	 * Helper method to obtain a cached PreparedStatement for use in a batch.
+	 * Any batch left over from a previously failed operation is discarded.
+	 * 
+	 */
+	private PreparedStatement prepareBatch(PooledConnection connection, String sql) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql);
+		statement.clearBatch();
+		return statement;
+	}
+	
+	/*
+	 * Helper method to clear the IDs given to new objects by a failed save.
+	 * The transaction is rolled back when the connection is released, so 
+	 * none of the new objects were stored.
+	 * 
+	 */
+	private void clearNewIds(Set<Performer> newPerformers, Set<Concert> newConcerts) {
+		for(Performer performer : newPerformers) {
+			performer.setId(null);
+		}
+		for(Concert concert : newConcerts) {
+			concert.setId(null);
 		}
 	}
 	
 	/*
-	 * Helper method to generate the next primary key value for the Concert
-	 * table.
+	 * Helper method to execute batches prepared by prepareUpdateBatch(). Each
+	 * update must match exactly one row; an update that matches none means
+	 * the row's version has moved on, or that the row has been deleted.
 	 * 
 	 */
-	private long getNextPrimaryKeyForConcert() throws SQLException {
-		Statement statement = _jdbcConnection.createStatement();
-		ResultSet rs = statement.executeQuery(SQL_GET_LARGEST_PRIMARY_KEY_VALUE_FOR_CONCERT);
-		rs.next();
-		long key = rs.getLong(1);
+	private void executeUpdateBatches(Map<String, PreparedStatement> batches) throws SQLException, OptimisticLockException {
+		for(PreparedStatement batch : batches.values()) {
+			for(int count : batch.executeBatch()) {
+				if(count == 0) {
+					throw new OptimisticLockException(ERROR_CONCURRENT_UPDATE);
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Helper method to obtain a cached PreparedStatement for a batch of 
+	 * updates to the given columns of a table. Rows are matched on idColumn
+	 * and, for optimistic concurrency control, on versionColumn, which the 
+	 * update increments. Batches are collected in the batches map, keyed on
+	 * their SQL, so that entities with the same modified columns share a 
+	 * batch.
+	 * 
+	 */
+	private PreparedStatement prepareUpdateBatch(PooledConnection connection, 
+			Map<String, PreparedStatement> batches, String table, 
+			List<String> columns, String idColumn, String versionColumn) throws SQLException {
+		StringBuffer buffer = new StringBuffer("UPDATE ");
+		buffer.append(table);
+		buffer.append(" SET ");
+		for(int i = 0; i < columns.size(); i++) {
+			if(i > 0) {
+				buffer.append(", ");
+			}
+			buffer.append(columns.get(i));
+			buffer.append(" = ?");
+		}
+		buffer.append(", ");
+		buffer.append(versionColumn);
+		buffer.append(" = ");
+		buffer.append(versionColumn);
+		buffer.append(" + 1 WHERE ");
+		buffer.append(idColumn);
+		buffer.append(" = ? AND ");
+		buffer.append(versionColumn);
+		buffer.append(" = ?");
+		String sql = buffer.toString();
 		
-		return key + 1;
+		PreparedStatement statement = batches.get(sql);
+		if(statement == null) {
+			statement = prepareBatch(connection, sql);
+			batches.put(sql, statement);
+		}
+		return statement;
+	}
+	
+	/*
+	 * Helper method to lock a Performer row until the current transaction
+	 * ends.
+	 * 
+	 */
+	private void lockPerformer(PooledConnection connection, long id) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(SQL_LOCK_PERFORMER);
+		statement.setLong(1, id);
+		// Only the lock is needed, not the row.
+		statement.executeQuery().close();
+	}
+	
+	private static Timestamp toTimestamp(LocalDateTime date) {
+		return new Timestamp(date.toDateTime().getMillis());
 	}
 	
 	/*
-	 * Helper method to generate the next primary key value for the Performer
-	 * table.
+	 * State of a transaction started by inTransaction(): its connection, 
+	 * whether an operation has failed, and how to restore the objects saved
+	 * in it if it's rolled back.
 	 * 
 	 */
-	private long getNextPrimaryKeyForPerformer() throws SQLException {
-		Statement statement = _jdbcConnection.createStatement();
-		ResultSet rs = statement.executeQuery(SQL_GET_LARGEST_PRIMARY_KEY_VALUE_FOR_PERFORMER);
-		rs.next();
-		long key = rs.getLong(1);
+	private static class Transaction {
+		final PooledConnection _connection;
+		boolean _rollbackOnly = false;
+		final List<Runnable> _restorers = new ArrayList<Runnable>();
+		
+		Transaction(PooledConnection connection) {
+			_connection = connection;
+		}
+		
+		void onRollback(Performer performer, boolean isNew) {
+			long version = performer.getVersion();
+			_restorers.add(() -> {
+				if(isNew) {
+					performer.setId(null);
+				}
+				performer.setVersion(version);
+				performer.markDirty();
+			});
+		}
 		
-		return key + 1;
+		void onRollback(Concert concert, boolean isNew) {
+			long version = concert.getVersion();
+			_restorers.add(() -> {
+				if(isNew) {
+					concert.setId(null);
+				}
+				concert.setVersion(version);
+				concert.markDirty();
+			});
+		}
+		
+		/*
+		 * Restores saved objects, most recently saved first, so that objects
+		 * saved more than once end up in their state before the transaction.
+		 * 
+		 */
+		void restoreSavedObjects() {
+			for(int i = _restorers.size() - 1; i >= 0; i--) {
+				_restorers.get(i).run();
+			}
+		}
 	}
 
 }
@@ -0,0 +1,38 @@
+package nz.ac.auckland.concert;
+
+import java.sql.SQLException;
+
+/**
+ * Interface for a strategy that generates primary key values for new rows.
+ * 
+ * Implementations must be thread-safe, and must never return the same key
+ * twice for a given table, even when several JDBCConcertDAOs write to the 
+ * same database concurrently.
+ *
+ */
+public interface KeyGenerator {
+
+	/**
+	 * Returns the next unused primary key value.
+	 * 
+	 * @param connection a connection to the database, which the generator may
+	 * use if it needs to allocate more keys. It may be part of a transaction,
+	 * so the generator must not run DDL on it.
+	 * 
+	 * @throws SQLException if there's an error allocating keys.
+	 * 
+	 */
+	public long nextKey(PooledConnection connection) throws SQLException;
+	
+	/**
+	 * Creates any database objects the generator needs, if they don't 
+	 * already exist. Called by JDBCConcertDAO.initialiseSchema(), outside 
+	 * any transaction.
+	 * 
+	 * @param connection an autocommit connection to the database.
+	 * 
+	 * @throws SQLException if there's an error creating the objects.
+	 * 
+	 */
+	public void initialise(PooledConnection connection) throws SQLException;
+}
@@ -0,0 +1,120 @@
+package nz.ac.auckland.concert;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of latencies in nanoseconds, with a bounded relative
+ * error, in the manner of HdrHistogram.
+ *
+ * Values below SUB_BUCKET_COUNT are counted exactly. Above that, each power
+ * of two range is split into SUB_BUCKET_COUNT / 2 equal buckets, so any
+ * recorded value is reported to within 1 / (SUB_BUCKET_COUNT / 2), about
+ * 1.6%. Values above MAX_VALUE, about 18 minutes, are counted as MAX_VALUE.
+ *
+ * Recording is lock-free and doesn't allocate.
+ *
+ */
+public class LatencyHistogram {
+
+	public static final long MAX_VALUE = (1L << 40) - 1;
+
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+	private final AtomicLong _totalCount = new AtomicLong();
+	private final AtomicLong _totalValue = new AtomicLong();
+	private final AtomicLong _maxValue = new AtomicLong();
+
+	/**
+	 * Records a value. Negative values are recorded as 0.
+	 *
+	 */
+	public void record(long value) {
+		value = Math.max(0, Math.min(value, MAX_VALUE));
+		_counts.incrementAndGet(indexOf(value));
+		_totalCount.incrementAndGet();
+		_totalValue.addAndGet(value);
+		_maxValue.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 *
+	 */
+	public long getCount() {
+		return _totalCount.get();
+	}
+
+	/**
+	 * Returns the largest value recorded, or 0 if none have been.
+	 *
+	 */
+	public long getMax() {
+		return _maxValue.get();
+	}
+
+	/**
+	 * Returns the mean of the values recorded, or 0 if none have been.
+	 *
+	 */
+	public double getMean() {
+		long count = _totalCount.get();
+		return count == 0 ? 0 : (double) _totalValue.get() / count;
+	}
+
+	/**
+	 * Returns the value at or below which the given percentage of recorded
+	 * values fall, or 0 if none have been recorded.
+	 *
+	 * @param percentile a percentage between 0 and 100.
+	 *
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = _totalCount.get();
+		if(count == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+
+		long cumulative = 0;
+		for(int i = 0; i < _counts.length(); i++) {
+			cumulative += _counts.get(i);
+			if(cumulative >= target) {
+				return Math.min(highestValueAt(i), getMax());
+			}
+		}
+		// Only reachable if values were recorded during the scan.
+		return getMax();
+	}
+
+	/*
+	 * Returns the index of the bucket that counts the given value.
+	 *
+	 */
+	private static int indexOf(long value) {
+		if(value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		// Shift the value so that it falls in the top half of the sub-buckets.
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+		int subBucket = (int) (value >>> shift);
+		return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (subBucket - SUB_BUCKET_HALF_COUNT);
+	}
+
+	/*
+	 * Returns the largest value counted by the bucket with the given index.
+	 *
+	 */
+	private static long highestValueAt(int index) {
+		if(index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int offset = index - SUB_BUCKET_COUNT;
+		int shift = offset / SUB_BUCKET_HALF_COUNT + 1;
+		long subBucket = offset % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
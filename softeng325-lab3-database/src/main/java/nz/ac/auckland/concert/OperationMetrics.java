@@ -0,0 +1,105 @@
+package nz.ac.auckland.concert;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics for one ConcertDAO operation, recorded by InstrumentedConcertDAO:
+ * a histogram of call latencies, and counts of calls that failed, of rows
+ * read or written and of SQL statements executed.
+ *
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	private final String _name;
+	private final LatencyHistogram _latencies = new LatencyHistogram();
+	private final AtomicLong _errors = new AtomicLong();
+	private final AtomicLong _rows = new AtomicLong();
+	private final AtomicLong _statements = new AtomicLong();
+
+	OperationMetrics(String name) {
+		_name = name;
+	}
+
+	/**
+	 * Returns the name of the operation, which is the ConcertDAO method
+	 * name.
+	 *
+	 */
+	public String getName() {
+		return _name;
+	}
+
+	/**
+	 * Returns the histogram of call latencies, in nanoseconds. Failed calls
+	 * are included.
+	 *
+	 */
+	public LatencyHistogram getLatencies() {
+		return _latencies;
+	}
+
+	public long getCount() {
+		return _latencies.getCount();
+	}
+
+	public long getErrorCount() {
+		return _errors.get();
+	}
+
+	public long getRowCount() {
+		return _rows.get();
+	}
+
+	/**
+	 * Returns the number of SQL statements executed by calls to the 
+	 * operation, or 0 if they aren't counted. A call's count includes the 
+	 * statements of any operations nested within it, such as those of an
+	 * inTransaction() unit of work.
+	 *
+	 */
+	public long getStatementCount() {
+		return _statements.get();
+	}
+
+	public double getMeanMillis() {
+		return _latencies.getMean() / NANOS_PER_MILLI;
+	}
+
+	public double getMaxMillis() {
+		return _latencies.getMax() / NANOS_PER_MILLI;
+	}
+
+	public double getMedianMillis() {
+		return _latencies.getValueAtPercentile(50) / NANOS_PER_MILLI;
+	}
+
+	public double get95thPercentileMillis() {
+		return _latencies.getValueAtPercentile(95) / NANOS_PER_MILLI;
+	}
+
+	public double get99thPercentileMillis() {
+		return _latencies.getValueAtPercentile(99) / NANOS_PER_MILLI;
+	}
+
+	public double get999thPercentileMillis() {
+		return _latencies.getValueAtPercentile(99.9) / NANOS_PER_MILLI;
+	}
+
+	void record(long latencyNanos, int rows, long statements, boolean failed) {
+		_latencies.record(latencyNanos);
+		_rows.addAndGet(rows);
+		_statements.addAndGet(statements);
+		if(failed) {
+			_errors.incrementAndGet();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: count=%d, errors=%d, rows=%d, statements=%d, mean=%.3fms, p50=%.3fms, p99=%.3fms, max=%.3fms",
+				_name, getCount(), getErrorCount(), getRowCount(), getStatementCount(),
+				getMeanMillis(), getMedianMillis(), get99thPercentileMillis(), getMaxMillis());
+	}
+}
@@ -0,0 +1,31 @@
+package nz.ac.auckland.concert;
+
+/**
+ * JMX view of the metrics for one ConcertDAO operation. Latencies are in
+ * milliseconds.
+ *
+ * @see OperationMetrics
+ *
+ */
+public interface OperationMetricsMBean {
+
+	long getCount();
+
+	long getErrorCount();
+
+	long getRowCount();
+
+	long getStatementCount();
+
+	double getMeanMillis();
+
+	double getMaxMillis();
+
+	double getMedianMillis();
+
+	double get95thPercentileMillis();
+
+	double get99thPercentileMillis();
+
+	double get999thPercentileMillis();
+}
@@ -0,0 +1,20 @@
+package nz.ac.auckland.concert;
+
+/**
+ * DAOException thrown when a Concert or Performer can't be saved because it
+ * has been changed in the datastore since it was loaded. The caller should
+ * reload the object, reapply its changes and try again.
+ *
+ */
+public class OptimisticLockException extends DAOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public OptimisticLockException() {
+		super();
+	}
+	
+	public OptimisticLockException(String message) {
+		super(message);
+	}
+}
@@ -7,6 +7,9 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  * Class to represent a Performer (an artist or band that plays at Concerts). A
  * Performer object has an ID (a database primary key value), a name, the name 
  * of an image file, and a genre.
+ * 
+ * Like Concert, a Performer tracks which of its fields have been changed
+ * since it was last loaded or saved, and the version it was loaded as.
  *
  */
 public class Performer {
@@ -16,6 +19,14 @@ public class Performer {
 	private String _s3ImageUri;
 	private Genre _genre;
 	
+	// Stored version, as for Concert.
+	private long _version;
+	
+	// Dirty flags, as for Concert.
+	private boolean _nameDirty = true;
+	private boolean _s3ImageUriDirty = true;
+	private boolean _genreDirty = true;
+	
 	public Performer(Long id, String name, String s3ImageUri, Genre genre) {
 		_id = id;
 		_name = name;
@@ -41,6 +52,7 @@ public class Performer {
 
 	public void setName(String name) {
 		_name = name;
+		_nameDirty = true;
 	}
 
 	public String getS3ImageUri() {
@@ -49,6 +61,7 @@ public class Performer {
 
 	public void setS3ImageUri(String s3ImageUri) {
 		_s3ImageUri = s3ImageUri;
+		_s3ImageUriDirty = true;
 	}
 
 	public Genre getGenre() {
@@ -57,6 +70,62 @@ public class Performer {
 
 	public void setGenre(Genre genre) {
 		_genre = genre;
+		_genreDirty = true;
+	}
+	
+	/**
+	 * Returns the version of the stored Performer that this object was loaded
+	 * from or last saved as.
+	 * 
+	 */
+	public long getVersion() {
+		return _version;
+	}
+	
+	void setVersion(long version) {
+		_version = version;
+	}
+	
+	/**
+	 * Returns true if any of this Performer's fields have changed since it 
+	 * was last loaded or saved.
+	 * 
+	 */
+	public boolean isDirty() {
+		return _nameDirty || _s3ImageUriDirty || _genreDirty;
+	}
+	
+	boolean isNameDirty() {
+		return _nameDirty;
+	}
+	
+	boolean isS3ImageUriDirty() {
+		return _s3ImageUriDirty;
+	}
+	
+	boolean isGenreDirty() {
+		return _genreDirty;
+	}
+	
+	/*
+	 * Records that this Performer's fields match the datastore.
+	 * 
+	 */
+	void markClean() {
+		_nameDirty = false;
+		_s3ImageUriDirty = false;
+		_genreDirty = false;
+	}
+	
+	/*
+	 * Records that all of this Performer's fields may differ from the 
+	 * datastore.
+	 * 
+	 */
+	void markDirty() {
+		_nameDirty = true;
+		_s3ImageUriDirty = true;
+		_genreDirty = true;
 	}
 	
 	@Override
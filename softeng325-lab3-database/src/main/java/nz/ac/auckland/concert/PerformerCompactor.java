@@ -0,0 +1,153 @@
+package nz.ac.auckland.concert;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background job that purges Performers no longer referenced by any Concert.
+ *
+ * Each run deletes orphaned Performers batchSize at a time, one transaction
+ * per batch, until none remain. Keeping transactions small bounds how long
+ * the PERFORMER table, or its rows, are locked against concurrent saves.
+ * Runs are scheduled every intervalMillis on a daemon thread, and can also be
+ * triggered directly with compact().
+ *
+ */
+public class PerformerCompactor {
+
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	private static Logger _logger = LoggerFactory
+			.getLogger(PerformerCompactor.class);
+
+	private final JDBCConcertDAO _dao;
+	private final int _batchSize;
+	private final ScheduledExecutorService _scheduler;
+
+	// Metrics.
+	private final AtomicLong _runs = new AtomicLong();
+	private final AtomicLong _reclaimed = new AtomicLong();
+	private final AtomicLong _failures = new AtomicLong();
+	private volatile int _lastReclaimed;
+
+	/**
+	 * Creates a PerformerCompactor.
+	 *
+	 * @param dao the JDBCConcertDAO whose datastore is compacted.
+	 *
+	 * @param batchSize the maximum number of Performers deleted per
+	 * transaction.
+	 *
+	 * @param intervalMillis the time between the end of one run and the start
+	 * of the next. A value of 0 or less disables scheduled runs.
+	 *
+	 */
+	public PerformerCompactor(JDBCConcertDAO dao, int batchSize, long intervalMillis) {
+		if(batchSize < 1) {
+			throw new IllegalArgumentException("Invalid batch size");
+		}
+		_dao = dao;
+		_batchSize = batchSize;
+
+		if(intervalMillis > 0) {
+			_scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "PerformerCompactor");
+				thread.setDaemon(true);
+				return thread;
+			});
+			_scheduler.scheduleWithFixedDelay(this::compactQuietly,
+					intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		} else {
+			_scheduler = null;
+		}
+	}
+
+	/**
+	 * Deletes all orphaned Performers.
+	 *
+	 * @return the number of Performers deleted.
+	 *
+	 * @throws DAOException if a batch can't be deleted. Batches deleted
+	 * before the failure remain deleted, and are included in
+	 * getReclaimedCount().
+	 *
+	 */
+	public synchronized int compact() throws DAOException {
+		int reclaimed = 0;
+		try {
+			int deleted;
+			do {
+				deleted = _dao.deleteOrphanedPerformers(_batchSize);
+				reclaimed += deleted;
+				_reclaimed.addAndGet(deleted);
+			} while(deleted == _batchSize && !Thread.currentThread().isInterrupted());
+		} catch(DAOException e) {
+			_failures.incrementAndGet();
+			throw e;
+		} finally {
+			_runs.incrementAndGet();
+			_lastReclaimed = reclaimed;
+		}
+
+		if(reclaimed > 0) {
+			_logger.info("Reclaimed " + reclaimed + " orphaned Performer(s)");
+		}
+		return reclaimed;
+	}
+
+	/**
+	 * Stops scheduled runs. A scheduled run in progress stops after its
+	 * current batch.
+	 *
+	 */
+	public void close() {
+		if(_scheduler != null) {
+			_scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the number of runs, scheduled or direct, that have completed.
+	 *
+	 */
+	public long getRunCount() {
+		return _runs.get();
+	}
+
+	/**
+	 * Returns the total number of Performers deleted.
+	 *
+	 */
+	public long getReclaimedCount() {
+		return _reclaimed.get();
+	}
+
+	/**
+	 * Returns the number of runs, scheduled or direct, that have failed.
+	 *
+	 */
+	public long getFailureCount() {
+		return _failures.get();
+	}
+
+	/**
+	 * Returns the number of Performers deleted by the most recent run.
+	 *
+	 */
+	public int getLastReclaimedCount() {
+		return _lastReclaimed;
+	}
+
+	private void compactQuietly() {
+		try {
+			compact();
+		} catch(DAOException e) {
+			_logger.warn("Unable to compact Performers", e);
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package nz.ac.auckland.concert;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A JDBC connection managed by a ConnectionPool, together with a cache of the
+ * PreparedStatements created on it.
+ *
+ * prepareStatement() returns the cached PreparedStatement for a given SQL
+ * string, preparing it only the first time it's requested. Callers must
+ * therefore not close the statements they're given, although they should
+ * close any ResultSets. Cached statements are closed when they're evicted
+ * from the cache, which holds at most maxStatements entries in
+ * least-recently-used order, and when the PooledConnection is closed.
+ *
+ * While its pool is counting statements, the statements returned by 
+ * prepareStatement() count their executions, both on the PooledConnection 
+ * and on the pool. An executeBatch() call counts as one statement. Statements
+ * created directly on the JDBC connection aren't counted.
+ *
+ * A PooledConnection is used by one thread at a time: the thread that has
+ * borrowed it from its pool.
+ *
+ */
+public class PooledConnection {
+
+	private static Logger _logger = LoggerFactory
+			.getLogger(PooledConnection.class);
+
+	private final ConnectionPool _pool;
+	private final Connection _connection;
+	private final Map<String, PreparedStatement> _statements;
+
+	// Statement cache counters, shared by all connections in the same pool.
+	private final AtomicLong _hits;
+	private final AtomicLong _misses;
+
+	// Statements executed on this connection while counting was on.
+	private long _statementCount;
+
+	// When this connection was last returned to its pool.
+	long _releasedAt;
+
+	PooledConnection(ConnectionPool pool, Connection connection,
+			final int maxStatements, AtomicLong hits, AtomicLong misses) {
+		_pool = pool;
+		_connection = connection;
+		_hits = hits;
+		_misses = misses;
+		_statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if(size() > maxStatements) {
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the underlying JDBC connection.
+	 *
+	 */
+	public Connection getConnection() {
+		return _connection;
+	}
+
+	/**
+	 * Returns a PreparedStatement for the given SQL, preparing it if it's not
+	 * already in this connection's cache. The statement must not be closed
+	 * by the caller.
+	 *
+	 * @param sql the SQL statement.
+	 *
+	 * @throws SQLException if the statement can't be prepared.
+	 *
+	 */
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		PreparedStatement statement = _statements.get(sql);
+		if(statement != null && !statement.isClosed()) {
+			_hits.incrementAndGet();
+		} else {
+			_misses.incrementAndGet();
+			statement = _connection.prepareStatement(sql);
+			_statements.put(sql, statement);
+		}
+		return _pool.isCountingStatements() ? new CountingPreparedStatement(statement, this) : statement;
+	}
+
+	/**
+	 * Returns the number of statements executed on this connection while its
+	 * pool was counting statements.
+	 *
+	 */
+	public long getStatementCount() {
+		return _statementCount;
+	}
+
+	/*
+	 * Called by a CountingPreparedStatement each time it's executed, on the
+	 * thread that has borrowed this connection.
+	 *
+	 */
+	void statementExecuted() {
+		_statementCount++;
+		_pool.statementExecuted();
+	}
+
+	/**
+	 * Returns the number of statements currently cached on this connection.
+	 *
+	 */
+	public int getCachedStatementCount() {
+		return _statements.size();
+	}
+
+	/*
+	 * Closes all cached statements and then the underlying connection.
+	 *
+	 */
+	void close() {
+		for(PreparedStatement statement : _statements.values()) {
+			closeQuietly(statement);
+		}
+		_statements.clear();
+
+		try {
+			_connection.close();
+		} catch(SQLException e) {
+			_logger.debug("Unable to close connection", e);
+		}
+	}
+
+	private static void closeQuietly(PreparedStatement statement) {
+		try {
+			statement.close();
+		} catch(SQLException e) {
+			_logger.debug("Unable to close statement", e);
+		}
+	}
+}
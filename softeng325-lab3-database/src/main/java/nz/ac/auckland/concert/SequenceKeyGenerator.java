@@ -0,0 +1,146 @@
+package nz.ac.auckland.concert;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.api.ErrorCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * KeyGenerator backed by a database sequence.
+ * 
+ * The sequence is incremented by allocationSize, so that each value it 
+ * returns reserves a block of allocationSize keys. Keys are then handed out 
+ * from the current block in memory, and the database is only queried when a
+ * block is exhausted (hi/lo allocation). With an allocationSize of 1, every
+ * key is read directly from the sequence.
+ * 
+ * Because blocks are reserved by the database, separate generators - in the
+ * same or different processes - never hand out the same key. Keys reserved 
+ * but not used before the generator is discarded are lost, leaving gaps. 
+ * 
+ * The sequence is created by initialise(), starting after the largest key 
+ * already in the table. If it already exists, its definition is kept, and 
+ * the size of each block is its increment rather than allocationSize; the 
+ * increment is read from the database on first use, so generators with 
+ * different allocationSizes can safely share a sequence.
+ *
+ */
+public class SequenceKeyGenerator implements KeyGenerator {
+
+	private static Logger _logger = LoggerFactory
+			.getLogger(SequenceKeyGenerator.class);
+	
+	private static final String SQL_SELECT_INCREMENT = "SELECT INCREMENT FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = ?";
+
+	private final String _sequenceName;
+	private final String _tableName;
+	private final int _allocationSize;
+	
+	private final String _sqlNextValue;
+	
+	// Next key to hand out, and the end (exclusive) of the current block.
+	// Guarded by this.
+	private long _next = 0;
+	private long _limit = 0;
+	
+	// The sequence's increment, and so the size of each block, or 0 until
+	// it has been read from the database. Guarded by this.
+	private long _increment = 0;
+
+	/**
+	 * Creates a SequenceKeyGenerator.
+	 * 
+	 * @param sequenceName the name of the sequence.
+	 * 
+	 * @param tableName the table whose primary key column, ID, the keys are
+	 * for.
+	 * 
+	 * @param allocationSize the number of keys reserved by each query on the
+	 * sequence.
+	 * 
+	 */
+	public SequenceKeyGenerator(String sequenceName, String tableName, int allocationSize) {
+		if(allocationSize < 1) {
+			throw new IllegalArgumentException("Invalid allocation size: " + allocationSize);
+		}
+		_sequenceName = sequenceName.toUpperCase();
+		_tableName = tableName;
+		_allocationSize = allocationSize;
+		_sqlNextValue = "SELECT NEXT VALUE FOR " + sequenceName;
+	}
+	
+	public int getAllocationSize() {
+		return _allocationSize;
+	}
+
+	@Override
+	public synchronized long nextKey(PooledConnection connection) throws SQLException {
+		if(_next >= _limit) {
+			if(_increment == 0) {
+				_increment = readIncrement(connection);
+			}
+			_next = nextSequenceValue(connection);
+			_limit = _next + _increment;
+		}
+		return _next++;
+	}
+	
+	/**
+	 * Creates the sequence, starting after the largest ID in the table, if it
+	 * doesn't already exist. Creating a sequence is DDL, which commits any
+	 * open transaction, so this should be called on an autocommit connection
+	 * when the schema is set up; nextKey() never creates the sequence.
+	 * 
+	 */
+	@Override
+	public void initialise(PooledConnection connection) throws SQLException {
+		try(Statement statement = connection.getConnection().createStatement()) {
+			long start;
+			try(ResultSet rs = statement.executeQuery("SELECT MAX(ID) FROM " + _tableName)) {
+				rs.next();
+				start = rs.getLong(1) + 1;
+			}
+			statement.executeUpdate("CREATE SEQUENCE IF NOT EXISTS " + _sequenceName
+					+ " START WITH " + start + " INCREMENT BY " + _allocationSize);
+			_logger.debug("Initialised sequence " + _sequenceName);
+		}
+	}
+	
+	/*
+	 * Returns the sequence's increment: the number of keys each of its 
+	 * values reserves.
+	 * 
+	 */
+	private long readIncrement(PooledConnection connection) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(SQL_SELECT_INCREMENT);
+		statement.setString(1, _sequenceName);
+		try(ResultSet rs = statement.executeQuery()) {
+			if(!rs.next()) {
+				throw new SQLException("Sequence " + _sequenceName + " not found; "
+						+ "initialise the schema before generating keys",
+						null, ErrorCode.SEQUENCE_NOT_FOUND_1);
+			}
+			long increment = rs.getLong(1);
+			if(increment < 1) {
+				throw new SQLException("Sequence " + _sequenceName + " has unusable increment " + increment);
+			}
+			if(increment != _allocationSize) {
+				_logger.debug("Sequence " + _sequenceName + " has increment " + increment 
+						+ "; allocating blocks of that size rather than " + _allocationSize);
+			}
+			return increment;
+		}
+	}
+	
+	private long nextSequenceValue(PooledConnection connection) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(_sqlNextValue);
+		try(ResultSet rs = statement.executeQuery()) {
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+}
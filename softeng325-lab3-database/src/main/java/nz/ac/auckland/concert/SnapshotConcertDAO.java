@@ -0,0 +1,536 @@
+package nz.ac.auckland.concert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.joda.time.LocalDateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConcertDAO decorator that serves queries from an in-memory snapshot of all
+ * Concerts and Performers, for reporting and other read-heavy clients.
+ *
+ * The snapshot is loaded from the underlying ConcertDAO when the
+ * SnapshotConcertDAO is created, and reloaded by a background thread every
+ * refreshIntervalMillis. Queries never touch the underlying ConcertDAO, so
+ * long scans don't compete with transactional traffic for connections or
+ * locks. The price is staleness: a query reflects the datastore as it was
+ * when the current snapshot was loaded, which getStalenessMillis() reports.
+ *
+ * Snapshots are immutable. Each query returns new Concert and Performer
+ * objects, with the same Performer sharing semantics as JDBCConcertDAO, so
+ * callers may modify and save them.
+ *
+ * Writes are passed to the underlying ConcertDAO and become visible to
+ * queries after the next refresh; call refresh() to read your own writes
+ * straight away.
+ *
+ * By default snapshots are loaded from the underlying ConcertDAO, so each
+ * refresh holds one of its connections for a full scan. Where that would
+ * stall writes, as with a single-connection pool, give the
+ * SnapshotConcertDAO a separate source ConcertDAO, with its own connections,
+ * to load snapshots from.
+ *
+ * SnapshotConcertDAO is thread-safe if the underlying ConcertDAO is.
+ *
+ */
+public class SnapshotConcertDAO implements ConcertDAO {
+
+	private static Logger _logger = LoggerFactory
+			.getLogger(SnapshotConcertDAO.class);
+
+	private final ConcertDAO _delegate;
+	private final ConcertDAO _source;
+	private final ScheduledExecutorService _refresher;
+
+	// The current snapshot, replaced wholesale by each refresh.
+	private volatile Snapshot _snapshot;
+
+	// Metrics.
+	private final AtomicLong _refreshes = new AtomicLong();
+	private final AtomicLong _refreshFailures = new AtomicLong();
+
+	/**
+	 * Creates a SnapshotConcertDAO and loads its first snapshot.
+	 *
+	 * @param delegate the ConcertDAO to load snapshots from and to pass
+	 * writes to.
+	 *
+	 * @param refreshIntervalMillis the time between the end of one refresh
+	 * and the start of the next. A value of 0 or less disables periodic
+	 * refreshes, leaving refresh() to be called explicitly.
+	 *
+	 * @throws DAOException if the first snapshot can't be loaded.
+	 *
+	 */
+	public SnapshotConcertDAO(ConcertDAO delegate, long refreshIntervalMillis) throws DAOException {
+		this(delegate, delegate, refreshIntervalMillis);
+	}
+
+	/**
+	 * Creates a SnapshotConcertDAO that loads its snapshots from a different
+	 * ConcertDAO to the one it passes writes to.
+	 *
+	 * @param delegate the ConcertDAO to pass writes to.
+	 *
+	 * @param source the ConcertDAO to load snapshots from, which should read
+	 * the same datastore as delegate through its own connections. It's
+	 * closed along with delegate.
+	 *
+	 * @see SnapshotConcertDAO(ConcertDAO, long)
+	 *
+	 */
+	public SnapshotConcertDAO(ConcertDAO delegate, ConcertDAO source, long refreshIntervalMillis) throws DAOException {
+		_delegate = delegate;
+		_source = source;
+		refresh();
+
+		if(refreshIntervalMillis > 0) {
+			_refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "SnapshotConcertDAO-refresher");
+				thread.setDaemon(true);
+				return thread;
+			});
+			_refresher.scheduleWithFixedDelay(this::refreshQuietly,
+					refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+		} else {
+			_refresher = null;
+		}
+	}
+
+	/**
+	 * @see ConcertDAO.save()
+	 *
+	 */
+	public void save(Concert concert) throws DAOException {
+		_delegate.save(concert);
+	}
+
+	/**
+	 * @see ConcertDAO.saveAll()
+	 *
+	 */
+	public void saveAll(Collection<Concert> concerts) throws DAOException {
+		_delegate.saveAll(concerts);
+	}
+
+	/**
+	 * @see ConcertDAO.getById()
+	 *
+	 */
+	public Concert getById(long id) throws DAOException {
+		Snapshot snapshot = _snapshot;
+		ConcertState concert = snapshot.concertsById.get(id);
+		return concert == null ? null : snapshot.toConcert(concert, new HashMap<Long, Performer>());
+	}
+
+	/**
+	 * @see ConcertDAO.getAll()
+	 *
+	 */
+	public List<Concert> getAll() throws DAOException {
+		Snapshot snapshot = _snapshot;
+		return snapshot.toConcerts(snapshot.concerts);
+	}
+
+	/**
+	 * Passed to the underlying ConcertDAO, as the snapshot holds only
+	 * Performers that have Concerts.
+	 *
+	 * @see ConcertDAO.getAllPerformers()
+	 *
+	 */
+	public List<Performer> getAllPerformers() throws DAOException {
+		return _delegate.getAllPerformers();
+	}
+
+	/**
+	 * @see ConcertDAO.getPage()
+	 *
+	 */
+	public List<Concert> getPage(Concert after, int pageSize) throws DAOException {
+		Snapshot snapshot = _snapshot;
+		int from = after == null ? 0 : snapshot.indexAfter(after.getTitle(), after.getId());
+		int to = (int) Math.min((long) from + pageSize, snapshot.concerts.size());
+		return snapshot.toConcerts(snapshot.concerts.subList(from, Math.max(from, to)));
+	}
+
+	/**
+	 * @see ConcertDAO.findByGenre()
+	 *
+	 */
+	public List<Concert> findByGenre(Genre genre) throws DAOException {
+		Snapshot snapshot = _snapshot;
+		List<ConcertState> matches = new ArrayList<ConcertState>();
+		for(ConcertState concert : snapshot.concerts) {
+			PerformerState performer = snapshot.performer(concert);
+			if(performer != null && performer.genre == genre) {
+				matches.add(concert);
+			}
+		}
+		return snapshot.toConcerts(matches);
+	}
+
+	/**
+	 * @see ConcertDAO.findByPerformer()
+	 *
+	 */
+	public List<Concert> findByPerformer(Performer performer) throws DAOException {
+		Snapshot snapshot = _snapshot;
+		List<ConcertState> matches = new ArrayList<ConcertState>();
+		for(ConcertState concert : snapshot.concerts) {
+			if(concert.performerId != null && concert.performerId.equals(performer.getId())) {
+				matches.add(concert);
+			}
+		}
+		return snapshot.toConcerts(matches);
+	}
+
+	/**
+	 * @see ConcertDAO.findBetween()
+	 *
+	 */
+	public List<Concert> findBetween(LocalDateTime from, LocalDateTime to) throws DAOException {
+		Snapshot snapshot = _snapshot;
+		List<ConcertState> matches = new ArrayList<ConcertState>();
+		for(ConcertState concert : snapshot.concerts) {
+			if(!concert.date.isBefore(from) && concert.date.isBefore(to)) {
+				matches.add(concert);
+			}
+		}
+		// The sort is stable, so Concerts on the same date stay in title
+		// order.
+		Collections.sort(matches, Comparator.comparing((ConcertState concert) -> concert.date));
+		return snapshot.toConcerts(matches);
+	}
+
+	/**
+	 * @see ConcertDAO.findByIds()
+	 *
+	 */
+	public List<Concert> findByIds(Collection<Long> ids) throws DAOException {
+		Snapshot snapshot = _snapshot;
+		List<ConcertState> matches = new ArrayList<ConcertState>();
+		for(Long id : new TreeSet<Long>(ids)) {
+			ConcertState concert = snapshot.concertsById.get(id);
+			if(concert != null) {
+				matches.add(concert);
+			}
+		}
+		return snapshot.toConcerts(matches);
+	}
+
+	/**
+	 * @see ConcertDAO.forEach()
+	 *
+	 */
+	public void forEach(Consumer<? super Concert> action) throws DAOException {
+		Snapshot snapshot = _snapshot;
+		for(ConcertState concert : snapshot.concerts) {
+			action.accept(snapshot.toConcert(concert, new HashMap<Long, Performer>()));
+		}
+	}
+
+	/**
+	 * Scores every Concert in the snapshot against the query.
+	 *
+	 * @see ConcertDAO.search()
+	 *
+	 */
+	public List<Concert> search(String query, int offset, int pageSize) throws DAOException {
+		ConcertSearchIndex.checkOffset(offset);
+		Snapshot snapshot = _snapshot;
+		List<String> words = ConcertSearchIndex.tokenize(query);
+		List<ConcertSearchIndex.Hit> hits = new ArrayList<ConcertSearchIndex.Hit>();
+		if(!words.isEmpty()) {
+			for(ConcertState concert : snapshot.concerts) {
+				PerformerState performer = snapshot.performer(concert);
+				int score = ConcertSearchIndex.score(words, concert.title,
+						performer == null ? null : performer.name);
+				if(score > 0) {
+					hits.add(new ConcertSearchIndex.Hit(concert.id, concert.title, score));
+				}
+			}
+		}
+		Collections.sort(hits, ConcertSearchIndex.SEARCH_ORDER);
+
+		List<ConcertState> matches = new ArrayList<ConcertState>();
+		for(int i = offset; i < hits.size() && matches.size() < pageSize; i++) {
+			matches.add(snapshot.concertsById.get(hits.get(i).getId()));
+		}
+		return snapshot.toConcerts(matches);
+	}
+
+	/**
+	 * @see ConcertDAO.deleteConcert()
+	 *
+	 */
+	public void deleteConcert(Concert concert) throws DAOException {
+		_delegate.deleteConcert(concert);
+	}
+
+	/**
+	 * @see ConcertDAO.deleteAll()
+	 *
+	 */
+	public void deleteAll(Collection<Concert> concerts) throws DAOException {
+		_delegate.deleteAll(concerts);
+	}
+
+	/**
+	 * Runs the unit of work against the underlying ConcertDAO, so that its
+	 * queries see the datastore as of the transaction rather than the
+	 * snapshot.
+	 *
+	 * @see ConcertDAO.inTransaction(UnitOfWork)
+	 *
+	 */
+	public <T> T inTransaction(UnitOfWork<T> work) throws DAOException {
+		return _delegate.inTransaction(work);
+	}
+
+	/**
+	 * @see inTransaction(UnitOfWork)
+	 *
+	 */
+	public <T> T inTransaction(int isolationLevel, UnitOfWork<T> work) throws DAOException {
+		return _delegate.inTransaction(isolationLevel, work);
+	}
+
+	/**
+	 * Stops refreshing the snapshot and closes the underlying ConcertDAO,
+	 * and the source ConcertDAO if there's a separate one.
+	 *
+	 * @see ConcertDAO.close()
+	 *
+	 */
+	public void close() throws DAOException {
+		if(_refresher != null) {
+			_refresher.shutdownNow();
+		}
+		try {
+			_delegate.close();
+		} finally {
+			if(_source != _delegate) {
+				_source.close();
+			}
+		}
+	}
+
+	/**
+	 * Loads a new snapshot from the source ConcertDAO. Queries continue
+	 * to use the previous snapshot until the new one has been loaded.
+	 *
+	 * @throws DAOException if the snapshot can't be loaded, in which case
+	 * the previous snapshot remains in use.
+	 *
+	 */
+	public void refresh() throws DAOException {
+		long loadedAt = System.currentTimeMillis();
+		List<ConcertState> concerts = new ArrayList<ConcertState>();
+		Map<Long, PerformerState> performers = new HashMap<Long, PerformerState>();
+
+		// forEach() streams the Concerts in getAll() order, which is the order
+		// the snapshot keeps them in.
+		try {
+			_source.forEach(concert -> {
+				concerts.add(new ConcertState(concert));
+				Performer performer = concert.getPerformer();
+				if(performer != null && !performers.containsKey(performer.getId())) {
+					performers.put(performer.getId(), new PerformerState(performer));
+				}
+			});
+		} catch(DAOException e) {
+			_refreshFailures.incrementAndGet();
+			throw e;
+		}
+
+		_snapshot = new Snapshot(concerts, performers, loadedAt);
+		_refreshes.incrementAndGet();
+	}
+
+	/**
+	 * Returns how out of date the current snapshot may be: the time since it
+	 * started loading, in milliseconds.
+	 *
+	 */
+	public long getStalenessMillis() {
+		return System.currentTimeMillis() - _snapshot.loadedAt;
+	}
+
+	/**
+	 * Returns the number of Concerts in the current snapshot.
+	 *
+	 */
+	public int getSize() {
+		return _snapshot.concerts.size();
+	}
+
+	/**
+	 * Returns the number of snapshots loaded, including the first.
+	 *
+	 */
+	public long getRefreshCount() {
+		return _refreshes.get();
+	}
+
+	/**
+	 * Returns the number of refreshes that failed.
+	 *
+	 */
+	public long getRefreshFailureCount() {
+		return _refreshFailures.get();
+	}
+
+	/*
+	 * Periodic refresh task. A failed refresh leaves the previous snapshot in
+	 * place, to be retried at the next interval.
+	 *
+	 */
+	private void refreshQuietly() {
+		try {
+			refresh();
+		} catch(DAOException e) {
+			_logger.debug("Unable to refresh Concert snapshot", e);
+		}
+	}
+
+	/*
+	 * An immutable copy of all Concerts, ordered as for getAll(), and of
+	 * their Performers.
+	 *
+	 */
+	private static class Snapshot {
+		final List<ConcertState> concerts;
+		final Map<Long, ConcertState> concertsById;
+		final Map<Long, PerformerState> performersById;
+		final long loadedAt;
+
+		Snapshot(List<ConcertState> concerts, Map<Long, PerformerState> performers, long loadedAt) {
+			this.concerts = Collections.unmodifiableList(concerts);
+			this.performersById = Collections.unmodifiableMap(performers);
+			this.loadedAt = loadedAt;
+
+			Map<Long, ConcertState> concertsById = new HashMap<Long, ConcertState>();
+			for(ConcertState concert : concerts) {
+				concertsById.put(concert.id, concert);
+			}
+			this.concertsById = Collections.unmodifiableMap(concertsById);
+		}
+
+		PerformerState performer(ConcertState concert) {
+			return concert.performerId == null ? null : performersById.get(concert.performerId);
+		}
+
+		/*
+		 * Returns the index of the first Concert ordered after the given
+		 * title and ID, using the same ordering as getAll().
+		 *
+		 */
+		int indexAfter(String title, Long id) {
+			int low = 0;
+			int high = concerts.size();
+			while(low < high) {
+				int mid = (low + high) >>> 1;
+				ConcertState concert = concerts.get(mid);
+				int comparison = concert.title.compareTo(title);
+				if(comparison < 0 || (comparison == 0 && concert.id <= id)) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		List<Concert> toConcerts(List<ConcertState> states) {
+			Map<Long, Performer> performers = new HashMap<Long, Performer>();
+			List<Concert> concerts = new ArrayList<Concert>(states.size());
+			for(ConcertState state : states) {
+				concerts.add(toConcert(state, performers));
+			}
+			return concerts;
+		}
+
+		/*
+		 * Creates a Concert from its state. Performers are looked up in, and
+		 * added to, the performers map, so that they're shared across the
+		 * Concerts created with the same map.
+		 *
+		 */
+		Concert toConcert(ConcertState state, Map<Long, Performer> performers) {
+			Performer performer = null;
+			PerformerState performerState = performer(state);
+			if(performerState != null) {
+				performer = performers.get(performerState.id);
+				if(performer == null) {
+					performer = performerState.toPerformer();
+					performers.put(performerState.id, performer);
+				}
+			}
+			Concert concert = new Concert(state.id, state.title, state.date, performer);
+			concert.setVersion(state.version);
+			concert.markClean();
+			return concert;
+		}
+	}
+
+	/*
+	 * Snapshot state of a Concert. The Performer is referenced by ID.
+	 *
+	 */
+	private static class ConcertState {
+		final Long id;
+		final String title;
+		final LocalDateTime date;
+		final Long performerId;
+		final long version;
+
+		ConcertState(Concert concert) {
+			this.id = concert.getId();
+			this.title = concert.getTitle();
+			this.date = concert.getDate();
+			this.performerId = concert.getPerformer() == null ? null : concert.getPerformer().getId();
+			this.version = concert.getVersion();
+		}
+	}
+
+	/*
+	 * Snapshot state of a Performer.
+	 *
+	 */
+	private static class PerformerState {
+		final Long id;
+		final String name;
+		final String s3ImageUri;
+		final Genre genre;
+		final long version;
+
+		PerformerState(Performer performer) {
+			this.id = performer.getId();
+			this.name = performer.getName();
+			this.s3ImageUri = performer.getS3ImageUri();
+			this.genre = performer.getGenre();
+			this.version = performer.getVersion();
+		}
+
+		Performer toPerformer() {
+			Performer performer = new Performer(id, name, s3ImageUri, genre);
+			performer.setVersion(version);
+			performer.markClean();
+			return performer;
+		}
+	}
+}
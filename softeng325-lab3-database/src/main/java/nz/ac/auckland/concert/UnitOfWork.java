@@ -0,0 +1,29 @@
+package nz.ac.auckland.concert;
+
+/**
+ * A group of ConcertDAO operations to be run in a single transaction by
+ * ConcertDAO.inTransaction().
+ *
+ * @param <T> the type of the unit of work's result.
+ *
+ */
+public interface UnitOfWork<T> {
+
+	/**
+	 * Performs the unit of work. Operations on the given ConcertDAO join the
+	 * enclosing transaction.
+	 *
+	 * As a unit of work may be retried, it should have no side effects other
+	 * than its ConcertDAO operations, and should reload any objects it
+	 * modifies.
+	 *
+	 * @param dao the ConcertDAO to perform operations on.
+	 *
+	 * @return the result of the unit of work, returned by inTransaction().
+	 *
+	 * @throws DAOException if an operation fails, in which case the
+	 * transaction is rolled back.
+	 *
+	 */
+	public T execute(ConcertDAO dao) throws DAOException;
+}
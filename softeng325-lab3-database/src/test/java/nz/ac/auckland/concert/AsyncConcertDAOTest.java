@@ -0,0 +1,106 @@
+package nz.ac.auckland.concert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncConcertDAOTest {
+
+	private static final String DB_INIT_SCRIPT_DIRECTORY = "src/test/resources";
+	private static final String DB_INIT_SCRIPT = "db-init.sql";
+
+	private static final int MAX_CONCURRENCY = 2;
+	private static final int MAX_QUEUED = 2;
+
+	private AsyncConcertDAO _dao;
+
+	@Before
+	public void initialiseDatabase() throws DAOException {
+		File file = new File(DB_INIT_SCRIPT_DIRECTORY + "/" + DB_INIT_SCRIPT);
+		_dao = new AsyncConcertDAO(new JDBCConcertDAO(1, MAX_CONCURRENCY, file), MAX_CONCURRENCY, MAX_QUEUED);
+	}
+
+	@After
+	public void closeDatabase() throws DAOException {
+		_dao.close();
+	}
+
+	@Test
+	public void fanOutQueries() throws Exception {
+		// Issue several queries at once, then wait for them all.
+		CompletableFuture<List<Concert>> all = _dao.getAll();
+		CompletableFuture<Concert> concert = _dao.getById(1);
+		CompletableFuture<List<Concert>> rock = _dao.findByGenre(Genre.Rock);
+		CompletableFuture.allOf(all, concert, rock).get(10, TimeUnit.SECONDS);
+
+		assertEquals(22, all.get().size());
+		assertNotNull(concert.get());
+		assertEquals(3, _dao.getCompletedCount());
+		assertEquals(0, _dao.getQueueDepth());
+		assertEquals(0, _dao.getActiveCount());
+	}
+
+	@Test
+	public void rejectWhenQueueIsFull() throws Exception {
+		// Occupy every execution slot with an operation that blocks until
+		// released.
+		CountDownLatch started = new CountDownLatch(MAX_CONCURRENCY);
+		CountDownLatch release = new CountDownLatch(1);
+		List<CompletableFuture<Void>> blocked = new ArrayList<CompletableFuture<Void>>();
+		for(int i = 0; i < MAX_CONCURRENCY; i++) {
+			blocked.add(_dao.forEach(concert -> {
+				if(concert.getId() == 1) {
+					started.countDown();
+					await(release);
+				}
+			}));
+		}
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		assertEquals(MAX_CONCURRENCY, _dao.getActiveCount());
+
+		// Fill the queue; the next operation is rejected.
+		List<CompletableFuture<Concert>> queued = new ArrayList<CompletableFuture<Concert>>();
+		for(int i = 0; i < MAX_QUEUED; i++) {
+			queued.add(_dao.getById(i + 1));
+		}
+		assertEquals(MAX_QUEUED, _dao.getQueueDepth());
+
+		CompletableFuture<Concert> rejected = _dao.getById(1);
+		try {
+			rejected.get();
+			fail();
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof DAOException);
+		}
+		assertEquals(1, _dao.getRejectedCount());
+
+		// Once the blocked operations finish, the queued ones run.
+		release.countDown();
+		for(CompletableFuture<Concert> future : queued) {
+			assertNotNull(future.get(10, TimeUnit.SECONDS));
+		}
+		CompletableFuture.allOf(blocked.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+		assertEquals(0, _dao.getQueueDepth());
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package nz.ac.auckland.concert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.joda.time.LocalDateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingConcertDAOTest {
+
+	private static final String DB_INIT_SCRIPT_DIRECTORY = "src/test/resources";
+	private static final String DB_INIT_SCRIPT = "db-init.sql";
+
+	private static final int CACHE_SIZE = 10;
+	private static final long CACHE_TTL_MILLIS = 60000;
+
+	private CachingConcertDAO _dao;
+
+	@Before
+	public void initialiseDatabase() throws DAOException {
+		File file = new File(DB_INIT_SCRIPT_DIRECTORY + "/" + DB_INIT_SCRIPT);
+		_dao = new CachingConcertDAO(new JDBCConcertDAO(file), CACHE_SIZE, CACHE_TTL_MILLIS);
+	}
+
+	@After
+	public void closeDatabase() throws DAOException {
+		_dao.close();
+	}
+
+	@Test
+	public void queryCachedConcert() {
+		try {
+			// The first query misses the cache, and the second hits it.
+			Concert concert1 = _dao.getById(1);
+			Concert concert2 = _dao.getById(1);
+			assertEquals(1, _dao.getMissCount());
+			assertEquals(1, _dao.getHitCount());
+			assertEquals(0.5, _dao.getHitRatio(), 0);
+
+			// As without the cache, the DAO is expected to return 2 distinct
+			// Concert objects with the same value.
+			assertEquals(concert1, concert2);
+			assertNotSame(concert1, concert2);
+			assertNotSame(concert1.getPerformer(), concert2.getPerformer());
+			assertEquals(concert1.getDate(), concert2.getDate());
+			assertEquals(concert1.getPerformer().getName(), concert2.getPerformer().getName());
+		} catch(DAOException e) {
+			fail();
+		}
+	}
+
+	@Test
+	public void invalidateOnSave() {
+		try {
+			// Query and cache "Dangerous Woman".
+			Concert dangerousWoman = _dao.getById(11);
+
+			// Update the Concert's date and its Performer's image.
+			LocalDateTime newDate = new LocalDateTime(2017, 8, 17, 18, 30);
+			dangerousWoman.setDate(newDate);
+			dangerousWoman.getPerformer().setS3ImageUri("new_image.jpg");
+			_dao.save(dangerousWoman);
+
+			// Requerying the Concert should return the updated values.
+			Concert concert = _dao.getById(11);
+			assertEquals(newDate, concert.getDate());
+			assertEquals("new_image.jpg", concert.getPerformer().getS3ImageUri());
+			assertEquals(2, _dao.getMissCount());
+		} catch(DAOException e) {
+			fail();
+		}
+	}
+
+	@Test
+	public void invalidateOnDelete() {
+		try {
+			Concert evolve = _dao.getById(18);
+			_dao.deleteConcert(evolve);
+			assertNull(_dao.getById(18));
+		} catch(DAOException e) {
+			fail();
+		}
+	}
+
+	@Test
+	public void evictLeastRecentlyUsed() {
+		try {
+			// Query more Concerts than the cache can hold.
+			for(long id = 1; id <= CACHE_SIZE + 2; id++) {
+				_dao.getById(id);
+			}
+			assertEquals(CACHE_SIZE, _dao.getSize());
+			
+			// Each of the first 2 Concerts has been evicted, along with its
+			// Performer (all of these Concerts have different Performers).
+			assertEquals(4, _dao.getEvictionCount());
+
+			// The most recently queried Concert is still cached, but the first
+			// has been evicted.
+			long misses = _dao.getMissCount();
+			_dao.getById(CACHE_SIZE + 2);
+			assertEquals(misses, _dao.getMissCount());
+			_dao.getById(1);
+			assertEquals(misses + 1, _dao.getMissCount());
+		} catch(DAOException e) {
+			fail();
+		}
+	}
+
+	@Test
+	public void expireEntries() throws Exception {
+		CachingConcertDAO dao = new CachingConcertDAO(_dao, CACHE_SIZE, 1);
+		dao.getById(1);
+		Thread.sleep(10);
+		dao.getById(1);
+		assertEquals(2, dao.getMissCount());
+	}
+
+	@Test
+	public void invalidateAfterCommit() throws DAOException {
+		// With MVStore, a read concurrent with the transaction sees the last
+		// committed row rather than waiting for the transaction to end.
+		File file = new File(DB_INIT_SCRIPT_DIRECTORY + "/" + DB_INIT_SCRIPT);
+		CachingConcertDAO dao = new CachingConcertDAO(new JDBCConcertDAO(
+				H2Configuration.mvStoreFile("./target/h2/caching-mv"), 1, 2, file), CACHE_SIZE, CACHE_TTL_MILLIS);
+		try {
+			dao.inTransaction(transaction -> {
+				Concert concert = transaction.getById(1);
+				concert.setTitle("Renamed");
+				transaction.save(concert);
+
+				// Reads in the transaction bypass the cache, but another 
+				// thread caches the row the transaction is replacing.
+				assertEquals("Renamed", transaction.getById(1).getTitle());
+				assertEquals("Death of a Bachelor Tour", getByIdOnOtherThread(dao, 1).getTitle());
+				assertEquals(1, dao.getSize());
+				return null;
+			});
+
+			assertEquals(0, dao.getSize());
+			assertEquals("Renamed", dao.getById(1).getTitle());
+		} finally {
+			dao.close();
+		}
+	}
+
+	private static Concert getByIdOnOtherThread(ConcertDAO dao, long id) throws DAOException {
+		FutureTask<Concert> task = new FutureTask<Concert>(() -> dao.getById(id));
+		new Thread(task).start();
+		try {
+			return task.get();
+		} catch(InterruptedException | ExecutionException e) {
+			throw new DAOException("Unable to retrieve Concert", e);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package nz.ac.auckland.concert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.joda.time.LocalDateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Exercises a pooled JDBCConcertDAO from multiple threads. Each thread
+ * repeatedly queries or updates the database through a single shared DAO. 
+ * For queries, the test reports the throughput achieved with 1 to MAX_THREADS
+ * threads.
+ *
+ */
+public class ConcertDAOConcurrencyTest {
+
+	private static final String DB_INIT_SCRIPT_DIRECTORY = "src/test/resources";
+	private static final String DB_INIT_SCRIPT = "db-init.sql";
+
+	private static final int MAX_THREADS = 8;
+	private static final int OPERATIONS_PER_THREAD = 200;
+
+	private JDBCConcertDAO _dao;
+
+	@Before
+	public void initialiseDatabase() throws DAOException {
+		File file = new File(DB_INIT_SCRIPT_DIRECTORY + "/" + DB_INIT_SCRIPT);
+		_dao = new JDBCConcertDAO(1, MAX_THREADS, file);
+	}
+
+	@After
+	public void closeDatabase() throws DAOException {
+		_dao.close();
+	}
+
+	@Test
+	public void queryConcertsConcurrently() throws Exception {
+		for(int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+			long start = System.nanoTime();
+			int operations = runQueries(threads);
+			long elapsed = System.nanoTime() - start;
+
+			assertEquals(threads * OPERATIONS_PER_THREAD, operations);
+			System.out.println(String.format("%d thread(s): %.0f ops/s",
+					threads, operations / (elapsed / 1e9)));
+		}
+	}
+
+	@Test
+	public void poolIsBounded() throws Exception {
+		runQueries(MAX_THREADS * 2);
+
+		// Connections are only opened on demand, and never beyond the pool's
+		// maximum size.
+		assertTrue(_dao.getConnectionPool().getSize() <= MAX_THREADS);
+		assertEquals(_dao.getConnectionPool().getSize(), _dao.getConnectionPool().getIdleCount());
+	}
+
+	@Test
+	public void saveConcertsConcurrently() throws Exception {
+		final Performer performer = _dao.getById(1).getPerformer();
+		
+		// Insert new Concerts from several threads, each thread creating its
+		// own Performer too.
+		ExecutorService executor = Executors.newFixedThreadPool(MAX_THREADS);
+		List<Future<List<Concert>>> results = new ArrayList<Future<List<Concert>>>();
+		try {
+			for(int i = 0; i < MAX_THREADS; i++) {
+				final int thread = i;
+				results.add(executor.submit(new Callable<List<Concert>>() {
+					@Override
+					public List<Concert> call() throws DAOException {
+						List<Concert> concerts = new ArrayList<Concert>();
+						Performer newPerformer = new Performer("Performer " + thread, "image.jpg", Genre.Rock);
+						for(int j = 0; j < OPERATIONS_PER_THREAD / 2; j++) {
+							Concert concert = new Concert("Concert " + thread + "-" + j,
+									new LocalDateTime(2018, 1, 1, 20, 0), j % 2 == 0 ? performer : newPerformer);
+							_dao.save(concert);
+							concerts.add(concert);
+						}
+						return concerts;
+					}
+				}));
+			}
+		} finally {
+			executor.shutdown();
+		}
+		
+		// Every new Concert must have been given a distinct ID, and must be
+		// retrievable by it.
+		Set<Long> ids = new HashSet<Long>();
+		for(Future<List<Concert>> result : results) {
+			for(Concert concert : result.get()) {
+				assertTrue(ids.add(concert.getId()));
+				assertEquals(concert, _dao.getById(concert.getId()));
+			}
+		}
+		assertEquals(22 + MAX_THREADS * (OPERATIONS_PER_THREAD / 2), _dao.getAll().size());
+	}
+
+	/*
+	 * Runs OPERATIONS_PER_THREAD alternating getAll() and getById() calls on
+	 * each of the given number of threads, checking each result, and returns
+	 * the total number of operations completed.
+	 *
+	 */
+	private int runQueries(int threads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for(int i = 0; i < threads; i++) {
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws DAOException {
+						for(int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+							if(j % 2 == 0) {
+								assertEquals(22, _dao.getAll().size());
+							} else {
+								Concert concert = _dao.getById(j % 22 + 1);
+								assertNotNull(concert);
+								assertNotNull(concert.getPerformer());
+							}
+						}
+						return OPERATIONS_PER_THREAD;
+					}
+				}));
+			}
+
+			int operations = 0;
+			for(Future<Integer> result : results) {
+				operations += result.get();
+			}
+			return operations;
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
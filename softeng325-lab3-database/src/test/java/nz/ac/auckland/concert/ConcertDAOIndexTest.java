@@ -0,0 +1,88 @@
+package nz.ac.auckland.concert;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks, using H2's EXPLAIN command, that the finder queries of 
+ * JDBCConcertDAO use indexes rather than scanning the CONCERT table.
+ *
+ */
+public class ConcertDAOIndexTest {
+	
+	private static final String DB_INIT_SCRIPT_DIRECTORY = "src/test/resources";
+	private static final String DB_INIT_SCRIPT = "db-init.sql";
+	
+	private JDBCConcertDAO _dao;
+	
+	@Before
+	public void initialiseDatabase() throws DAOException {
+		File file = new File(DB_INIT_SCRIPT_DIRECTORY + "/" + DB_INIT_SCRIPT);
+		_dao = new JDBCConcertDAO(file);
+	}
+	
+	@After
+	public void closeDatabase() throws DAOException {
+		_dao.close();
+	}
+	
+	@Test
+	public void findByGenreUsesIndex() throws SQLException {
+		String plan = explain(JDBCConcertDAO.SQL_SELECT_CONCERTS_BY_GENRE);
+		assertTrue(plan, plan.contains("IDX_PERFORMER_GENRE"));
+		assertFalse(plan, plan.contains("CONCERT.tableScan"));
+	}
+	
+	@Test
+	public void findByPerformerUsesIndex() throws SQLException {
+		// This query uses the index on the foreign key column, which H2 
+		// creates along with the foreign key constraint.
+		String plan = explain(JDBCConcertDAO.SQL_SELECT_CONCERTS_BY_PERFORMER);
+		assertTrue(plan, plan.contains("FK_PERFORMER_ID = ?1 */"));
+		assertFalse(plan, plan.contains("tableScan"));
+	}
+	
+	@Test
+	public void findBetweenUsesIndex() throws SQLException {
+		String plan = explain(JDBCConcertDAO.SQL_SELECT_CONCERTS_BETWEEN);
+		assertTrue(plan, plan.contains("IDX_CONCERT_DATE"));
+		assertFalse(plan, plan.contains("tableScan"));
+	}
+	
+	@Test
+	public void findByIdsUsesIndex() throws SQLException {
+		String plan = explain(JDBCConcertDAO.SQL_SELECT_CONCERTS_BY_IDS);
+		assertTrue(plan, plan.contains("PRIMARY_KEY"));
+		assertFalse(plan, plan.contains("CONCERT.tableScan"));
+	}
+	
+	/*
+	 * Returns H2's query plan for the given SQL.
+	 * 
+	 */
+	private String explain(String sql) throws SQLException {
+		PooledConnection connection = _dao.getConnectionPool().borrow();
+		try(PreparedStatement statement = connection.getConnection().prepareStatement("EXPLAIN " + sql)) {
+			// EXPLAIN needs values for the query's parameters.
+			int parameters = statement.getParameterMetaData().getParameterCount();
+			for(int i = 1; i <= parameters; i++) {
+				statement.setObject(i, null);
+			}
+			try(ResultSet rs = statement.executeQuery()) {
+				rs.next();
+				return rs.getString(1);
+			}
+		} finally {
+			_dao.getConnectionPool().release(connection);
+		}
+	}
+}
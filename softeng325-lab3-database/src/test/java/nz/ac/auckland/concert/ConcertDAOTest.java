@@ -5,9 +5,17 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
@@ -15,18 +23,38 @@ import org.joda.time.LocalDateTime;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
 
+/**
+ * Tests JDBCConcertDAO against each of H2's storage modes.
+ *
+ */
+@RunWith(Parameterized.class)
 public class ConcertDAOTest {
 	
 	private static final String DB_INIT_SCRIPT_DIRECTORY = "src/test/resources";
 	private static final String DB_INIT_SCRIPT = "db-init.sql";
 	
+	@Parameters(name = "{0}")
+	public static Collection<H2Configuration> configurations() {
+		return Arrays.asList(
+				H2Configuration.inMemory("concerts"),
+				H2Configuration.mvStoreFile("./target/h2/concerts-mv"),
+				H2Configuration.pageStoreFile("./target/h2/concerts-page"));
+	}
+	
+	@Parameter
+	public H2Configuration _configuration;
+	
 	private JDBCConcertDAO _dao;
 	
 	@Before
 	public void initialiseDatabase() throws DAOException {
 		File file = new File(DB_INIT_SCRIPT_DIRECTORY + "/" + DB_INIT_SCRIPT);
-		_dao = new JDBCConcertDAO(file);
+		_dao = new JDBCConcertDAO(_configuration, 1, 1, file);
 	}
 	
 	@After
@@ -81,6 +109,95 @@ public class ConcertDAOTest {
 		}
 	}
 	
+	@Test
+	public void queryConcertsByPage() {
+		try {
+			List<Concert> concerts = _dao.getAll();
+			
+			// Page through all Concerts, 5 at a time. Each page starts after
+			// the last Concert of the previous page.
+			List<Concert> pagedConcerts = new ArrayList<Concert>();
+			List<Concert> page = _dao.getPage(null, 5);
+			while(!page.isEmpty()) {
+				assertTrue(page.size() <= 5);
+				pagedConcerts.addAll(page);
+				page = _dao.getPage(page.get(page.size() - 1), 5);
+			}
+			
+			// The pages together should contain all Concerts, in the same 
+			// order as getAll().
+			assertEquals(concerts, pagedConcerts);
+			assertEquals("24K Magic World Tour", pagedConcerts.get(0).getTitle());
+		} catch(DAOException e) {
+			fail();
+		}
+	}
+	
+	@Test
+	public void streamAllConcerts() {
+		try {
+			List<Concert> concerts = _dao.getAll();
+			
+			// Streaming Concerts should visit every Concert, in the same order
+			// as getAll().
+			final List<Concert> streamedConcerts = new ArrayList<Concert>();
+			_dao.forEach(concert -> streamedConcerts.add(concert));
+			assertEquals(concerts, streamedConcerts);
+		} catch(DAOException e) {
+			fail();
+		}
+	}
+	
+	@Test
+	public void findConcertsByGenre() {
+		try {
+			// There are 3 Metal Concerts: 2 by Metallica and 1 by BabyMetal.
+			List<Concert> concerts = _dao.findByGenre(Genre.Metal);
+			assertEquals(3, concerts.size());
+			assertEquals("Legend - Metal Resistance", concerts.get(0).getTitle());
+			assertEquals("The Five Fox Festival", concerts.get(1).getTitle());
+			assertEquals("WorldWired Tour", concerts.get(2).getTitle());
+			
+			// Metallica's 2 Concerts should share a Performer object.
+			assertSame(concerts.get(1).getPerformer(), concerts.get(2).getPerformer());
+		} catch(DAOException e) {
+			fail();
+		}
+	}
+	
+	@Test
+	public void findConcertsByPerformer() {
+		try {
+			// Katy Perry appears in "One Love Manchester" and "Witness: The 
+			// Tour".
+			Performer katy = _dao.getById(16).getPerformer();
+			List<Concert> concerts = _dao.findByPerformer(katy);
+			assertEquals(2, concerts.size());
+			assertEquals("One Love Manchester", concerts.get(0).getTitle());
+			assertEquals("Witness: The Tour", concerts.get(1).getTitle());
+		} catch(DAOException e) {
+			fail();
+		}
+	}
+	
+	@Test
+	public void findConcertsBetweenDates() {
+		try {
+			// Find the Concerts taking place in the first week of September
+			// 2017.
+			List<Concert> concerts = _dao.findBetween(
+					new LocalDateTime(2017, 9, 1, 0, 0), new LocalDateTime(2017, 9, 7, 18, 30));
+			
+			// The Concerts should be ordered by date, then title. "Witness: 
+			// The Tour" starts at the end of the period and so is excluded.
+			assertEquals(2, concerts.size());
+			assertEquals("One More Light Tour", concerts.get(0).getTitle());
+			assertEquals("24K Magic World Tour", concerts.get(1).getTitle());
+		} catch(DAOException e) {
+			fail();
+		}
+	}
+	
 	@Test
 	public void queryConcert() {
 		try {
@@ -131,6 +248,51 @@ public class ConcertDAOTest {
 		}
 	}
 	
+	@Test
+	public void addConcerts() {
+		try {
+			// Create two new Concerts that feature the same new Performer.
+			Performer performer = new Performer("Taylor Swift", "TaylorSwift.jpg", Genre.Pop);
+			Concert reputation = new Concert("Reputation Stadium Tour", new LocalDateTime(2018, 11, 9, 19, 0), performer);
+			Concert reputationAgain = new Concert("Reputation Stadium Tour 2", new LocalDateTime(2018, 11, 10, 19, 0), performer);
+			
+			// Save both Concerts together.
+			_dao.saveAll(Arrays.asList(reputation, reputationAgain));
+			
+			// The Performer should have been inserted once, and shared by both
+			// Concerts.
+			assertNotNull(performer.getId());
+			List<Concert> concerts = _dao.getAll();
+			assertEquals(24, concerts.size());
+			Concert concert1 = concerts.get(Collections.binarySearch(concerts, reputation));
+			Concert concert2 = concerts.get(Collections.binarySearch(concerts, reputationAgain));
+			assertEquals(reputation.getId(), concert1.getId());
+			assertEquals(performer.getId(), concert1.getPerformer().getId());
+			assertSame(concert1.getPerformer(), concert2.getPerformer());
+		} catch(DAOException e) {
+			fail();
+		}
+	}
+	
+	@Test
+	public void deleteConcerts() {
+		try {
+			// Query Concerts with the IDs 16 and 20 (these feature Katy Perry).
+			Concert witness = _dao.getById(16);
+			Concert oneLove = _dao.getById(20);
+			
+			// Delete both Concerts.
+			_dao.deleteAll(Arrays.asList(witness, oneLove));
+			
+			// Requery the Concerts to check they've been deleted.
+			assertNull(_dao.getById(16));
+			assertNull(_dao.getById(20));
+			assertEquals(20, _dao.getAll().size());
+		} catch(DAOException e) {
+			fail();
+		}
+	}
+	
 	@Test
 	public void deleteConcert() {
 		try {
@@ -179,4 +341,385 @@ public class ConcertDAOTest {
 			fail();
 		}
 	}
+	
+	@Test
+	public void saveOnlyModifiedColumns() throws Exception {
+		// Query "Dangerous Woman"; the loaded objects are clean.
+		Concert dangerousWoman = _dao.getById(11);
+		assertTrue(!dangerousWoman.isDirty());
+		assertTrue(!dangerousWoman.getPerformer().isDirty());
+
+		// Change the Concert's title and its Performer's name behind the
+		// DAO's back.
+		ConnectionPool pool = _dao.getConnectionPool();
+		PooledConnection connection = pool.borrow();
+		try(Statement statement = connection.getConnection().createStatement()) {
+			statement.executeUpdate("UPDATE CONCERT SET TITLE = 'Renamed' WHERE ID = 11");
+			statement.executeUpdate("UPDATE PERFORMER SET NAME = 'Renamed' WHERE ID = " +
+					dangerousWoman.getPerformer().getId());
+		} finally {
+			pool.release(connection);
+		}
+
+		// Modify only the Concert's date and save it.
+		LocalDateTime newDate = new LocalDateTime(2017, 8, 17, 18, 30);
+		dangerousWoman.setDate(newDate);
+		assertTrue(dangerousWoman.isDirty());
+		_dao.save(dangerousWoman);
+		assertTrue(!dangerousWoman.isDirty());
+
+		// Only the date should have been written, so the other changes
+		// survive.
+		Concert concert = _dao.getById(11);
+		assertEquals(newDate, concert.getDate());
+		assertEquals("Renamed", concert.getTitle());
+		assertEquals("Renamed", concert.getPerformer().getName());
+	}
+
+	@Test
+	public void detectConcurrentUpdates() throws DAOException {
+		// Two clients load the same Concert.
+		Concert first = _dao.getById(11);
+		Concert second = _dao.getById(11);
+		assertEquals(0, first.getVersion());
+
+		// The first client's update succeeds and increments the version.
+		first.setTitle("First");
+		_dao.save(first);
+		assertEquals(1, first.getVersion());
+
+		// The second client's update is based on a stale version, and so is
+		// rejected rather than overwriting the first.
+		second.setTitle("Second");
+		try {
+			_dao.save(second);
+			fail();
+		} catch(OptimisticLockException e) {
+			// Expected.
+		}
+		assertEquals("First", _dao.getById(11).getTitle());
+
+		// Performers are versioned too.
+		Concert current = _dao.getById(11);
+		Concert stale = _dao.getById(11);
+		current.getPerformer().setS3ImageUri("first.jpg");
+		_dao.save(current);
+		stale.getPerformer().setS3ImageUri("second.jpg");
+		try {
+			_dao.save(stale);
+			fail();
+		} catch(OptimisticLockException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void deleteOrphanedPerformers() throws Exception {
+		_dao.setDeleteOrphanedPerformers(true);
+		int performers = countRows("PERFORMER");
+
+		// Katy Perry (16) performs in Concerts 16 and 20. Deleting one leaves
+		// her in place; deleting the other orphans and deletes her.
+		_dao.deleteConcert(_dao.getById(16));
+		assertEquals(performers, countRows("PERFORMER"));
+		_dao.deleteConcert(_dao.getById(20));
+		assertEquals(performers - 1, countRows("PERFORMER"));
+
+		// Performers shared by a batch of deleted Concerts are deleted once.
+		Concert first = _dao.getById(1);
+		Concert second = new Concert("Encore", new LocalDateTime(2018, 1, 1, 20, 0), first.getPerformer());
+		_dao.save(second);
+		_dao.deleteAll(Arrays.asList(first, second, _dao.getById(2)));
+		assertEquals(performers - 3, countRows("PERFORMER"));
+		assertEquals(18, _dao.getAll().size());
+	}
+
+	@Test
+	public void compactOrphanedPerformers() throws Exception {
+		int performers = countRows("PERFORMER");
+
+		// By default, deleting Concerts leaves their Performers behind.
+		_dao.deleteAll(Arrays.asList(_dao.getById(1), _dao.getById(2), _dao.getById(3)));
+		assertEquals(performers, countRows("PERFORMER"));
+
+		PerformerCompactor compactor = new PerformerCompactor(_dao, 2, 0);
+		assertEquals(3, compactor.compact());
+		assertEquals(performers - 3, countRows("PERFORMER"));
+		assertEquals(0, compactor.compact());
+		assertEquals(3, compactor.getReclaimedCount());
+		assertEquals(2, compactor.getRunCount());
+		assertEquals(0, compactor.getFailureCount());
+		assertEquals(19, _dao.getAll().size());
+
+		// Failed runs are counted.
+		ConnectionPool pool = _dao.getConnectionPool();
+		PooledConnection connection = pool.borrow();
+		try(Statement statement = connection.getConnection().createStatement()) {
+			statement.executeUpdate("DROP TABLE PERFORMER CASCADE");
+		} finally {
+			pool.release(connection);
+		}
+		try {
+			compactor.compact();
+			fail();
+		} catch(DAOException e) {
+			// Expected.
+		}
+		assertEquals(3, compactor.getRunCount());
+		assertEquals(1, compactor.getFailureCount());
+	}
+
+	@Test
+	public void commitUnitOfWork() throws DAOException {
+		Concert first = _dao.getById(1);
+		Concert created = _dao.inTransaction(Connection.TRANSACTION_SERIALIZABLE, dao -> {
+			Performer performer = new Performer("Lorde and Friends", "Lorde.jpg", Genre.Pop);
+			Concert concert = new Concert("Melodrama Encore", new LocalDateTime(2018, 3, 1, 20, 0), performer);
+			dao.save(concert);
+			first.setTitle("Renamed");
+			dao.save(first);
+
+			// Operations in the transaction see its uncommitted changes.
+			assertEquals("Renamed", dao.getById(1).getTitle());
+			return concert;
+		});
+
+		assertNotNull(created.getId());
+		assertEquals(23, _dao.getAll().size());
+		assertEquals("Melodrama Encore", _dao.getById(created.getId()).getTitle());
+		assertEquals("Renamed", _dao.getById(1).getTitle());
+		assertEquals(1, first.getVersion());
+	}
+
+	@Test
+	public void rollBackUnitOfWork() throws DAOException {
+		Concert first = _dao.getById(1);
+		Concert concert = new Concert("Never Stored", new LocalDateTime(2018, 3, 1, 20, 0), first.getPerformer());
+		try {
+			_dao.inTransaction(dao -> {
+				dao.save(concert);
+				first.setTitle("Renamed");
+				dao.save(first);
+
+				// The failed save is caught, but still rolls back the
+				// transaction.
+				try {
+					char[] title = new char[300];
+					Arrays.fill(title, 'x');
+					dao.save(new Concert(new String(title), new LocalDateTime(), first.getPerformer()));
+					fail();
+				} catch(DAOException e) {
+					// Expected.
+				}
+				return null;
+			});
+			fail();
+		} catch(DAOException e) {
+			// Expected.
+		}
+
+		assertEquals(22, _dao.getAll().size());
+		assertEquals("Death of a Bachelor Tour", _dao.getById(1).getTitle());
+
+		// The saved objects are restored to their unsaved state, so saving
+		// them again succeeds.
+		assertNull(concert.getId());
+		assertTrue(concert.isDirty());
+		assertEquals(0, first.getVersion());
+		_dao.saveAll(Arrays.asList(concert, first));
+		assertEquals(23, _dao.getAll().size());
+		assertEquals("Renamed", _dao.getById(1).getTitle());
+	}
+
+	@Test
+	public void rollBackFirstInsertAfterInitialisation() throws DAOException {
+		// The first key generated after the schema is set up must not commit
+		// the writes that precede it in the transaction.
+		Concert first = _dao.getById(1);
+		try {
+			_dao.inTransaction(dao -> {
+				first.setTitle("Renamed");
+				dao.save(first);
+				dao.save(new Concert("Never Stored", new LocalDateTime(2018, 3, 1, 20, 0), first.getPerformer()));
+				throw new DAOException("Abandoned");
+			});
+			fail();
+		} catch(DAOException e) {
+			// Expected.
+		}
+
+		assertEquals(22, _dao.getAll().size());
+		assertEquals("Death of a Bachelor Tour", _dao.getById(1).getTitle());
+	}
+
+	@Test
+	public void initialiseSchemaWithoutVersionColumns() throws Exception {
+		// A database created before Concerts and Performers were versioned.
+		ConnectionPool pool = _dao.getConnectionPool();
+		PooledConnection connection = pool.borrow();
+		try(Statement statement = connection.getConnection().createStatement()) {
+			statement.executeUpdate("ALTER TABLE CONCERT DROP COLUMN VERSION");
+			statement.executeUpdate("ALTER TABLE PERFORMER DROP COLUMN VERSION");
+		} finally {
+			pool.release(connection);
+		}
+
+		_dao.initialiseSchema();
+		_dao.initialiseSchema();
+
+		Concert concert = _dao.getById(1);
+		assertEquals(0, concert.getVersion());
+		concert.setTitle("Death of a Bachelor Encore");
+		_dao.save(concert);
+		assertEquals("Death of a Bachelor Encore", _dao.getById(1).getTitle());
+		assertEquals(22, _dao.getAll().size());
+	}
+
+	@Test
+	public void initialiseExistingDatabase() throws Exception {
+		// A database created without the key sequences, as by an earlier 
+		// version of JDBCConcertDAO.
+		ConnectionPool pool = _dao.getConnectionPool();
+		PooledConnection connection = pool.borrow();
+		try(Statement statement = connection.getConnection().createStatement()) {
+			statement.executeUpdate("DROP SEQUENCE CONCERT_ID_SEQ");
+			statement.executeUpdate("DROP SEQUENCE PERFORMER_ID_SEQ");
+		} finally {
+			pool.release(connection);
+		}
+
+		JDBCConcertDAO dao = new JDBCConcertDAO(_configuration, 1, 1);
+		try {
+			Performer performer = new Performer("The Beths", "TheBeths.jpg", Genre.Rock);
+			Concert concert = new Concert("Future Me Hates Me Tour", new LocalDateTime(2018, 8, 4, 20, 0), performer);
+			dao.save(concert);
+			assertEquals(23, dao.getAll().size());
+			assertEquals("Future Me Hates Me Tour", dao.getById(concert.getId()).getTitle());
+		} finally {
+			dao.close();
+		}
+	}
+
+	@Test
+	public void shareSequencesAcrossAllocationSizes() throws Exception {
+		// The sequences were created with the default allocation size. A DAO
+		// configured with a larger one must allocate blocks of the 
+		// sequences' size, or its keys overlap those of _dao.
+		ConnectionPool pool = new ConnectionPool(_configuration.getUrl(), 
+				_configuration.getUsername(), _configuration.getPassword(), 1, 1);
+		JDBCConcertDAO other = new JDBCConcertDAO(pool, JDBCConcertDAO.DEFAULT_KEY_ALLOCATION_SIZE * 2);
+		try {
+			Performer performer = _dao.getById(1).getPerformer();
+			_dao.save(new Concert("Mine 0", new LocalDateTime(2018, 1, 1, 20, 0), performer));
+			other.saveAll(newConcerts("Other", performer));
+			_dao.saveAll(newConcerts("Mine", performer));
+			assertEquals(22 + 1 + 2 * (JDBCConcertDAO.DEFAULT_KEY_ALLOCATION_SIZE + 10), _dao.getAll().size());
+		} finally {
+			other.close();
+		}
+	}
+
+	@Test
+	public void searchConcerts() throws DAOException {
+		// Title matches rank above Performer matches.
+		assertIds(_dao.search("legend", 0, 10), 12L, 19L);
+
+		// Exact words rank above prefixes; equal scores are in title order.
+		assertIds(_dao.search("World TOUR", 0, 3), 4L, 19L, 5L);
+		assertIds(_dao.search("World TOUR", 3, 3), 6L, 10L, 17L);
+		assertIds(_dao.search("metal", 0, 10), 12L, 21L, 17L);
+
+		// Every word must match.
+		assertIds(_dao.search("katy witness", 0, 10), 16L);
+		assertIds(_dao.search("katy metal", 0, 10));
+		assertIds(_dao.search(" - ", 0, 10));
+
+		// Offsets and page sizes too large to add don't overflow.
+		assertIds(_dao.search("legend", 1, Integer.MAX_VALUE), 19L);
+		assertIds(_dao.search("legend", Integer.MAX_VALUE, Integer.MAX_VALUE));
+		try {
+			_dao.search("legend", -1, 10);
+			fail();
+		} catch(IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void findConcertsByIds() throws DAOException {
+		// Concerts are returned in ID order, without duplicates, and IDs 
+		// with no Concert are ignored.
+		assertIds(_dao.findByIds(Arrays.asList(16L, 2L, 99L, 2L)), 2L, 16L);
+		assertIds(_dao.findByIds(Collections.<Long>emptyList()));
+	}
+
+	// Returns more new Concerts than fit in a block of keys.
+	private static List<Concert> newConcerts(String title, Performer performer) {
+		List<Concert> concerts = new ArrayList<Concert>();
+		for(int i = 1; i <= JDBCConcertDAO.DEFAULT_KEY_ALLOCATION_SIZE + 10; i++) {
+			concerts.add(new Concert(title + " " + i, new LocalDateTime(2018, 1, 1, 20, 0), performer));
+		}
+		return concerts;
+	}
+
+	private void assertIds(List<Concert> concerts, Long... ids) {
+		List<Long> actual = new ArrayList<Long>();
+		for(Concert concert : concerts) {
+			actual.add(concert.getId());
+		}
+		assertEquals(Arrays.asList(ids), actual);
+	}
+
+	private int countRows(String table) throws SQLException {
+		ConnectionPool pool = _dao.getConnectionPool();
+		PooledConnection connection = pool.borrow();
+		try(Statement statement = connection.getConnection().createStatement();
+				ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			pool.release(connection);
+		}
+	}
+
+	@Test
+	public void reusePreparedStatements() {
+		try {
+			ConnectionPool pool = _dao.getConnectionPool();
+			
+			// The first query prepares its statement; repeating the query 
+			// should reuse the cached statement rather than prepare it again.
+			_dao.getById(1);
+			long misses = pool.getStatementCacheMisses();
+			long hits = pool.getStatementCacheHits();
+			
+			_dao.getById(2);
+			_dao.getById(3);
+			assertEquals(misses, pool.getStatementCacheMisses());
+			assertEquals(hits + 2, pool.getStatementCacheHits());
+		} catch(DAOException e) {
+			fail();
+		}
+	}
+
+	@Test
+	public void countStatementsOnlyWhenEnabled() throws DAOException {
+		ConnectionPool pool = _dao.getConnectionPool();
+		List<Long> counted = new ArrayList<Long>();
+		pool.addStatementListener(() -> counted.add(pool.getStatementExecutions()));
+
+		// Counting is off by default.
+		_dao.getById(1);
+		assertTrue(counted.isEmpty());
+		assertEquals(0, pool.getStatementExecutions());
+
+		pool.setCountingStatements(true);
+		_dao.getById(1);
+		_dao.getAll();
+		assertEquals(Arrays.asList(1L, 2L), counted);
+
+		pool.setCountingStatements(false);
+		_dao.getById(1);
+		assertEquals(2, pool.getStatementExecutions());
+	}
 }
@@ -0,0 +1,163 @@
+package nz.ac.auckland.concert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.LocalDateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConcertImporterTest {
+
+	private static final String DB_INIT_SCRIPT_DIRECTORY = "src/test/resources";
+	private static final String DB_INIT_SCRIPT = "db-init.sql";
+
+	private JDBCConcertDAO _dao;
+
+	@Before
+	public void initialiseDatabase() throws DAOException {
+		File file = new File(DB_INIT_SCRIPT_DIRECTORY + "/" + DB_INIT_SCRIPT);
+		_dao = new JDBCConcertDAO(file);
+	}
+
+	@After
+	public void closeDatabase() throws DAOException {
+		_dao.close();
+	}
+
+	@Test
+	public void importConcerts() throws DAOException {
+		String csv =
+				"title,date,performerName,s3image,genre\n" +
+				"\"Divide Tour, Encore\",2018-03-01T20:00,Ed Sheeran,EdSheeran.jpg,Pop\n" +
+				"Night One,2018-03-02T19:30,Lindsey Stirling,LindseyStirling.jpg,Pop\n" +
+				"\"Night \"\"Two\"\"\",2018-03-03T19:30,Lindsey Stirling,ignored.jpg,Rock\n";
+
+		// Use a small batch size so that the import spans several batches.
+		ConcertImporter importer = new ConcertImporter(_dao, 2, 1, 1);
+		List<Long> progress = new ArrayList<Long>();
+		importer.setProgressListener((rows, rowsPerSecond) -> progress.add(rows));
+		ConcertImporter.Result result = importer.importCsv(new StringReader(csv));
+
+		assertEquals(3, result.getRows());
+		assertEquals(1, result.getNewPerformers());
+		assertEquals(25, _dao.getAll().size());
+		assertEquals(3L, (long) progress.get(progress.size() - 1));
+
+		// Ed Sheeran is an existing Performer, and so isn't duplicated.
+		Concert encore = findByTitle("Divide Tour, Encore");
+		assertEquals(new LocalDateTime(2018, 3, 1, 20, 0), encore.getDate());
+		assertEquals(2, (long) encore.getPerformer().getId());
+
+		// Both of Lindsey Stirling's Concerts share a new Performer, which
+		// takes its details from the first record.
+		Concert nightOne = findByTitle("Night One");
+		Concert nightTwo = findByTitle("Night \"Two\"");
+		assertEquals(nightOne.getPerformer().getId(), nightTwo.getPerformer().getId());
+		assertEquals(Genre.Pop, nightTwo.getPerformer().getGenre());
+		assertEquals("LindseyStirling.jpg", nightTwo.getPerformer().getS3ImageUri());
+	}
+
+	@Test
+	public void importFirstLineUnlessHeader() throws DAOException {
+		// A headerless file whose first title starts like the header.
+		String csv =
+				"title fight,2018-03-01T20:00,Ed Sheeran,EdSheeran.jpg,Pop\n" +
+				"Rematch,2018-03-02T20:00,Ed Sheeran,EdSheeran.jpg,Pop\n";
+		ConcertImporter.Result result = new ConcertImporter(_dao).importCsv(new StringReader(csv));
+
+		assertEquals(2, result.getRows());
+		assertEquals(2, (long) findByTitle("title fight").getPerformer().getId());
+	}
+
+	@Test
+	public void reuseOrphanedPerformer() throws DAOException {
+		// Deleting the only Concert leaves its Performer behind.
+		Concert concert = new Concert("Farewell", new LocalDateTime(2018, 3, 1, 20, 0),
+				new Performer("Orphan Act", "OrphanAct.jpg", Genre.Rock));
+		_dao.save(concert);
+		long performerId = concert.getPerformer().getId();
+		_dao.deleteConcert(concert);
+
+		String csv = "Comeback,2018-06-01T20:00,Orphan Act,ignored.jpg,Pop\n";
+		ConcertImporter.Result result = new ConcertImporter(_dao).importCsv(new StringReader(csv));
+
+		assertEquals(1, result.getRows());
+		assertEquals(0, result.getNewPerformers());
+		Performer performer = findByTitle("Comeback").getPerformer();
+		assertEquals(performerId, (long) performer.getId());
+		assertEquals(Genre.Rock, performer.getGenre());
+	}
+
+	@Test
+	public void rejectInvalidRecord() throws DAOException {
+		String csv =
+				"Valid,2018-03-01T20:00,Ed Sheeran,EdSheeran.jpg,Pop\n" +
+				"Invalid,not a date,Ed Sheeran,EdSheeran.jpg,Pop\n";
+		try {
+			new ConcertImporter(_dao).importCsv(new StringReader(csv));
+			fail();
+		} catch(DAOException e) {
+			assertTrue(e.getMessage().endsWith("line 2"));
+		}
+	}
+
+	@Test
+	public void importManyConcerts() throws DAOException {
+		final int rows = 20000;
+		StringBuilder csv = new StringBuilder();
+		for(int i = 0; i < rows; i++) {
+			csv.append("Concert ").append(i).append(",2018-01-01T20:00,Performer ")
+					.append(i % 100).append(",image.jpg,Rock\n");
+		}
+
+		ConcertImporter.Result result = new ConcertImporter(_dao).importCsv(new StringReader(csv.toString()));
+
+		assertEquals(rows, result.getRows());
+		assertEquals(100, result.getNewPerformers());
+		assertEquals(22 + rows, _dao.getAll().size());
+	}
+
+	@Test(timeout = 10000)
+	public void failOnListenerError() {
+		StringBuilder csv = new StringBuilder();
+		for(int i = 0; i < 10; i++) {
+			csv.append("Concert ").append(i).append(",2018-01-01T20:00,Ed Sheeran,EdSheeran.jpg,Pop\n");
+		}
+
+		// The writer fails on its first progress report, while the parser
+		// is still waiting to enqueue batches.
+		ConcertImporter importer = new ConcertImporter(_dao, 1, 1, 1);
+		IllegalStateException error = new IllegalStateException("Listener failed");
+		importer.setProgressListener((rows, rowsPerSecond) -> {
+			throw error;
+		});
+		try {
+			importer.importCsv(new StringReader(csv.toString()));
+			fail();
+		} catch(DAOException e) {
+			assertSame(error, e.getCause());
+		}
+	}
+
+	private Concert findByTitle(String title) throws DAOException {
+		Concert match = null;
+		for(Concert concert : _dao.getAll()) {
+			if(concert.getTitle().equals(title)) {
+				assertSame(null, match);
+				match = concert;
+			}
+		}
+		assertNotNull(match);
+		return match;
+	}
+}
@@ -0,0 +1,37 @@
+package nz.ac.auckland.concert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+public class ConcertRowMapperTest {
+
+	@Test
+	public void convertTimestamps() {
+		// Dates are stored as instants in the default time zone, and must map
+		// back to the same local date and time.
+		LocalDateTime date = new LocalDateTime(2017, 9, 2, 19, 30);
+		Timestamp stored = new Timestamp(date.toDateTime().getMillis());
+		assertEquals(date, ConcertRowMapper.toLocalDateTime(stored));
+		assertNull(ConcertRowMapper.toLocalDateTime(null));
+	}
+
+	@Test
+	public void lookUpGenres() throws SQLException {
+		for(Genre genre : Genre.values()) {
+			assertEquals(genre, ConcertRowMapper.toGenre(genre.toString()));
+		}
+		try {
+			ConcertRowMapper.toGenre("Polka");
+			fail();
+		} catch(SQLException e) {
+			// Expected.
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package nz.ac.auckland.concert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.joda.time.LocalDateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IndexedConcertDAOTest {
+
+	private static final String DB_INIT_SCRIPT_DIRECTORY = "src/test/resources";
+	private static final String DB_INIT_SCRIPT = "db-init.sql";
+
+	private JDBCConcertDAO _jdbcDAO;
+	private IndexedConcertDAO _dao;
+
+	@Before
+	public void initialiseDatabase() throws DAOException {
+		File file = new File(DB_INIT_SCRIPT_DIRECTORY + "/" + DB_INIT_SCRIPT);
+		_jdbcDAO = new JDBCConcertDAO(file);
+		_dao = new IndexedConcertDAO(_jdbcDAO);
+	}
+
+	@After
+	public void closeDatabase() throws DAOException {
+		_dao.close();
+	}
+
+	@Test
+	public void rankAsDatastore() throws DAOException {
+		assertEquals(22, _dao.getIndexSize());
+		for(String query : new String[] {"legend", "world tour", "metal", "tour", "t", "katy witness", "one", ""}) {
+			for(int offset = 0; offset < 8; offset += 4) {
+				assertEquals(query, ids(_jdbcDAO.search(query, offset, 4)), ids(_dao.search(query, offset, 4)));
+			}
+		}
+	}
+
+	@Test
+	public void validateSearchArguments() throws DAOException {
+		assertEquals(ids(_jdbcDAO.search("tour", 2, Integer.MAX_VALUE)), ids(_dao.search("tour", 2, Integer.MAX_VALUE)));
+		assertEquals(0, _dao.search("tour", Integer.MAX_VALUE, Integer.MAX_VALUE).size());
+		try {
+			_dao.search("tour", -1, 10);
+			fail();
+		} catch(IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void keepIndexInSync() throws DAOException {
+		// New Concerts are indexed.
+		Concert concert = new Concert("Legendary Night", new LocalDateTime(2018, 3, 1, 20, 0),
+				new Performer("The Legends", "Legends.jpg", Genre.Rock));
+		_dao.save(concert);
+		assertEquals(Arrays.asList(12L, 19L, concert.getId()), ids(_dao.search("legend", 0, 10)));
+		assertEquals(ids(_jdbcDAO.search("legend", 0, 10)), ids(_dao.search("legend", 0, 10)));
+
+		// Renaming a Performer reindexes all of its Concerts.
+		Concert witness = _dao.getById(16);
+		witness.getPerformer().setName("Katheryn Hudson");
+		_dao.save(witness);
+		assertEquals(Arrays.asList(20L, 16L), ids(_dao.search("kath", 0, 10)));
+		assertEquals(ids(_jdbcDAO.search("kath", 0, 10)), ids(_dao.search("kath", 0, 10)));
+		assertEquals(0, _dao.search("katy", 0, 10).size());
+
+		// Deleted Concerts are removed.
+		_dao.deleteAll(Arrays.asList(concert, witness));
+		assertEquals(Arrays.asList(12L, 19L), ids(_dao.search("legend", 0, 10)));
+		assertEquals(21, _dao.getIndexSize());
+	}
+
+	@Test
+	public void reloadAfterRollback() throws DAOException {
+		// Saved behind the index's back, so only picked up by a rebuild.
+		Performer performer = _jdbcDAO.getById(1).getPerformer();
+		_jdbcDAO.save(new Concert("Unindexed Gig", new LocalDateTime(2018, 3, 2, 20, 0), performer));
+
+		try {
+			_dao.inTransaction(dao -> {
+				dao.save(new Concert("Rolled Back", new LocalDateTime(2018, 3, 1, 20, 0), performer));
+				Concert renamed = dao.getById(1);
+				renamed.setTitle("Renamed");
+				dao.save(renamed);
+				dao.deleteConcert(dao.getById(2));
+				assertEquals(1, _dao.search("rolled", 0, 10).size());
+				assertEquals(1, _dao.search("renamed", 0, 10).size());
+				assertEquals(0, _dao.search("divide", 0, 10).size());
+				throw new DAOException("Abandoned");
+			});
+			fail();
+		} catch(DAOException e) {
+			// Expected.
+		}
+
+		// Only the Concerts written by the transaction are reloaded.
+		assertEquals(0, _dao.search("rolled", 0, 10).size());
+		assertEquals(0, _dao.search("renamed", 0, 10).size());
+		assertEquals(Arrays.asList(1L), ids(_dao.search("bachelor", 0, 10)));
+		assertEquals(Arrays.asList(2L), ids(_dao.search("divide", 0, 10)));
+		assertEquals(0, _dao.search("unindexed", 0, 10).size());
+		assertEquals(22, _dao.getIndexSize());
+	}
+
+	private static List<Long> ids(List<Concert> concerts) {
+		List<Long> ids = new ArrayList<Long>();
+		for(Concert concert : concerts) {
+			ids.add(concert.getId());
+		}
+		return ids;
+	}
+}
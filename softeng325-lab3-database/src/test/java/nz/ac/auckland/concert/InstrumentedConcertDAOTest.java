@@ -0,0 +1,146 @@
+package nz.ac.auckland.concert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.joda.time.LocalDateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InstrumentedConcertDAOTest {
+
+	private static final String DB_INIT_SCRIPT_DIRECTORY = "src/test/resources";
+	private static final String DB_INIT_SCRIPT = "db-init.sql";
+
+	private JDBCConcertDAO _jdbcDAO;
+	private InstrumentedConcertDAO _dao;
+
+	@Before
+	public void initialiseDatabase() throws DAOException {
+		File file = new File(DB_INIT_SCRIPT_DIRECTORY + "/" + DB_INIT_SCRIPT);
+		_jdbcDAO = new JDBCConcertDAO(file);
+		_dao = new InstrumentedConcertDAO(_jdbcDAO, _jdbcDAO.getConnectionPool());
+	}
+
+	@After
+	public void closeDatabase() throws DAOException {
+		_dao.close();
+	}
+
+	@Test
+	public void recordOperations() throws DAOException {
+		long statements = _dao.getStatementCount();
+
+		_dao.getAll();
+		_dao.getAll();
+		_dao.getById(1L);
+		_dao.getById(999L);
+		_dao.forEach(concert -> {});
+
+		OperationMetrics getAll = _dao.getMetrics("getAll");
+		assertEquals(2, getAll.getCount());
+		assertEquals(44, getAll.getRowCount());
+		assertEquals(0, getAll.getErrorCount());
+		assertTrue(getAll.getMaxMillis() > 0);
+		assertTrue(getAll.getMedianMillis() <= getAll.getMaxMillis());
+
+		assertEquals(2, _dao.getMetrics("getById").getCount());
+		assertEquals(1, _dao.getMetrics("getById").getRowCount());
+		assertEquals(2, _dao.getMetrics("getById").getStatementCount());
+		assertEquals(22, _dao.getMetrics("forEach").getRowCount());
+		assertEquals(5, _dao.getCallCount());
+		assertEquals(statements + 5, _dao.getStatementCount());
+	}
+
+	@Test
+	public void countStatementsOfNestedCallsOnce() throws DAOException {
+		_dao.inTransaction(dao -> {
+			dao.getById(1L);
+			return dao.getById(2L);
+		});
+
+		assertEquals(2, _dao.getMetrics("getById").getStatementCount());
+		assertEquals(2, _dao.getMetrics("inTransaction").getStatementCount());
+		assertEquals(2, _dao.getStatementCount());
+	}
+
+	@Test
+	public void recordFailures() throws DAOException {
+		List<String> operations = new ArrayList<String>();
+		List<Exception> failures = new ArrayList<Exception>();
+		_dao.setMetricsSink((operation, latencyNanos, rows, failure) -> {
+			operations.add(operation);
+			failures.add(failure);
+		});
+
+		char[] title = new char[300];
+		Arrays.fill(title, 'x');
+		Concert concert = new Concert(new String(title), new LocalDateTime(), _dao.getById(1L).getPerformer());
+		try {
+			_dao.save(concert);
+			fail();
+		} catch(DAOException e) {
+			// The SQLException that caused the failure is kept.
+			assertTrue(e.getCause() instanceof SQLException);
+			assertSame(e, failures.get(1));
+		}
+
+		assertEquals(Arrays.asList("getById", "save"), operations);
+		assertNull(failures.get(0));
+		assertEquals(1, _dao.getMetrics("save").getErrorCount());
+		assertEquals(1, _dao.getErrorCount());
+	}
+
+	@Test
+	public void registerMBeans() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(InstrumentedConcertDAO.JMX_DOMAIN + ":type=ConcertDAO,name=\"test\",operation=getAll");
+
+		_dao.registerMBeans("test");
+		_dao.getAll();
+		assertEquals(1L, server.getAttribute(name, "Count"));
+		assertEquals(22L, server.getAttribute(name, "RowCount"));
+
+		// Names must be unique.
+		InstrumentedConcertDAO other = new InstrumentedConcertDAO(_jdbcDAO);
+		try {
+			other.registerMBeans("test");
+			fail();
+		} catch(DAOException e) {
+		}
+
+		_dao.close();
+		assertFalse(server.isRegistered(name));
+	}
+
+	@Test
+	public void histogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(long value = 1; value <= 100000; value++) {
+			histogram.record(value * 1000);
+		}
+
+		assertEquals(100000, histogram.getCount());
+		assertEquals(100000000, histogram.getMax());
+		assertEquals(50000500, histogram.getMean(), 1);
+		assertEquals(50000000, histogram.getValueAtPercentile(50), 50000000 * 0.016);
+		assertEquals(99000000, histogram.getValueAtPercentile(99), 99000000 * 0.016);
+		assertEquals(100000000, histogram.getValueAtPercentile(100));
+		assertEquals(0, new LatencyHistogram().getValueAtPercentile(99));
+	}
+}
@@ -0,0 +1,144 @@
+package nz.ac.auckland.concert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.joda.time.LocalDateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnapshotConcertDAOTest {
+
+	private static final String DB_INIT_SCRIPT_DIRECTORY = "src/test/resources";
+	private static final String DB_INIT_SCRIPT = "db-init.sql";
+
+	private JDBCConcertDAO _jdbcDAO;
+	private SnapshotConcertDAO _dao;
+
+	@Before
+	public void initialiseDatabase() throws DAOException {
+		File file = new File(DB_INIT_SCRIPT_DIRECTORY + "/" + DB_INIT_SCRIPT);
+		_jdbcDAO = new JDBCConcertDAO(file);
+		_dao = new SnapshotConcertDAO(_jdbcDAO, 0);
+	}
+
+	@After
+	public void closeDatabase() throws DAOException {
+		_dao.close();
+	}
+
+	@Test
+	public void queryMatchesDatastore() throws DAOException {
+		assertConcertsEqual(_jdbcDAO.getAll(), _dao.getAll());
+		assertConcertsEqual(_jdbcDAO.findByGenre(Genre.Pop), _dao.findByGenre(Genre.Pop));
+
+		LocalDateTime from = new LocalDateTime(2017, 1, 1, 0, 0);
+		LocalDateTime to = new LocalDateTime(2018, 1, 1, 0, 0);
+		assertConcertsEqual(_jdbcDAO.findBetween(from, to), _dao.findBetween(from, to));
+
+		Concert after = _jdbcDAO.getById(10L);
+		assertConcertsEqual(_jdbcDAO.getPage(after, 5), _dao.getPage(after, 5));
+		assertConcertsEqual(_jdbcDAO.getPage(null, 5), _dao.getPage(null, 5));
+		assertConcertsEqual(_jdbcDAO.getPage(after, Integer.MAX_VALUE), _dao.getPage(after, Integer.MAX_VALUE));
+
+		Performer performer = after.getPerformer();
+		assertConcertsEqual(_jdbcDAO.findByPerformer(performer), _dao.findByPerformer(performer));
+
+		assertNull(_dao.getById(999L));
+	}
+
+	@Test
+	public void refreshFromSeparateSource() throws Exception {
+		H2Configuration configuration = H2Configuration.defaultConfiguration();
+		JDBCConcertDAO source = new JDBCConcertDAO(new ConnectionPool(configuration.getUrl(),
+				configuration.getUsername(), configuration.getPassword(), 1, 1));
+		SnapshotConcertDAO dao = new SnapshotConcertDAO(_jdbcDAO, source, 0);
+
+		// Refreshes don't need the writer's only connection.
+		ConnectionPool writerPool = _jdbcDAO.getConnectionPool();
+		PooledConnection writerConnection = writerPool.borrow();
+		try {
+			dao.refresh();
+		} finally {
+			writerPool.release(writerConnection);
+		}
+		assertEquals(2, dao.getRefreshCount());
+		assertConcertsEqual(_jdbcDAO.getAll(), dao.getAll());
+		source.close();
+	}
+
+	@Test
+	public void returnCopies() throws DAOException {
+		List<Concert> concerts = _dao.getAll();
+		Concert concert = concerts.get(0);
+		assertFalse(concert.isDirty());
+
+		// Modifying a returned Concert doesn't affect the snapshot.
+		concert.setTitle("Modified");
+		assertEquals(concerts.get(0).getId(), _dao.getAll().get(0).getId());
+		assertFalse(_dao.getById(concert.getId()).getTitle().equals("Modified"));
+
+		// Concerts returned by the same query share Performer objects.
+		List<Concert> katyPerry = _dao.findByPerformer(_dao.getById(16L).getPerformer());
+		assertEquals(2, katyPerry.size());
+		assertSame(katyPerry.get(0).getPerformer(), katyPerry.get(1).getPerformer());
+	}
+
+	@Test
+	public void writesVisibleAfterRefresh() throws DAOException {
+		Concert concert = _dao.getById(1L);
+		concert.setTitle("Renamed");
+		_dao.save(concert);
+
+		// The snapshot still holds the old title.
+		assertFalse(_dao.getById(1L).getTitle().equals("Renamed"));
+		assertEquals("Renamed", _jdbcDAO.getById(1L).getTitle());
+
+		_dao.refresh();
+		Concert refreshed = _dao.getById(1L);
+		assertEquals("Renamed", refreshed.getTitle());
+		assertEquals(concert.getVersion(), refreshed.getVersion());
+		assertEquals(2, _dao.getRefreshCount());
+	}
+
+	@Test
+	public void refreshPeriodically() throws Exception {
+		SnapshotConcertDAO dao = new SnapshotConcertDAO(_jdbcDAO, 20);
+
+		try {
+			_jdbcDAO.deleteConcert(_jdbcDAO.getById(1L));
+			long deadline = System.currentTimeMillis() + 5000;
+			while(dao.getSize() == 22 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+
+			assertEquals(21, dao.getSize());
+			assertNull(dao.getById(1L));
+			assertTrue(dao.getRefreshCount() > 1);
+			assertTrue(dao.getStalenessMillis() < 5000);
+		} finally {
+			dao.close();
+		}
+	}
+
+	private void assertConcertsEqual(List<Concert> expected, List<Concert> actual) {
+		assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++) {
+			Concert e = expected.get(i);
+			Concert a = actual.get(i);
+			assertEquals(e.getId(), a.getId());
+			assertEquals(e.getTitle(), a.getTitle());
+			assertEquals(e.getDate(), a.getDate());
+			assertEquals(e.getVersion(), a.getVersion());
+			assertEquals(e.getPerformer().getId(), a.getPerformer().getId());
+			assertEquals(e.getPerformer().getGenre(), a.getPerformer().getGenre());
+		}
+	}
+}
@@ -1,5 +1,7 @@
 DROP TABLE IF EXISTS CONCERT;
 DROP TABLE IF EXISTS PERFORMER;
+DROP SEQUENCE IF EXISTS CONCERT_ID_SEQ;
+DROP SEQUENCE IF EXISTS PERFORMER_ID_SEQ;
 
 CREATE TABLE CONCERT(
 ID              LONG PRIMARY KEY,
@@ -58,3 +60,8 @@ INSERT INTO CONCERT VALUES(19,'Darkness and Light World Tour','2017-06-27 17:45:
 INSERT INTO CONCERT VALUES(20,'One Love Manchester','2017-06-04 13:00:00',16);
 INSERT INTO CONCERT VALUES(21,'The Five Fox Festival','2017-08-29 20:30:00',17);
 INSERT INTO CONCERT VALUES(22,'Mind of Mine','2017-03-24 21:00:00',20);
+
+-- Version numbers for optimistic concurrency control. The columns are added
+-- after the data so that the INSERTs above needn't list them.
+ALTER TABLE CONCERT ADD VERSION LONG DEFAULT 0 NOT NULL;
+ALTER TABLE PERFORMER ADD VERSION LONG DEFAULT 0 NOT NULL;
@@ -6,6 +6,9 @@ import javax.ws.rs.core.Application;
 import java.util.HashSet;
 import java.util.Set;
 
+import nz.ac.auckland.compression.CompressionReaderInterceptor;
+import nz.ac.auckland.compression.CompressionWriterInterceptor;
+
 /**
  * Application subclass for the Parolee Web service.
  *
@@ -24,6 +27,11 @@ public class ParoleeApplication extends Application
       
       // Register the ContextResolver class for JAXB.
       //classes.add(ParoleeResolver.class);
+      
+      // Register the interceptors that compress responses and decompress
+      // requests.
+      classes.add(CompressionWriterInterceptor.class);
+      classes.add(CompressionReaderInterceptor.class);
    }
 
    @Override